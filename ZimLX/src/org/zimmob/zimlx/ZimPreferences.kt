@@ -54,7 +54,8 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
     private val restart = { restart() }
     private val refreshGrid = { refreshGrid() }
     private val updateBlur = { updateBlur() }
-    private val reloadIcons = { reloadIcons() }
+    private val reloadMaskedIcons = { IconPackManager.getInstance(context).onMaskingChanged() }
+    private val reloadLegacyIcons = { IconPackManager.getInstance(context).onLegacyTreatmentChanged() }
     private val reloadIconPacks = { IconPackManager.getInstance(context).packList.reloadPacks() }
 
     private val resetAllApps = { onChangeCallback?.resetAllApps() ?: Unit }
@@ -137,10 +138,10 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
 
         override fun unflattenValue(value: String) = value
     }
-    val iconPackMasking by BooleanPref("pref_iconPackMasking", true, reloadIcons)
-    val enableLegacyTreatment by BooleanPref("pref_enableLegacyTreatment", context.resources.getBoolean(R.bool.config_enable_legacy_treatment), reloadIcons)
-    val colorizedLegacyTreatment by BooleanPref("pref_colorizeGeneratedBackgrounds", context.resources.getBoolean(R.bool.config_enable_colorized_legacy_treatment), reloadIcons)
-    val enableWhiteOnlyTreatment by BooleanPref("pref_enableWhiteOnlyTreatment", context.resources.getBoolean(R.bool.config_enable_white_only_treatment), reloadIcons)
+    val iconPackMasking by BooleanPref("pref_iconPackMasking", true, reloadMaskedIcons)
+    val enableLegacyTreatment by BooleanPref("pref_enableLegacyTreatment", context.resources.getBoolean(R.bool.config_enable_legacy_treatment), reloadLegacyIcons)
+    val colorizedLegacyTreatment by BooleanPref("pref_colorizeGeneratedBackgrounds", context.resources.getBoolean(R.bool.config_enable_colorized_legacy_treatment), reloadLegacyIcons)
+    val enableWhiteOnlyTreatment by BooleanPref("pref_enableWhiteOnlyTreatment", context.resources.getBoolean(R.bool.config_enable_white_only_treatment), reloadLegacyIcons)
     var launcherTheme by StringIntPref("pref_launcherTheme", 1) { ThemeManager.getInstance(context).onExtractedColorsChanged(null) }
     val defaultBlurStrength = TypedValue().apply {
         context.resources.getValue(R.dimen.config_default_blur_strength, this, true)
@@ -214,7 +215,8 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
         override fun unflattenValue(value: String) = value
     }
 
-    val customAppIcon = object : MutableMapPref<ComponentKey, IconPackManager.CustomIconEntry>("pref_appIconMap", reloadAll) {
+    // The providers setting custom icons reload the affected icons themselves.
+    val customAppIcon = object : MutableMapPref<ComponentKey, IconPackManager.CustomIconEntry>("pref_appIconMap") {
         override fun flattenKey(key: ComponentKey) = key.toString()
         override fun unflattenKey(key: String) = ComponentKey(context, key)
         override fun flattenValue(value: IconPackManager.CustomIconEntry) = value.toString()
@@ -262,10 +264,6 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
         onChangeCallback?.updateSmartspace()
     }
 
-    private fun reloadIcons() {
-        onChangeCallback?.reloadIcons()
-    }
-
     fun addOnPreferenceChangeListener(listener: OnPreferenceChangeListener, vararg keys: String) {
         keys.forEach { addOnPreferenceChangeListener(it, listener) }
     }
@@ -373,18 +371,29 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
     }
 
     abstract inner class MutableMapPref<K, V>(private val prefKey: String, onChange: () -> Unit = doNothing) {
-        private val valueMap = HashMap<K, V>()
+        // Parsed on first use rather than while the launcher starts.
+        private val valueMap by lazy { loadValues() }
+        // Flattened entries, kept so that saving doesn't flatten all the entries again.
+        private val flatMap = HashMap<String, String>()
+        private var dirty = false
 
         init {
-            val obj = JSONObject(sharedPrefs.getString(prefKey, "{}"))
-            obj.keys().forEach {
-                valueMap[unflattenKey(it)] = unflattenValue(obj.getString(it))
-            }
             if (onChange !== doNothing) {
                 onChangeMap[prefKey] = onChange
             }
         }
 
+        private fun loadValues(): HashMap<K, V> {
+            val values = HashMap<K, V>()
+            val obj = JSONObject(sharedPrefs.getString(prefKey, "{}"))
+            obj.keys().forEach {
+                val flatValue = obj.getString(it)
+                flatMap[it] = flatValue
+                values[unflattenKey(it)] = unflattenValue(flatValue)
+            }
+            return values
+        }
+
         fun toMap() = HashMap<K, V>(valueMap)
 
         open fun flattenKey(key: K) = key.toString()
@@ -394,20 +403,29 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
         abstract fun unflattenValue(value: String): V
 
         operator fun set(key: K, value: V?) {
+            if (value == valueMap[key]) return
             if (value != null) {
                 valueMap[key] = value
+                flatMap[flattenKey(key)] = flattenValue(value)
             } else {
                 valueMap.remove(key)
+                flatMap.remove(flattenKey(key))
+            }
+            dirty = true
+            if (bulkEditing) {
+                pendingMapPrefs.add(this)
+            } else {
+                saveChanges()
             }
-            saveChanges()
         }
 
-        private fun saveChanges() {
-            val obj = JSONObject()
-            valueMap.entries.forEach { obj.put(flattenKey(it.key), flattenValue(it.value)) }
+        internal fun saveChanges() {
+            if (!dirty) return
+            dirty = false
+            val json = JSONObject(flatMap).toString()
             @SuppressLint("CommitPrefEdits")
             val editor = if (bulkEditing) editor!! else sharedPrefs.edit()
-            editor.putString(prefKey, obj.toString())
+            editor.putString(prefKey, json)
             if (!bulkEditing)
                 commitOrApply(editor, blockingEditing)
         }
@@ -523,6 +541,8 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
     var blockingEditing = false
     var bulkEditing = false
     var editor: SharedPreferences.Editor? = null
+    // Map prefs changed during the bulk edit, they are saved once when it ends.
+    private val pendingMapPrefs = LinkedHashSet<MutableMapPref<*, *>>()
 
     fun beginBlockingEdit() {
         blockingEditing = true
@@ -539,6 +559,8 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
     }
 
     fun endBulkEdit() {
+        pendingMapPrefs.forEach { it.saveChanges() }
+        pendingMapPrefs.clear()
         bulkEditing = false
         commitOrApply(editor!!, blockingEditing)
         editor = null
@@ -48,8 +48,4 @@ class ZimPreferencesChangeCallback(val launcher: ZimLauncher) {
     fun updateSmartspace() {
         launcher.refreshGrid()
     }
-
-    fun reloadIcons() {
-        org.zimmob.zimlx.reloadIcons(launcher)
-    }
 }
@@ -53,13 +53,11 @@ import com.android.launcher3.*
 import com.android.launcher3.compat.LauncherAppsCompat
 import com.android.launcher3.compat.UserManagerCompat
 import com.android.launcher3.model.BgDataModel
-import com.android.launcher3.shortcuts.DeepShortcutManager
 import com.android.launcher3.util.ComponentKey
 import com.android.launcher3.util.LooperExecutor
 import com.android.launcher3.util.Themes
 import com.android.launcher3.views.OptionsPopupView
 import com.google.android.apps.nexuslauncher.CustomAppPredictor
-import com.google.android.apps.nexuslauncher.CustomIconUtils
 import org.json.JSONArray
 import org.json.JSONObject
 import org.xmlpull.v1.XmlPullParser
@@ -336,27 +334,53 @@ fun java.text.Collator.matches(query: String, target: String): Boolean {
 
 fun String.toTitleCase(): String = splitToSequence(" ").map { it.capitalize() }.joinToString(" ")
 
+/**
+ * Recreates all the icons, for changes which can affect any of them.
+ */
 fun reloadIcons(context: Context) {
-    LooperExecutor(LauncherModel.getIconPackLooper()).execute {
-        val userManagerCompat = UserManagerCompat.getInstance(context)
-        val las = LauncherAppState.getInstance(context)
-        val model = las.model
-        val launcher = las.launcher
-
-        for (user in userManagerCompat.userProfiles) {
-            model.onPackagesReload(user)
-        }
+    reloadIcons(context, true) { true }
+}
 
-        val shortcutManager = DeepShortcutManager.getInstance(context)
+/**
+ * Recreates the icons of the activities for which [isAffected] returns true, and of the pinned
+ * deep shortcuts if [updateDeepShortcuts] is set. [isAffected] is called on the icon pack looper,
+ * once per activity of every user.
+ */
+fun reloadIcons(context: Context, updateDeepShortcuts: Boolean,
+                isAffected: (LauncherActivityInfo) -> Boolean) {
+    LooperExecutor(LauncherModel.getIconPackLooper()).execute {
         val launcherApps = LauncherAppsCompat.getInstance(context)
-        userManagerCompat.userProfiles.forEach { user ->
-            launcherApps.getActivityList(null, user).forEach { CustomIconUtils.reloadIcon(shortcutManager, model, user, it.componentName.packageName) }
-        }
-        if (launcher != null) {
-            runOnMainThread {
-                (launcher.userEventDispatcher as CustomAppPredictor).uiManager.onPredictionsUpdated()
+        val components = HashSet<ComponentKey>()
+        UserManagerCompat.getInstance(context).userProfiles.forEach { user ->
+            launcherApps.getActivityList(null, user).forEach {
+                if (isAffected(it)) {
+                    components.add(ComponentKey(it.componentName, it.user))
+                }
             }
         }
+        reloadIconsNow(context, components, updateDeepShortcuts)
+    }
+}
+
+/**
+ * Recreates the icons of [components], like after editing their custom icons.
+ */
+fun reloadIcons(context: Context, components: Collection<ComponentKey>) {
+    LooperExecutor(LauncherModel.getIconPackLooper()).execute {
+        reloadIconsNow(context, HashSet(components), false)
+    }
+}
+
+private fun reloadIconsNow(context: Context, components: HashSet<ComponentKey>,
+                           updateDeepShortcuts: Boolean) {
+    val las = LauncherAppState.getInstance(context)
+    las.model.onComponentIconsChanged(components, updateDeepShortcuts)
+
+    val launcher = las.launcher
+    if (launcher != null && !components.isEmpty()) {
+        runOnMainThread {
+            (launcher.userEventDispatcher as CustomAppPredictor).uiManager.onPredictionsUpdated()
+        }
     }
 }
 
@@ -0,0 +1,113 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.blur
+
+import android.graphics.Bitmap
+import android.graphics.Color
+
+/**
+ * Bitmaps of the blur pipeline which are no longer shown, kept to be reused by the next blur of
+ * the same size instead of allocating new ones.
+ *
+ * Also counts the bytes of the bitmaps allocated by the pipeline, including the ones it doesn't
+ * own, like the decoded wallpaper, so that the peak memory use of a blur can be logged.
+ *
+ * This class is thread safe.
+ */
+class BlurBitmapPool(private val maxPoolSize: Int) {
+
+    private val pool = ArrayList<Bitmap>()
+
+    /**
+     * Bytes of the bitmaps which are allocated and tracked.
+     */
+    var allocatedBytes = 0L
+        @Synchronized get
+        private set
+
+    /**
+     * Highest value of [allocatedBytes] since the last [resetHighWaterMark].
+     */
+    var highWaterMark = 0L
+        @Synchronized get
+        private set
+
+    /**
+     * Returns a transparent bitmap of the given size, reusing a pooled one if possible.
+     */
+    fun acquire(width: Int, height: Int): Bitmap {
+        synchronized(this) {
+            val index = pool.indexOfFirst { it.width == width && it.height == height }
+            if (index >= 0) {
+                return pool.removeAt(index).apply { eraseColor(Color.TRANSPARENT) }
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888).also(::track)
+    }
+
+    /**
+     * Returns [bitmap] to the pool, or recycles it if the pool is full. [bitmap] must not be
+     * drawn anymore.
+     */
+    fun release(bitmap: Bitmap?) {
+        if (bitmap == null || bitmap.isRecycled) return
+        synchronized(this) {
+            if (pool.size < maxPoolSize && bitmap.isMutable && pool.none { it === bitmap }) {
+                pool.add(bitmap)
+                return
+            }
+        }
+        recycle(bitmap)
+    }
+
+    /**
+     * Recycles [bitmap], which was tracked.
+     */
+    fun recycle(bitmap: Bitmap) {
+        if (bitmap.isRecycled) return
+        untrack(bitmap)
+        bitmap.recycle()
+    }
+
+    /**
+     * Counts [bitmap] in [allocatedBytes], for bitmaps allocated outside of [acquire].
+     */
+    @Synchronized
+    fun track(bitmap: Bitmap) {
+        allocatedBytes += bitmap.allocationByteCount
+        highWaterMark = Math.max(highWaterMark, allocatedBytes)
+    }
+
+    @Synchronized
+    fun untrack(bitmap: Bitmap) {
+        allocatedBytes -= bitmap.allocationByteCount
+    }
+
+    @Synchronized
+    fun resetHighWaterMark() {
+        highWaterMark = allocatedBytes
+    }
+
+    /**
+     * Recycles the pooled bitmaps.
+     */
+    fun trim() {
+        val bitmaps = synchronized(this) { ArrayList(pool).also { pool.clear() } }
+        bitmaps.forEach(::recycle)
+    }
+}
@@ -50,6 +50,7 @@ class BlurDrawable internal constructor(
     private val mClipPaint = Paint(Paint.ANTI_ALIAS_FLAG)
     private val mClearPaint = Paint(Paint.ANTI_ALIAS_FLAG).apply { xfermode = PorterDuffXfermode(PorterDuff.Mode.CLEAR) }
     private val mRect = RectF()
+    private val mWallpaperRect = RectF()
     private var mPositionX: Float = 0.toFloat()
     private var mPositionY: Float = 0.toFloat()
     private var mOffset: Float = 0.toFloat()
@@ -189,15 +190,15 @@ class BlurDrawable internal constructor(
         // Check again if the bitmap is recycled
         if (toDraw.isRecycled) return
         try {
-            canvas.drawBitmap(toDraw, blurTranslateX, translateY - mProvider.wallpaperYOffset, mPaint)
+            drawWallpaper(canvas, toDraw, blurTranslateX, translateY - mProvider.wallpaperYOffset, mPaint)
         } catch (e: Exception) {
             Log.e("BlurDrawable", "Failed to draw blurred bitmasp", e)
         }
         if (mTopRounded) {
-            mTopCanvas.drawBitmap(toDraw, blurTranslateX - mRect.left, translateY - mProvider.wallpaperYOffset - mRect.top, mCornerPaint)
+            drawWallpaper(mTopCanvas, toDraw, blurTranslateX - mRect.left, translateY - mProvider.wallpaperYOffset - mRect.top, mCornerPaint)
         }
         if (mBottomRounded) {
-            mBottomCanvas.drawBitmap(toDraw, blurTranslateX - mRect.left, translateY - mProvider.wallpaperYOffset - bottomY, mCornerPaint)
+            drawWallpaper(mBottomCanvas, toDraw, blurTranslateX - mRect.left, translateY - mProvider.wallpaperYOffset - bottomY, mCornerPaint)
         }
 
         if (prepare()) {
@@ -248,6 +249,15 @@ class BlurDrawable internal constructor(
         }
     }
 
+    /**
+     * Draws the downsampled [wallpaper] upscaled to its real size, at [left], [top].
+     */
+    private fun drawWallpaper(canvas: Canvas, wallpaper: Bitmap, left: Float, top: Float, paint: Paint) {
+        mWallpaperRect.set(left, top, left + wallpaper.width * mDownsampleFactor,
+                top + wallpaper.height * mDownsampleFactor)
+        canvas.drawBitmap(wallpaper, null, mWallpaperRect, paint)
+    }
+
     private fun prepare(): Boolean {
         if (mBlurredView == null) return false
         if (!mBlurInvalid) return true
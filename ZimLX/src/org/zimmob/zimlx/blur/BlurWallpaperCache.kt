@@ -0,0 +1,139 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.blur
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.util.AtomicFile
+import android.util.Log
+import com.android.launcher3.Utilities
+import java.io.BufferedOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * The last blurred wallpaper, saved in a file with the inputs of the blur, so that it can be
+ * shown right away when the launcher starts again instead of being blurred again.
+ */
+class BlurWallpaperCache(context: Context) {
+
+    private val file = File(File(context.cacheDir, CACHE_DIR), "wallpaper.blur")
+    private val writeLock = Any()
+
+    /**
+     * Inputs of a blur. [wallpaperId] identifies the wallpaper, it is the system wallpaper id on
+     * N and later, and a hash of the wallpaper before.
+     */
+    data class Key(val wallpaperId: Long, val displayWidth: Int, val displayHeight: Int,
+                   val blurRadius: Float, val vibrancy: Float, val downsampleFactor: Int)
+
+    /**
+     * Returns the saved blur of [key], in a bitmap from [pool], or null if the saved blur is of
+     * different inputs.
+     */
+    fun read(key: Key, pool: BlurBitmapPool): Bitmap? {
+        if (!file.exists()) return null
+        try {
+            RandomAccessFile(file, "r").use { raf ->
+                val channel = raf.channel
+                val buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                if (buffer.int != MAGIC || buffer.int != FORMAT_VERSION || readKey(buffer) != key) {
+                    return null
+                }
+                val width = buffer.int
+                val height = buffer.int
+                if (width <= 0 || height <= 0 || width > MAX_SIZE || height > MAX_SIZE
+                        || buffer.remaining() != width * height * BYTES_PER_PIXEL) {
+                    throw IllegalStateException("Invalid size ${width}x$height")
+                }
+                val bitmap = pool.acquire(width, height)
+                bitmap.copyPixelsFromBuffer(buffer)
+                return bitmap
+            }
+        } catch (e: IOException) {
+            Log.e(TAG, "Unable to read the blurred wallpaper", e)
+        } catch (e: RuntimeException) {
+            // RuntimeExceptions are thrown when reading past the end of a truncated file.
+            Log.e(TAG, "Unable to read the blurred wallpaper", e)
+        }
+        AtomicFile(file).delete()
+        return null
+    }
+
+    /**
+     * Saves [bitmap] as the blur of [key]. The pixels are copied right away, and written in the
+     * background.
+     */
+    fun write(key: Key, bitmap: Bitmap) {
+        val pixels = ByteBuffer.allocate(bitmap.width * bitmap.height * BYTES_PER_PIXEL)
+        bitmap.copyPixelsToBuffer(pixels)
+        val width = bitmap.width
+        val height = bitmap.height
+        Utilities.THREAD_POOL_EXECUTOR.execute { writeFile(key, width, height, pixels.array()) }
+    }
+
+    private fun writeFile(key: Key, width: Int, height: Int, pixels: ByteArray) {
+        synchronized(writeLock) {
+            file.parentFile.mkdirs()
+            val atomicFile = AtomicFile(file)
+            var fos: FileOutputStream? = null
+            try {
+                fos = atomicFile.startWrite()
+                val out = DataOutputStream(BufferedOutputStream(fos))
+                out.writeInt(MAGIC)
+                out.writeInt(FORMAT_VERSION)
+                out.writeLong(key.wallpaperId)
+                out.writeInt(key.displayWidth)
+                out.writeInt(key.displayHeight)
+                out.writeFloat(key.blurRadius)
+                out.writeFloat(key.vibrancy)
+                out.writeInt(key.downsampleFactor)
+                out.writeInt(width)
+                out.writeInt(height)
+                out.write(pixels)
+                out.flush()
+                atomicFile.finishWrite(fos)
+            } catch (e: IOException) {
+                Log.e(TAG, "Unable to write the blurred wallpaper", e)
+                fos?.let { atomicFile.failWrite(it) }
+            }
+        }
+    }
+
+    private fun readKey(buffer: ByteBuffer) = Key(buffer.long, buffer.int, buffer.int,
+            buffer.float, buffer.float, buffer.int)
+
+    companion object {
+
+        private const val TAG = "BlurWallpaperCache"
+
+        private const val MAGIC = 0x42575031 // "BWP1"
+        private const val FORMAT_VERSION = 1
+
+        private const val BYTES_PER_PIXEL = 4
+        // Sanity limit, a larger value means the file is corrupt.
+        private const val MAX_SIZE = 4096
+
+        private const val CACHE_DIR = "blurred_wallpaper"
+    }
+}
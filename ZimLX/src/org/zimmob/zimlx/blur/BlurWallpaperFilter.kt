@@ -38,9 +38,10 @@ class BlurWallpaperFilter(private val context: Context) : WallpaperFilter {
                     .scheme(HokoBlur.SCHEME_OPENGL)
                     .mode(HokoBlur.MODE_STACK)
                     .radius(blurRadius)
-                    .sampleFactor(BlurWallpaperProvider.DOWNSAMPLE_FACTOR.toFloat())
+                    // The wallpaper is already downsampled, it is upscaled when drawn.
+                    .sampleFactor(1f)
                     .forceCopy(false)
-                    .needUpscale(true)
+                    .needUpscale(false)
                     .processor()
                     .asyncBlur(wallpaper, object : AsyncBlurTask.Callback {
                         override fun onBlurSuccess(bitmap: Bitmap) {
@@ -18,17 +18,23 @@
 package org.zimmob.zimlx.blur
 
 import android.app.WallpaperManager
+import android.content.ComponentCallbacks2
 import android.content.Context
 import android.graphics.*
+import android.graphics.drawable.BitmapDrawable
 import android.os.Build
+import android.system.Os
+import android.system.OsConstants
 import android.util.DisplayMetrics
 import android.util.Log
 import android.view.WindowManager
 import android.widget.Toast
 import com.android.launcher3.R
 import com.android.launcher3.Utilities
+import com.android.launcher3.config.FeatureFlags
 import org.zimmob.zimlx.*
 import org.zimmob.zimlx.util.SingletonHolder
+import java.util.Arrays
 
 class BlurWallpaperProvider(val context: Context) {
 
@@ -36,17 +42,20 @@ class BlurWallpaperProvider(val context: Context) {
     private val mWallpaperManager: WallpaperManager = WallpaperManager.getInstance(context)
     private val mListeners = ArrayList<Listener>()
     private val mDisplayMetrics = DisplayMetrics()
+    // The wallpaper and its placeholder are 1 / DOWNSAMPLE_FACTOR of the size they are drawn at.
+    // They are only changed on the main thread, which draws them.
+    private val mBitmapPool = BlurBitmapPool(2)
     var wallpaper: Bitmap? = null
         private set(value) {
             if (field != value) {
-                field?.recycle()
+                mBitmapPool.release(field)
                 field = value
             }
         }
     var placeholder: Bitmap? = null
         private set(value) {
             if (field != value) {
-                field?.recycle()
+                mBitmapPool.release(field)
                 field = value
             }
         }
@@ -59,8 +68,11 @@ class BlurWallpaperProvider(val context: Context) {
         }
     }
 
+    private val mVibrancyFilter = ColorMatrixColorFilter(ColorMatrix().apply { setSaturation(VIBRANCY) })
     private val mVibrancyPaint = Paint(Paint.FILTER_BITMAP_FLAG or Paint.ANTI_ALIAS_FLAG)
+            .apply { colorFilter = mVibrancyFilter }
     private val mColorPaint = Paint(Paint.ANTI_ALIAS_FLAG)
+    private val mDstRect = RectF()
 
     private val mPath = Path()
 
@@ -72,11 +84,20 @@ class BlurWallpaperProvider(val context: Context) {
 
     private val mUpdateRunnable = Runnable { updateWallpaper() }
 
-    private val wallpaperFilter = BlurWallpaperFilter(context)
+    private val wallpaperFilter = if (FeatureFlags.STACK_BLUR_WALLPAPER_FILTER) {
+        StackBlurWallpaperFilter()
+    } else {
+        BlurWallpaperFilter(context)
+    }
     private var applyTask: WallpaperFilter.ApplyTask? = null
 
     private var updatePending = false
 
+    private val mCache = BlurWallpaperCache(context)
+    // Inputs of the blur shown, or being computed.
+    @Volatile
+    private var mCurrentKey: BlurWallpaperCache.Key? = null
+
     init {
         isEnabled = getEnabledStatus()
 
@@ -104,16 +125,44 @@ class BlurWallpaperProvider(val context: Context) {
         }
 
         if (!isEnabled) {
-            wallpaper = null
-            placeholder = null
+            mCurrentKey = null
+            runOnMainThread {
+                wallpaper = null
+                placeholder = null
+            }
             return
         }
 
         wallpaperFilter.applyPrefs(prefs)
+        updateDisplayMetrics()
+        val key = getCacheKey()
+        if (key != null && key == mCurrentKey) {
+            // Nothing changed since the last blur.
+            return
+        }
+        mCurrentKey = key
+        mBitmapPool.resetHighWaterMark()
+
+        val cached = key?.let { mCache.read(it, mBitmapPool) }
+        if (cached != null) {
+            Log.d("BWP", "using saved blur")
+            setWallpaperSize(cached.width, cached.height)
+            updatePlaceholder(cached)
+            runOnMainThread {
+                this.wallpaper = cached
+                notifyWallpaperChanged()
+            }
+            return
+        }
 
-        var wallpaper = try {
-            Utilities.drawableToBitmap(mWallpaperManager.drawable, true) as Bitmap
+        val wallpaper = try {
+            loadWallpaper()
+        } catch (e: OutOfMemoryError) {
+            mCurrentKey = null
+            onBlurOutOfMemory()
+            return
         } catch (e: Exception) {
+            mCurrentKey = null
             prefs.enableBlur = false
             runOnMainThread {
                 val msg = "${context.getString(R.string.blur_wallpaper_failed)}: ${e.message}"
@@ -122,35 +171,32 @@ class BlurWallpaperProvider(val context: Context) {
             }
             return
         }
-        wallpaper = scaleToScreenSize(wallpaper)
-        val wallpaperHeight = wallpaper.height
-        wallpaperYOffset = if (wallpaperHeight > mDisplayHeight) {
-            (wallpaperHeight - mDisplayHeight) * 0.5f
-        } else {
-            0f
-        }
 
-        mWallpaperWidth = wallpaper.width
-
-        placeholder = createPlaceholder(wallpaper.width, wallpaper.height)
-        wallpaper = applyVibrancy(wallpaper)
+        updatePlaceholder(wallpaper)
         Log.d("BWP", "starting blur")
 
-        applyTask = wallpaperFilter.apply(wallpaper).setCallback { result, error ->
+        // Set before the callback, which may run right away.
+        val task = wallpaperFilter.apply(wallpaper)
+        applyTask = task
+        task.setCallback { result, error ->
             if (error == null) {
-                this@BlurWallpaperProvider.wallpaper = result
-                Log.d("BWP", "blur done")
-                runOnMainThread(::notifyWallpaperChanged)
-                wallpaper.recycle()
+                if (result !== wallpaper) {
+                    // The filter didn't blur in place.
+                    mBitmapPool.track(result!!)
+                    mBitmapPool.release(wallpaper)
+                }
+                Log.d("BWP", "blur done, peak memory ${mBitmapPool.highWaterMark / 1024} KB")
+                key?.let { mCache.write(it, result!!) }
+                runOnMainThread {
+                    this@BlurWallpaperProvider.wallpaper = result
+                    notifyWallpaperChanged()
+                }
             } else {
+                mCurrentKey = null
                 if (error is OutOfMemoryError) {
-                    prefs.enableBlur = false
-                    runOnMainThread {
-                        Toast.makeText(context, R.string.blur_oom, Toast.LENGTH_LONG).show()
-                        notifyWallpaperChanged()
-                    }
+                    onBlurOutOfMemory()
                 }
-                wallpaper.recycle()
+                mBitmapPool.release(wallpaper)
             }
             applyTask = null
             if (updatePending) {
@@ -160,36 +206,162 @@ class BlurWallpaperProvider(val context: Context) {
         }
     }
 
+    private fun onBlurOutOfMemory() {
+        prefs.enableBlur = false
+        runOnMainThread {
+            Toast.makeText(context, R.string.blur_oom, Toast.LENGTH_LONG).show()
+            notifyWallpaperChanged()
+        }
+    }
+
     private fun notifyWallpaperChanged() {
         mListeners.forEach(Listener::onWallpaperChanged)
     }
 
-    private fun scaleToScreenSize(bitmap: Bitmap): Bitmap {
+    /**
+     * Returns the wallpaper scaled to cover the display, at 1 / [DOWNSAMPLE_FACTOR] of its size,
+     * with the vibrancy applied. The full size wallpaper is never copied.
+     */
+    private fun loadWallpaper(): Bitmap {
+        val displayWidth = mDisplayMetrics.widthPixels
+        val displayHeight = mDisplayMetrics.heightPixels
+
+        val decoded = decodeWallpaperFile(displayWidth, displayHeight)
+        val drawable = if (decoded == null) mWallpaperManager.drawable else null
+        val source = decoded ?: (drawable as? BitmapDrawable)?.bitmap
+        val sourceWidth = source?.width ?: drawable!!.intrinsicWidth
+        val sourceHeight = source?.height ?: drawable!!.intrinsicHeight
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            throw IllegalStateException("Invalid wallpaper size ${sourceWidth}x$sourceHeight")
+        }
+
+        val upscaleFactor = getUpscaleFactor(sourceWidth, sourceHeight, displayWidth, displayHeight)
+        val scaledWidth = Math.max(displayWidth, (sourceWidth * upscaleFactor).ceilToInt())
+        val scaledHeight = Math.max(displayHeight, (sourceHeight * upscaleFactor).ceilToInt())
+        val width = (scaledWidth.toFloat() / DOWNSAMPLE_FACTOR).ceilToInt()
+        val height = (scaledHeight.toFloat() / DOWNSAMPLE_FACTOR).ceilToInt()
+
+        val bitmap = mBitmapPool.acquire(width, height)
+        sCanvas.setBitmap(bitmap)
+        if (source != null) {
+            mDstRect.set(0f, 0f, width.toFloat(), height.toFloat())
+            sCanvas.drawBitmap(source, null, mDstRect, mVibrancyPaint)
+        } else {
+            drawable!!.setBounds(0, 0, width, height)
+            drawable.colorFilter = mVibrancyFilter
+            drawable.draw(sCanvas)
+        }
+        sCanvas.setBitmap(null)
+        decoded?.let(mBitmapPool::recycle)
+
+        setWallpaperSize(width, height)
+        return bitmap
+    }
+
+    private fun updateDisplayMetrics() {
         val wm = context.getSystemService(Context.WINDOW_SERVICE) as WindowManager
-        val display = wm.defaultDisplay
-        display.getRealMetrics(mDisplayMetrics)
+        wm.defaultDisplay.getRealMetrics(mDisplayMetrics)
+        mDisplayHeight = mDisplayMetrics.heightPixels
+    }
+
+    /**
+     * Updates the position of the wallpaper for its downsampled size.
+     */
+    private fun setWallpaperSize(width: Int, height: Int) {
+        mWallpaperWidth = width * DOWNSAMPLE_FACTOR
+        val wallpaperHeight = height * DOWNSAMPLE_FACTOR
+        wallpaperYOffset = if (wallpaperHeight > mDisplayHeight) {
+            (wallpaperHeight - mDisplayHeight) * 0.5f
+        } else {
+            0f
+        }
+    }
 
-        val width = mDisplayMetrics.widthPixels
-        val height = mDisplayMetrics.heightPixels
-        mDisplayHeight = height
+    /**
+     * Returns the inputs of the blur of the current wallpaper, or null if the wallpaper can't be
+     * identified.
+     */
+    private fun getCacheKey(): BlurWallpaperCache.Key? {
+        val wallpaperId = try {
+            getWallpaperId()
+        } catch (e: Exception) {
+            null
+        } ?: return null
+        return BlurWallpaperCache.Key(wallpaperId, mDisplayMetrics.widthPixels,
+                mDisplayMetrics.heightPixels, prefs.blurRadius, VIBRANCY, DOWNSAMPLE_FACTOR)
+    }
 
-        val widthFactor = width.toFloat() / bitmap.width
-        val heightFactor = height.toFloat() / bitmap.height
+    private fun getWallpaperId(): Long? {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            val id = mWallpaperManager.getWallpaperId(WallpaperManager.FLAG_SYSTEM)
+            return if (id < 0) null else id.toLong()
+        }
+        // There are no wallpaper ids before N, hash a thumbnail of the wallpaper instead.
+        val drawable = mWallpaperManager.drawable ?: return null
+        val thumbnail = Bitmap.createBitmap(HASH_SIZE, HASH_SIZE, Bitmap.Config.ARGB_8888)
+        sCanvas.setBitmap(thumbnail)
+        drawable.setBounds(0, 0, HASH_SIZE, HASH_SIZE)
+        drawable.draw(sCanvas)
+        sCanvas.setBitmap(null)
+        val pixels = IntArray(HASH_SIZE * HASH_SIZE)
+        thumbnail.getPixels(pixels, 0, HASH_SIZE, 0, 0, HASH_SIZE, HASH_SIZE)
+        thumbnail.recycle()
+        var hash = Arrays.hashCode(pixels).toLong()
+        hash = 31 * hash + drawable.intrinsicWidth
+        hash = 31 * hash + drawable.intrinsicHeight
+        return hash
+    }
 
-        val upscaleFactor = Math.max(widthFactor, heightFactor)
-        if (upscaleFactor <= 0) {
-            return bitmap
+    /**
+     * Decodes the wallpaper file subsampled by the largest power of two which doesn't lose
+     * details at the downsampled size, or returns null if the file can't be read.
+     */
+    private fun decodeWallpaperFile(displayWidth: Int, displayHeight: Int): Bitmap? {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return null
+        val file = try {
+            mWallpaperManager.getWallpaperFile(WallpaperManager.FLAG_SYSTEM)
+        } catch (e: Exception) {
+            null
+        } ?: return null
+        return file.use {
+            val fd = it.fileDescriptor
+            val options = BitmapFactory.Options()
+            options.inJustDecodeBounds = true
+            BitmapFactory.decodeFileDescriptor(fd, null, options)
+            if (options.outWidth <= 0 || options.outHeight <= 0) return null
+
+            val maxSampleSize = DOWNSAMPLE_FACTOR / getUpscaleFactor(options.outWidth,
+                    options.outHeight, displayWidth, displayHeight)
+            var sampleSize = 1
+            while (sampleSize * 2 <= maxSampleSize) {
+                sampleSize *= 2
+            }
+            options.inJustDecodeBounds = false
+            options.inSampleSize = sampleSize
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888
+            Os.lseek(fd, 0, OsConstants.SEEK_SET)
+            BitmapFactory.decodeFileDescriptor(fd, null, options)?.also(mBitmapPool::track)
         }
+    }
+
+    // Scale of the wallpaper when it covers the display.
+    private fun getUpscaleFactor(width: Int, height: Int, displayWidth: Int, displayHeight: Int) =
+            Math.max(displayWidth.toFloat() / width, displayHeight.toFloat() / height)
 
-        val scaledWidth = Math.max(width, (bitmap.width * upscaleFactor).ceilToInt())
-        val scaledHeight = Math.max(height, (bitmap.height * upscaleFactor).ceilToInt())
-        return Bitmap.createScaledBitmap(bitmap, scaledWidth, scaledHeight, false)
+    private fun updatePlaceholder(wallpaper: Bitmap) {
+        val currentPlaceholder = placeholder
+        if (currentPlaceholder == null || currentPlaceholder.width != wallpaper.width
+                || currentPlaceholder.height != wallpaper.height) {
+            val placeholder = createPlaceholder(wallpaper.width, wallpaper.height)
+            runOnMainThread { this.placeholder = placeholder }
+        }
     }
 
     private fun createPlaceholder(width: Int, height: Int): Bitmap {
-        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+        val bitmap = mBitmapPool.acquire(width, height)
         sCanvas.setBitmap(bitmap)
 
+        mPath.reset()
         mPath.moveTo(0f, 0f)
         mPath.lineTo(0f, height.toFloat())
         mPath.lineTo(width.toFloat(), height.toFloat())
@@ -197,6 +369,7 @@ class BlurWallpaperProvider(val context: Context) {
         mColorPaint.xfermode = null
         mColorPaint.color = tintColor
         sCanvas.drawPath(mPath, mColorPaint)
+        sCanvas.setBitmap(null)
 
         return bitmap
     }
@@ -209,23 +382,13 @@ class BlurWallpaperProvider(val context: Context) {
         Utilities.THREAD_POOL_EXECUTOR.execute(mUpdateRunnable)
     }
 
-    private fun applyVibrancy(wallpaper: Bitmap): Bitmap {
-        val width = wallpaper.width
-        val height = wallpaper.height
-
-        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-        val canvas = Canvas()
-        canvas.setBitmap(bitmap)
-
-        val colorMatrix = ColorMatrix()
-        colorMatrix.setSaturation(1.25f)
-        val filter = ColorMatrixColorFilter(colorMatrix)
-        mVibrancyPaint.colorFilter = filter
-        canvas.drawBitmap(wallpaper, 0f, 0f, mVibrancyPaint)
-
-        wallpaper.recycle()
-
-        return bitmap
+    /**
+     * Recycles the pooled bitmaps once the launcher is hidden, the next blur allocates new ones.
+     */
+    fun onTrimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            mBitmapPool.trim()
+        }
     }
 
     fun addListener(listener: Listener) {
@@ -284,6 +447,10 @@ class BlurWallpaperProvider(val context: Context) {
         const val BLUR_ALLAPPS = 4
         const val DOWNSAMPLE_FACTOR = 8
 
+        private const val VIBRANCY = 1.25f
+        // Size of the thumbnail hashed to identify the wallpaper before N.
+        private const val HASH_SIZE = 32
+
         var isEnabled: Boolean = false
         private var sEnabledFlag: Int = 0
 
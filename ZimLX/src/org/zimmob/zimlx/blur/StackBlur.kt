@@ -0,0 +1,156 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.blur
+
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+
+/**
+ * Stack blur of ARGB pixels, done in place.
+ *
+ * The stack blur weights the pixels within the radius by their distance, like a triangle:
+ * `radius + 1 - |d|`. This is the same as two box blurs of `radius + 1` pixels, which is how it
+ * is computed, with running sums, so the cost doesn't depend on the radius. Pixels past the edges
+ * are the edge pixels.
+ *
+ * The blur is separable: rows are blurred first, then columns. Each pass is split in stripes of
+ * rows or columns which are blurred in parallel on [pool].
+ *
+ * Only uses plain Java classes, so that it can run off Android.
+ */
+class StackBlur(private val pool: ForkJoinPool) {
+
+    /**
+     * Blurs the [width] x [height] image in [pixels] by [radius] pixels.
+     */
+    fun blur(pixels: IntArray, width: Int, height: Int, radius: Int) {
+        if (pixels.size < width * height) {
+            throw IllegalArgumentException("${pixels.size} pixels for ${width}x$height")
+        }
+        if (radius < 1 || width == 0 || height == 0) return
+
+        val temp = IntArray(width * height)
+        // Rows, from pixels to temp.
+        pool.invoke(PassAction(pixels, temp, width, height, radius, true, 0, height))
+        // Columns, from temp back to pixels.
+        pool.invoke(PassAction(temp, pixels, width, height, radius, false, 0, width))
+    }
+
+    /**
+     * Blurs the lines in [[start], [end]) of [src] into [dst], splitting the range until it is
+     * small enough.
+     */
+    private class PassAction(
+            private val src: IntArray, private val dst: IntArray,
+            private val width: Int, private val height: Int, private val radius: Int,
+            private val horizontal: Boolean, private val start: Int, private val end: Int)
+        : RecursiveAction() {
+
+        override fun compute() {
+            val lineLength = if (horizontal) width else height
+            if ((end - start) * lineLength <= MIN_PIXELS_PER_TASK || end - start == 1) {
+                blurLines()
+                return
+            }
+            val mid = (start + end) ushr 1
+            invokeAll(PassAction(src, dst, width, height, radius, horizontal, start, mid),
+                    PassAction(src, dst, width, height, radius, horizontal, mid, end))
+        }
+
+        private fun blurLines() {
+            val length = if (horizontal) width else height
+            val stride = if (horizontal) 1 else width
+            val sums = IntArray((length + radius) * CHANNELS)
+            for (line in start until end) {
+                val offset = if (horizontal) line * width else line
+                blurLine(src, dst, offset, stride, length, radius, sums)
+            }
+        }
+    }
+
+    companion object {
+
+        private const val CHANNELS = 4
+        // Lines are not split below this many pixels per task, the overhead would be larger
+        // than the work.
+        private const val MIN_PIXELS_PER_TASK = 16 * 1024
+
+        /**
+         * Blurs the [length] pixels starting at [offset] of [src], [stride] apart, into the same
+         * positions of [dst]. [sums] holds at least `(length + radius) * 4` ints.
+         */
+        @JvmStatic
+        fun blurLine(src: IntArray, dst: IntArray, offset: Int, stride: Int, length: Int,
+                     radius: Int, sums: IntArray) {
+            val last = length - 1
+            val window = radius + 1
+
+            // First box: sums[n] is the sum of the pixels n - radius .. n, for n up to
+            // last + radius so that the second box can look ahead.
+            val first = src[offset]
+            var a = (first ushr 24) * window
+            var r = (first shr 16 and 0xff) * window
+            var g = (first shr 8 and 0xff) * window
+            var b = (first and 0xff) * window
+            for (n in 0 until length + radius) {
+                if (n > 0) {
+                    val add = src[offset + Math.min(n, last) * stride]
+                    val remove = src[offset + Math.max(n - window, 0) * stride]
+                    a += (add ushr 24) - (remove ushr 24)
+                    r += (add shr 16 and 0xff) - (remove shr 16 and 0xff)
+                    g += (add shr 8 and 0xff) - (remove shr 8 and 0xff)
+                    b += (add and 0xff) - (remove and 0xff)
+                }
+                val i = n * CHANNELS
+                sums[i] = a
+                sums[i + 1] = r
+                sums[i + 2] = g
+                sums[i + 3] = b
+            }
+
+            // Second box: the sum of sums[x] .. sums[x + radius], centered on x.
+            a = 0
+            r = 0
+            g = 0
+            b = 0
+            for (n in 0..radius) {
+                val i = n * CHANNELS
+                a += sums[i]
+                r += sums[i + 1]
+                g += sums[i + 2]
+                b += sums[i + 3]
+            }
+            val divisor = window * window
+            val round = divisor / 2
+            for (x in 0..last) {
+                if (x > 0) {
+                    val add = (x + radius) * CHANNELS
+                    val remove = (x - 1) * CHANNELS
+                    a += sums[add] - sums[remove]
+                    r += sums[add + 1] - sums[remove + 1]
+                    g += sums[add + 2] - sums[remove + 2]
+                    b += sums[add + 3] - sums[remove + 3]
+                }
+                dst[offset + x * stride] = ((a + round) / divisor shl 24) or
+                        ((r + round) / divisor shl 16) or
+                        ((g + round) / divisor shl 8) or
+                        ((b + round) / divisor)
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.blur
+
+import android.graphics.Bitmap
+import org.zimmob.zimlx.ZimPreferences
+import java.util.concurrent.ForkJoinPool
+
+/**
+ * Blurs the wallpaper in place with [StackBlur], on all the cores. Errors are reported to the
+ * callback of the task, the unblurred wallpaper is never returned.
+ */
+class StackBlurWallpaperFilter : WallpaperFilter {
+
+    private var blurRadius = 25
+
+    override fun applyPrefs(prefs: ZimPreferences) {
+        // The wallpaper is already downsampled.
+        blurRadius = prefs.blurRadius.toInt() / BlurWallpaperProvider.DOWNSAMPLE_FACTOR
+        blurRadius = Math.max(1, Math.min(blurRadius, 25))
+    }
+
+    override fun apply(wallpaper: Bitmap): WallpaperFilter.ApplyTask {
+        val radius = blurRadius
+        return WallpaperFilter.ApplyTask.create { emitter ->
+            pool.execute {
+                try {
+                    val width = wallpaper.width
+                    val height = wallpaper.height
+                    val pixels = IntArray(width * height)
+                    wallpaper.getPixels(pixels, 0, width, 0, 0, width, height)
+                    stackBlur.blur(pixels, width, height, radius)
+                    wallpaper.setPixels(pixels, 0, width, 0, 0, width, height)
+                    emitter.onSuccess(wallpaper)
+                } catch (t: Throwable) {
+                    emitter.onError(t)
+                }
+            }
+        }
+    }
+
+    companion object {
+
+        private val pool by lazy { ForkJoinPool(Runtime.getRuntime().availableProcessors()) }
+        private val stackBlur by lazy { StackBlur(pool) }
+    }
+}
@@ -36,34 +36,39 @@ interface WallpaperFilter {
         private var callback: ((Bitmap?, Throwable?) -> Unit)? = null
 
         fun setCallback(callback: (Bitmap?, Throwable?) -> Unit): ApplyTask {
+            // The filter may finish on another thread while the callback is set.
+            synchronized(this) {
+                if (result == null && error == null) {
+                    this.callback = callback
+                    return this
+                }
+            }
             result?.let {
                 callback(it, null)
                 return this
             }
             error?.let {
                 callback(null, it)
-                return this
             }
-            this.callback = callback
             return this
         }
 
         inner class Emitter {
 
             fun onSuccess(result: Bitmap) {
-                callback?.let {
-                    it(result, null)
-                    return
+                val callback = synchronized(this@ApplyTask) {
+                    this@ApplyTask.result = result
+                    this@ApplyTask.callback
                 }
-                this@ApplyTask.result = result
+                callback?.invoke(result, null)
             }
 
             fun onError(error: Throwable) {
-                callback?.let {
-                    it(null, error)
-                    return
+                val callback = synchronized(this@ApplyTask) {
+                    this@ApplyTask.error = error
+                    this@ApplyTask.callback
                 }
-                this@ApplyTask.error = error
+                callback?.invoke(null, error)
             }
         }
 
@@ -35,7 +35,6 @@ import com.android.launcher3.compat.LauncherAppsCompat
 import com.android.launcher3.compat.UserManagerCompat
 import com.android.launcher3.graphics.ColorExtractor
 import com.android.launcher3.graphics.FixedScaleDrawable
-import com.android.launcher3.graphics.IconNormalizer
 import com.android.launcher3.graphics.LauncherIcons
 import com.android.launcher3.shortcuts.DeepShortcutManager
 import com.android.launcher3.shortcuts.ShortcutInfoCompat
@@ -52,7 +51,6 @@ class DefaultPack(context: Context) : IconPack(context, "") {
 
     private val prefs by lazy { Utilities.getZimPrefs(context) }
     private val wrapperIcon: Drawable by lazy { context.getDrawable(R.drawable.adaptive_icon_drawable_wrapper)!!.mutate() }
-    private val normalizer: IconNormalizer by lazy { LauncherIcons.obtain(context).normalizer }
     val dynamicClockDrawer by lazy { DynamicClock(context) }
     private val appMap = HashMap<ComponentKey, Entry>().apply {
         val launcherApps = LauncherAppsCompat.getInstance(context)
@@ -161,6 +159,16 @@ class DefaultPack(context: Context) : IconPack(context, "") {
 
     }
 
+    /**
+     * Returns whether [icon] may be wrapped by [shouldWrapToAdaptive] with some of the legacy
+     * treatment prefs, regardless of their current values.
+     */
+    @RequiresApi(Build.VERSION_CODES.O)
+    fun mayWrapToAdaptive(icon: Drawable): Boolean {
+        return icon !is AdaptiveIconDrawable
+                || ColorExtractor.isSingleColor(icon.background, Color.WHITE)
+    }
+
     override fun newIcon(icon: Bitmap, itemInfo: ItemInfo,
                          customIconEntry: IconPackManager.CustomIconEntry?,
                          drawableFactory: ZimDrawableFactory): FastBitmapDrawable {
@@ -244,7 +252,7 @@ class DefaultPack(context: Context) : IconPack(context, "") {
                 setBounds(0, 0, 1, 1)
             }
             val outShape = BooleanArray(1)
-            val scale = normalizer.getScale(icon, null, dr.iconMask, outShape)
+            val scale = LauncherIcons.obtain(context).use { it.normalizer.getScale(icon, null, dr.iconMask, outShape) }
             if (!outShape[0]) {
                 dr.apply {
                     (dr.foreground as FixedScaleDrawable).drawable = icon
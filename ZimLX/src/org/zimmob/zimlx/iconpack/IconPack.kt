@@ -21,6 +21,7 @@ import android.content.Context
 import android.content.pm.LauncherActivityInfo
 import android.graphics.Bitmap
 import android.graphics.drawable.Drawable
+import android.os.Looper
 import com.android.launcher3.FastBitmapDrawable
 import com.android.launcher3.ItemInfo
 import com.android.launcher3.LauncherModel
@@ -28,6 +29,8 @@ import com.android.launcher3.compat.AlphabeticIndexCompat
 import com.android.launcher3.shortcuts.ShortcutInfoCompat
 import com.android.launcher3.util.ComponentKey
 import com.android.launcher3.util.LooperExecutor
+import java.util.Collections
+import java.util.IdentityHashMap
 import java.util.concurrent.Semaphore
 
 abstract class IconPack(val context: Context, val packPackageName: String) {
@@ -35,9 +38,28 @@ abstract class IconPack(val context: Context, val packPackageName: String) {
     private val indexCompat by lazy { AlphabeticIndexCompat(context) }
     private val loadCompleteListeners = ArrayList<(IconPack) -> Unit>()
 
+    // Entries of the icon picker, created on first use.
+    private val pickerEntries by lazy {
+        ensureInitialLoadComplete()
+        loadPickerEntries()
+    }
+    // Icons of the picker sorted by lower case drawable name, for prefix search.
+    private val entriesByName by lazy {
+        pickerEntries.mapNotNull { entry -> (entry as? Entry)?.let { it.identifierName.toLowerCase() to it } }
+                .sortedBy { it.first }
+    }
+    private var lastFilter: FilteredEntries? = null
+
     fun executeLoadPack() {
+        // The cache is read right away off the UI thread, before anyone could wait for it.
+        if (Looper.myLooper() != Looper.getMainLooper() && loadPackFromCache()) {
+            waiter = null
+            return
+        }
         LooperExecutor(LauncherModel.getIconPackLooper()).execute {
-            loadPack()
+            if (!loadPackFromCache()) {
+                loadPack()
+            }
             waiter?.release()
             loadCompleteListeners.forEach { it.invoke(this) }
             loadCompleteListeners.clear()
@@ -67,8 +89,20 @@ abstract class IconPack(val context: Context, val packPackageName: String) {
 
     abstract fun loadPack()
 
+    /**
+     * Loads the pack from a cache of a previous [loadPack], called on the thread creating the
+     * pack unless it is the UI thread, or on the icon pack looper. Returns false if there is no
+     * valid cache, in which case the pack is loaded on the icon pack looper.
+     */
+    open fun loadPackFromCache() = false
+
     abstract fun getEntryForComponent(key: ComponentKey): Entry?
 
+    /**
+     * Returns whether this pack has an icon of its own for [key], masked icons are not counted.
+     */
+    open fun coversComponent(key: ComponentKey) = getEntryForComponent(key) != null
+
     open fun getIcon(name: String, iconDpi: Int): Drawable? {
         return null
     }
@@ -85,8 +119,75 @@ abstract class IconPack(val context: Context, val packPackageName: String) {
                          drawableFactory: ZimDrawableFactory): FastBitmapDrawable?
 
     open fun getAllIcons(callback: (List<PackEntry>) -> Unit, cancel: () -> Boolean, filter: (item: String) -> Boolean = { _ -> true }) {
-        ensureInitialLoadComplete()
-        callback(categorize(filterDuplicates(entries)).filter { if (it is Entry) filter(it.identifierName) else true })
+        callback(pickerEntries.filter { if (it is Entry) filter(it.identifierName) else true })
+    }
+
+    /**
+     * Returns the entries of the icon picker, starting at [offset], optionally limited to the
+     * icons of [category] whose drawable name starts with [prefix] (ignoring case). Icons are in
+     * the order of the pack when searching by category only, and in name order when searching by
+     * prefix.
+     */
+    fun getIconPage(offset: Int, limit: Int, category: String? = null,
+                    prefix: String? = null): IconPage {
+        val source = getFilteredEntries(category, prefix?.toLowerCase())
+        val end = Math.min(source.size, offset + limit)
+        val page = if (offset < end) ArrayList(source.subList(offset, end)) else emptyList<PackEntry>()
+        return IconPage(page, offset, source.size)
+    }
+
+    /**
+     * Creates the entries of the icon picker, called once per pack.
+     */
+    protected open fun loadPickerEntries(): List<PackEntry> = categorize(filterDuplicates(entries))
+
+    @Synchronized
+    private fun getFilteredEntries(category: String?, prefix: String?): List<PackEntry> {
+        if (category == null && prefix == null) return pickerEntries
+        lastFilter?.let {
+            // Successive pages of the same query.
+            if (it.category == category && it.prefix == prefix) return it.entries
+        }
+
+        val categoryEntries = if (category != null) getCategoryEntries(category) else pickerEntries
+        val entries: List<PackEntry> = if (prefix != null) {
+            val byName = entriesByName
+            val matches = ArrayList<PackEntry>()
+            var i = lowerBound(byName, prefix)
+            val inCategory = if (category != null) {
+                Collections.newSetFromMap(IdentityHashMap<PackEntry, Boolean>()).apply {
+                    addAll(categoryEntries)
+                }
+            } else null
+            while (i < byName.size && byName[i].first.startsWith(prefix)) {
+                val entry = byName[i].second
+                if (inCategory == null || inCategory.contains(entry)) {
+                    matches.add(entry)
+                }
+                i++
+            }
+            matches
+        } else categoryEntries
+        lastFilter = FilteredEntries(category, prefix, entries)
+        return entries
+    }
+
+    private fun getCategoryEntries(category: String): List<PackEntry> {
+        val start = pickerEntries.indexOfFirst { it is CategoryTitle && it.title == category }
+        if (start < 0) return emptyList()
+        var end = start + 1
+        while (end < pickerEntries.size && pickerEntries[end] !is CategoryTitle) end++
+        return pickerEntries.subList(start + 1, end)
+    }
+
+    private fun lowerBound(byName: List<Pair<String, Entry>>, prefix: String): Int {
+        var low = 0
+        var high = byName.size
+        while (low < high) {
+            val mid = (low + high).ushr(1)
+            if (byName[mid].first < prefix) low = mid + 1 else high = mid
+        }
+        return low
     }
 
     abstract fun supportsMasking(): Boolean
@@ -119,6 +220,15 @@ abstract class IconPack(val context: Context, val packPackageName: String) {
 
     abstract val entries: List<Entry>
 
+    /**
+     * Entries of the icon picker returned by [getIconPage]. [totalCount] is the number of
+     * entries matching the query, across all the pages.
+     */
+    class IconPage(val entries: List<PackEntry>, val offset: Int, val totalCount: Int)
+
+    private class FilteredEntries(val category: String?, val prefix: String?,
+                                  val entries: List<PackEntry>)
+
     open class PackEntry
 
     class CategoryTitle(val title: String) : PackEntry()
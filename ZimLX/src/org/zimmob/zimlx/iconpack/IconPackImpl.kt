@@ -32,21 +32,19 @@ import android.util.Log
 import android.util.Xml
 import android.widget.Toast
 import com.android.launcher3.*
-import com.android.launcher3.compat.LauncherAppsCompat
-import com.android.launcher3.compat.UserManagerCompat
-import com.android.launcher3.shortcuts.DeepShortcutManager
 import com.android.launcher3.shortcuts.ShortcutInfoCompat
 import com.android.launcher3.util.ComponentKey
-import com.google.android.apps.nexuslauncher.CustomIconUtils
 import com.google.android.apps.nexuslauncher.clock.CustomClock
 import org.xmlpull.v1.XmlPullParser
 import org.xmlpull.v1.XmlPullParserException
 import org.xmlpull.v1.XmlPullParserFactory
 import org.zimmob.zimlx.get
 import org.zimmob.zimlx.iconpack.*
+import org.zimmob.zimlx.reloadIcons
 import org.zimmob.zimlx.toTitleCase
 import java.io.IOException
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.collections.ArrayList
 
 class IconPackImpl(context: Context, packPackageName: String) : IconPack(context, packPackageName) {
@@ -61,6 +59,10 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
     private val defaultPack = DefaultPack(context)
     private val packResources = context.packageManager.getResourcesForApplication(packPackageName)
     private val prefs by lazy { Utilities.getZimPrefs(context) }
+    // Resolved drawable ids, read from the icon pack looper and the UI thread.
+    private val idCache = ConcurrentHashMap<String, Int>()
+    private var pickerCategories: List<String> = emptyList()
+    private var pickerDrawables: List<IconPackIndex.DrawableEntry> = emptyList()
     override val entries get() = packComponents.values.toList()
 
     init {
@@ -73,22 +75,61 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
     override val packInfo = IconPackList.PackInfoImpl(context, packPackageName)
 
     override fun onDateChanged() {
-        val apps = LauncherAppsCompat.getInstance(context)
-        val model = LauncherAppState.getInstance(context).model
-        val shortcutManager = DeepShortcutManager.getInstance(context)
-        for (user in UserManagerCompat.getInstance(context).userProfiles) {
-            packCalendars.keys.forEach {
-                val pkg = it.packageName
-                if (!apps.getActivityList(pkg, user).isEmpty()) {
-                    CustomIconUtils.reloadIcon(shortcutManager, model, user, pkg)
-                }
-            }
+        if (packCalendars.isEmpty()) return
+        reloadIcons(context, false) { packCalendars.containsKey(it.componentName) }
+    }
+
+    override fun loadPackFromCache(): Boolean {
+        val startTime = System.currentTimeMillis()
+        val index = IconPackIndex.read(context, packPackageName) ?: return false
+        applyIndex(index)
+        if (prefs.showDebugInfo) {
+            val endTime = System.currentTimeMillis()
+            Log.d(TAG, "loaded index of pack $packPackageName in ${endTime - startTime}ms")
         }
+        return true
     }
 
     override fun loadPack() {
+        val index = parsePack()
+        if (index == null) {
+            Toast.makeText(context, "Failed to parse AppFilter", Toast.LENGTH_SHORT).show()
+            return
+        }
+        applyIndex(index)
+        index.write(context)
+    }
+
+    private fun applyIndex(index: IconPackIndex) {
+        index.components.forEach { (component, entry) ->
+            packComponents[component] = Entry(entry.drawableName, entry.drawableId)
+        }
+        packCalendars.putAll(index.calendars)
+        index.clocks.forEach {
+            packClocks[it.drawableId] = CustomClock.Metadata(it.hourLayerIndex,
+                    it.minuteLayerIndex, it.secondLayerIndex, it.defaultHour, it.defaultMinute,
+                    it.defaultSecond)
+        }
+        index.dynamicDrawables.forEach {
+            packDynamicDrawables[it.drawableId] = DynamicDrawable.Metadata(it.xml, packPackageName)
+        }
+        packMask.hasMask = index.hasMask
+        packMask.onlyMaskLegacy = index.onlyMaskLegacy
+        packMask.scale = index.scale
+        packMask.iconBack = index.iconBack?.let { Entry(it) }
+        packMask.iconMask = index.iconMask?.let { Entry(it) }
+        packMask.iconUpon = index.iconUpon?.let { Entry(it) }
+        pickerCategories = index.categories
+        pickerDrawables = index.drawables
+    }
+
+    /**
+     * Parses the XML files of the pack, resolving the drawable names to resource ids.
+     */
+    private fun parsePack(): IconPackIndex? {
         try {
             val startTime = System.currentTimeMillis()
+            val index = IconPackIndex.create(context, packPackageName) ?: return null
             val res = packResources
             val compStart = "ComponentInfo{"
             val compStartlength = compStart.length
@@ -111,9 +152,10 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
                                 val parsed = ComponentName.unflattenFromString(componentName)
                                 if (parsed != null) {
                                     if (isCalendar) {
-                                        packCalendars[parsed] = drawableName
+                                        index.calendars[parsed] = drawableName
                                     } else {
-                                        packComponents[parsed] = Entry(drawableName)
+                                        index.components[parsed] = IconPackIndex.ComponentEntry(
+                                                drawableName, getDrawableId(drawableName))
                                     }
                                 }
                             }
@@ -123,20 +165,20 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
                             if (drawableName != null) {
                                 val drawableId = getDrawableId(drawableName)
                                 if (parseXml is XmlResourceParser && drawableId != 0) {
-                                    packClocks[drawableId] = CustomClock.Metadata(
+                                    index.clocks.add(IconPackIndex.ClockEntry(drawableId,
                                             parseXml.getAttributeIntValue(null, "hourLayerIndex", -1),
                                             parseXml.getAttributeIntValue(null, "minuteLayerIndex", -1),
                                             parseXml.getAttributeIntValue(null, "secondLayerIndex", -1),
                                             parseXml.getAttributeIntValue(null, "defaultHour", 0),
                                             parseXml.getAttributeIntValue(null, "defaultMinute", 0),
-                                            parseXml.getAttributeIntValue(null, "defaultSecond", 0))
+                                            parseXml.getAttributeIntValue(null, "defaultSecond", 0)))
                                 }
                             }
                         }
                         name == "scale" -> {
-                            packMask.scale = parseXml["factor"]!!.toFloat()
-                            if (packMask.scale > 0x7f070000) {
-                                packMask.scale = packResources.getDimension(packMask.scale.toInt())
+                            index.scale = parseXml["factor"]!!.toFloat()
+                            if (index.scale > 0x7f070000) {
+                                index.scale = packResources.getDimension(index.scale.toInt())
                             }
                         }
                         name == "iconback" -> {
@@ -147,56 +189,56 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
                                 // a resource for this which doesn't actually exist
                                 // TODO: actually handle this in mask code
                                 // entry.drawable
-                                packMask.hasMask = true
-                                packMask.iconBack = Entry(drawableName)
+                                index.hasMask = true
+                                index.iconBack = drawableName
                             }
                         }
                         name == "iconmask" -> {
                             val drawableName = parseXml["img1"]
                             if (drawableName != null && !TextUtils.isEmpty(drawableName)) {
-                                // Try if we can actually load the drawable. (Some icon packs define
-                                // a resource for this which doesn't actually exist
-                                // TODO: actually handle this in mask code
-                                // entry.drawable
-                                packMask.hasMask = true
-                                packMask.iconMask = Entry(drawableName)
+                                index.hasMask = true
+                                index.iconMask = drawableName
                             }
                         }
                         name == "iconupon" -> {
                             val drawableName = parseXml["img1"]
                             if (drawableName != null && !TextUtils.isEmpty(drawableName)) {
-                                // Try if we can actually load the drawable. (Some icon packs define
-                                // a resource for this which doesn't actually exist
-                                // TODO: actually handle this in mask code
-                                // entry.drawable
-                                packMask.hasMask = true
-                                packMask.iconUpon = Entry(drawableName)
+                                index.hasMask = true
+                                index.iconUpon = drawableName
                             }
                         }
                         name == "config" -> {
                             val onlyMaskLegacy = parseXml["onlyMaskLegacy"]
                             if (!TextUtils.isEmpty(onlyMaskLegacy)) {
-                                packMask.onlyMaskLegacy = onlyMaskLegacy!!.toBoolean()
+                                index.onlyMaskLegacy = onlyMaskLegacy!!.toBoolean()
                             }
                         }
                     }
                 }
             }
-            // TODO: only run this on icon packs with oneplus intent filter to reduce overhead for others
             val parseDrawableXml = getXml("drawable")
             if (parseDrawableXml != null) {
                 while (parseDrawableXml.next() != XmlPullParser.END_DOCUMENT) {
                     if (parseDrawableXml.eventType == XmlPullParser.START_TAG) {
                         val name = parseDrawableXml.name
-                        if (name == "item") {
+                        if (name == "category") {
+                            index.categories.add(parseDrawableXml["title"] ?: "")
+                        } else if (name == "item") {
+                            val drawableName = parseDrawableXml["drawable"]
+                            if (drawableName != null) {
+                                val drawableId = getDrawableId(drawableName)
+                                if (drawableId != 0) {
+                                    index.drawables.add(IconPackIndex.DrawableEntry(drawableName,
+                                            drawableId, index.categories.size - 1))
+                                }
+                            }
                             val dynamicDrawable = parseDrawableXml["dynamic_drawable"]
                             if (dynamicDrawable != null) {
                                 val drawableId = res.getIdentifier(dynamicDrawable, "drawable",
                                         packPackageName)
                                 if (drawableId != 0) {
-                                    packDynamicDrawables[drawableId] = DynamicDrawable.Metadata(
-                                            parseDrawableXml["xml"]!!,
-                                            packPackageName)
+                                    index.dynamicDrawables.add(IconPackIndex.DynamicDrawableEntry(
+                                            drawableId, parseDrawableXml["xml"]!!))
                                 }
                             }
                         }
@@ -205,7 +247,7 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
             }
             val endTime = System.currentTimeMillis()
             Log.d("IconPackImpl", "completed parsing pack $packPackageName in ${endTime - startTime}ms")
-            return
+            return index
         } catch (e: PackageManager.NameNotFoundException) {
             e.printStackTrace()
         } catch (e: XmlPullParserException) {
@@ -215,11 +257,14 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
         } catch (e: IllegalStateException) {
             e.printStackTrace()
         }
-        Toast.makeText(context, "Failed to parse AppFilter", Toast.LENGTH_SHORT).show()
+        return null
     }
 
     override fun getEntryForComponent(key: ComponentKey) = packComponents[key.componentName]
 
+    override fun coversComponent(key: ComponentKey) = packComponents.containsKey(key.componentName)
+            || packCalendars.containsKey(key.componentName)
+
     override fun getIcon(name: String, iconDpi: Int): Drawable? {
         val drawableId = getDrawableId(name)
         if (drawableId != 0) {
@@ -316,50 +361,20 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
         return null
     }
 
-    override fun getAllIcons(callback: (List<PackEntry>) -> Unit, cancel: () -> Boolean, filter: (item: String) -> Boolean) {
-        var lastSend = System.currentTimeMillis() - 900
-        var tmpList = ArrayList<PackEntry>()
-        val sendResults = { force: Boolean ->
-            val current = System.currentTimeMillis()
-            if (force || current - lastSend >= 1000) {
-                callback(tmpList)
-                tmpList = ArrayList()
-                lastSend = current
-            }
-        }
-        var found = false
-        val startTime = System.currentTimeMillis()
-        var entry: Entry
-        try {
-            val parser = getXml("drawable")
-            Log.d("IconPackImpl", "initialized parser for pack $packPackageName in ${System.currentTimeMillis() - startTime}ms")
-            while (parser != null && parser.next() != XmlPullParser.END_DOCUMENT) {
-                if (cancel()) return
-                if (parser.eventType != XmlPullParser.START_TAG) continue
-                if ("category" == parser.name) {
-                    tmpList.add(CategoryTitle(parser["title"]!!))
-                    sendResults(false)
-                } else if ("item" == parser.name) {
-                    val drawableName = parser["drawable"]!!
-                    if (filter(drawableName)) {
-                        val resId = getDrawableId(drawableName)
-                        if (resId != 0) {
-                            entry = Entry(drawableName, resId)
-                            tmpList.add(entry)
-                            sendResults(false)
-                            found = true
-                        }
-                    }
-                }
-            }
-            sendResults(true)
-            if (found) {
-                return
+    override fun loadPickerEntries(): List<PackEntry> {
+        // Packs without a drawable.xml only offer the icons of their components.
+        if (pickerDrawables.isEmpty()) return super.loadPickerEntries()
+
+        val pickerEntries = ArrayList<PackEntry>(pickerDrawables.size + pickerCategories.size)
+        var previousCategory = -1
+        pickerDrawables.forEach {
+            if (it.category != previousCategory && it.category >= 0) {
+                pickerEntries.add(CategoryTitle(pickerCategories[it.category]))
             }
-        } catch (e: Exception) {
-            e.printStackTrace()
+            previousCategory = it.category
+            pickerEntries.add(Entry(it.drawableName, it.drawableId))
         }
-        super.getAllIcons(callback, cancel, filter)
+        return pickerEntries
     }
 
     override fun supportsMasking(): Boolean = packMask.hasMask
@@ -394,8 +409,9 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
         }
     }
 
-    private val idCache = mutableMapOf<String, Int>()
-    private fun getDrawableId(name: String) = packResources.getIdentifier(name, "drawable", packPackageName)// idCache.getOrPut(name) {    }
+    private fun getDrawableId(name: String) = idCache.getOrPut(name) {
+        packResources.getIdentifier(name, "drawable", packPackageName)
+    }
 
     fun createEntry(icon: Intent.ShortcutIconResource): Entry {
         val id = packResources.getIdentifier(icon.resourceName, null, null)
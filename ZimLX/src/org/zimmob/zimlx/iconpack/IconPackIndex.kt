@@ -0,0 +1,257 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.iconpack
+
+import android.content.ComponentName
+import android.content.Context
+import android.content.pm.PackageManager
+import android.util.AtomicFile
+import android.util.Log
+import java.io.BufferedOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Content of the appfilter.xml and drawable.xml of an icon pack, with the drawable names resolved
+ * to resource ids.
+ *
+ * The index is saved in a binary file per pack, keyed by the version of the pack, so that the XML
+ * is only parsed again after the pack is updated. Resource ids don't change within a version.
+ */
+class IconPackIndex(val packageName: String, private val versionCode: Long,
+                    private val lastUpdateTime: Long) {
+
+    class ComponentEntry(val drawableName: String, val drawableId: Int)
+
+    class ClockEntry(val drawableId: Int, val hourLayerIndex: Int, val minuteLayerIndex: Int,
+                     val secondLayerIndex: Int, val defaultHour: Int, val defaultMinute: Int,
+                     val defaultSecond: Int)
+
+    class DynamicDrawableEntry(val drawableId: Int, val xml: String)
+
+    // An icon listed in drawable.xml, in the category at the given index of [categories].
+    class DrawableEntry(val drawableName: String, val drawableId: Int, val category: Int)
+
+    val components = HashMap<ComponentName, ComponentEntry>()
+    // Drawable name prefixes, followed by the day of the month.
+    val calendars = HashMap<ComponentName, String>()
+    val clocks = ArrayList<ClockEntry>()
+    val dynamicDrawables = ArrayList<DynamicDrawableEntry>()
+    // Icons offered in the icon picker, in the order of drawable.xml.
+    val categories = ArrayList<String>()
+    val drawables = ArrayList<DrawableEntry>()
+
+    var hasMask = false
+    var onlyMaskLegacy = false
+    var scale = 1f
+    var iconBack: String? = null
+    var iconMask: String? = null
+    var iconUpon: String? = null
+
+    fun write(context: Context) {
+        val file = getFile(context, packageName)
+        file.parentFile.mkdirs()
+        val atomicFile = AtomicFile(file)
+        var fos: FileOutputStream? = null
+        try {
+            fos = atomicFile.startWrite()
+            val out = DataOutputStream(BufferedOutputStream(fos))
+            out.writeInt(MAGIC)
+            out.writeInt(FORMAT_VERSION)
+            out.writeLong(versionCode)
+            out.writeLong(lastUpdateTime)
+
+            out.writeInt(components.size)
+            components.forEach { (component, entry) ->
+                writeString(out, component.packageName)
+                writeString(out, component.className)
+                writeString(out, entry.drawableName)
+                out.writeInt(entry.drawableId)
+            }
+            out.writeInt(calendars.size)
+            calendars.forEach { (component, prefix) ->
+                writeString(out, component.packageName)
+                writeString(out, component.className)
+                writeString(out, prefix)
+            }
+            out.writeInt(clocks.size)
+            clocks.forEach {
+                out.writeInt(it.drawableId)
+                out.writeInt(it.hourLayerIndex)
+                out.writeInt(it.minuteLayerIndex)
+                out.writeInt(it.secondLayerIndex)
+                out.writeInt(it.defaultHour)
+                out.writeInt(it.defaultMinute)
+                out.writeInt(it.defaultSecond)
+            }
+            out.writeInt(dynamicDrawables.size)
+            dynamicDrawables.forEach {
+                out.writeInt(it.drawableId)
+                writeString(out, it.xml)
+            }
+            out.writeInt(categories.size)
+            categories.forEach { writeString(out, it) }
+            out.writeInt(drawables.size)
+            drawables.forEach {
+                writeString(out, it.drawableName)
+                out.writeInt(it.drawableId)
+                out.writeInt(it.category)
+            }
+
+            out.writeBoolean(hasMask)
+            out.writeBoolean(onlyMaskLegacy)
+            out.writeFloat(scale)
+            writeString(out, iconBack)
+            writeString(out, iconMask)
+            writeString(out, iconUpon)
+            out.flush()
+            atomicFile.finishWrite(fos)
+        } catch (e: IOException) {
+            Log.e(TAG, "Unable to write the index of $packageName", e)
+            fos?.let { atomicFile.failWrite(it) }
+        }
+    }
+
+    private fun parse(buffer: ByteBuffer): Boolean {
+        if (buffer.int != MAGIC || buffer.int != FORMAT_VERSION
+                || buffer.long != versionCode || buffer.long != lastUpdateTime) {
+            return false
+        }
+
+        repeat(checkCount(buffer.int)) {
+            val component = ComponentName(readString(buffer)!!, readString(buffer)!!)
+            components[component] = ComponentEntry(readString(buffer)!!, buffer.int)
+        }
+        repeat(checkCount(buffer.int)) {
+            val component = ComponentName(readString(buffer)!!, readString(buffer)!!)
+            calendars[component] = readString(buffer)!!
+        }
+        repeat(checkCount(buffer.int)) {
+            clocks.add(ClockEntry(buffer.int, buffer.int, buffer.int, buffer.int,
+                    buffer.int, buffer.int, buffer.int))
+        }
+        repeat(checkCount(buffer.int)) {
+            dynamicDrawables.add(DynamicDrawableEntry(buffer.int, readString(buffer)!!))
+        }
+        repeat(checkCount(buffer.int)) {
+            categories.add(readString(buffer)!!)
+        }
+        repeat(checkCount(buffer.int)) {
+            drawables.add(DrawableEntry(readString(buffer)!!, buffer.int, buffer.int))
+        }
+
+        hasMask = buffer.get() != 0.toByte()
+        onlyMaskLegacy = buffer.get() != 0.toByte()
+        scale = buffer.float
+        iconBack = readString(buffer)
+        iconMask = readString(buffer)
+        iconUpon = readString(buffer)
+        return true
+    }
+
+    companion object {
+
+        private const val TAG = "IconPackIndex"
+
+        private const val MAGIC = 0x49504931 // "IPI1"
+        private const val FORMAT_VERSION = 2
+
+        // Sanity limits, a larger value means the file is corrupt.
+        private const val MAX_COUNT = 1024 * 1024
+        private const val MAX_STRING_LENGTH = 64 * 1024
+
+        private const val INDEX_DIR = "icon_pack_index"
+
+        private fun getFile(context: Context, packageName: String) =
+                File(File(context.cacheDir, INDEX_DIR), "$packageName.idx")
+
+        /**
+         * Returns an empty index for the installed version of [packageName], or null if the pack
+         * is not installed.
+         */
+        fun create(context: Context, packageName: String): IconPackIndex? {
+            return try {
+                val info = context.packageManager.getPackageInfo(packageName, 0)
+                @Suppress("DEPRECATION")
+                IconPackIndex(packageName, info.versionCode.toLong(), info.lastUpdateTime)
+            } catch (e: PackageManager.NameNotFoundException) {
+                null
+            }
+        }
+
+        /**
+         * Returns the saved index of [packageName], or null if there is none for the installed
+         * version of the pack.
+         */
+        fun read(context: Context, packageName: String): IconPackIndex? {
+            val file = getFile(context, packageName)
+            if (!file.exists()) return null
+            val index = create(context, packageName) ?: return null
+            try {
+                RandomAccessFile(file, "r").use { raf ->
+                    val channel = raf.channel
+                    val buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    if (index.parse(buffer)) {
+                        return index
+                    }
+                    Log.d(TAG, "Discarding outdated index of $packageName")
+                }
+            } catch (e: IOException) {
+                Log.e(TAG, "Unable to read the index of $packageName", e)
+            } catch (e: RuntimeException) {
+                // RuntimeExceptions are thrown when reading past the end of a truncated file.
+                Log.e(TAG, "Unable to read the index of $packageName", e)
+            }
+            AtomicFile(file).delete()
+            return null
+        }
+
+        private fun checkCount(count: Int): Int {
+            if (count < 0 || count > MAX_COUNT) {
+                throw IllegalStateException("Invalid count $count")
+            }
+            return count
+        }
+
+        private fun writeString(out: DataOutputStream, value: String?) {
+            if (value == null) {
+                out.writeInt(-1)
+            } else {
+                val bytes = value.toByteArray(Charsets.UTF_8)
+                out.writeInt(bytes.size)
+                out.write(bytes)
+            }
+        }
+
+        private fun readString(buffer: ByteBuffer): String? {
+            val length = buffer.int
+            if (length < 0) return null
+            if (length > MAX_STRING_LENGTH) {
+                throw IllegalStateException("Invalid string length $length")
+            }
+            val bytes = ByteArray(length)
+            buffer.get(bytes)
+            return String(bytes, Charsets.UTF_8)
+        }
+    }
+}
@@ -50,6 +50,7 @@ class IconPackList(private val context: Context, private val manager: IconPackMa
                 }
             }
 
+            val oldPacks = ArrayList(appliedPacks)
             appliedPacks.clear()
 
             val newPacks = HashMap<String, LoadedPack>()
@@ -67,7 +68,14 @@ class IconPackList(private val context: Context, private val manager: IconPackMa
             loadedPacks.clear()
             loadedPacks.putAll(newPacks)
 
-            manager.onPacksUpdated()
+            // The packs before the first difference still draw the same icons.
+            var firstChange = 0
+            while (firstChange < oldPacks.size && firstChange < appliedPacks.size
+                    && oldPacks[firstChange] === appliedPacks[firstChange]) {
+                firstChange++
+            }
+            manager.onPacksUpdated((oldPacks.drop(firstChange) + appliedPacks.drop(firstChange))
+                    .distinct())
         }
     }
 
@@ -188,9 +196,14 @@ class IconPackList(private val context: Context, private val manager: IconPackMa
         private val updateReceiver = object : BroadcastReceiver() {
             override fun onReceive(context: Context, intent: Intent) {
                 if (intent.action == Intent.ACTION_PACKAGE_CHANGED) {
+                    val oldPack = iconPack
                     reloadPack()
                     iconPack.ensureInitialLoadComplete()
-                    manager.onPacksUpdated()
+                    val index = appliedPacks.indexOf(oldPack)
+                    if (index >= 0) {
+                        appliedPacks[index] = iconPack
+                    }
+                    manager.onPacksUpdated(listOf(oldPack, iconPack))
                 } else {
                     reloadPacks()
                 }
@@ -174,11 +174,53 @@ class IconPackManager(private val context: Context) {
         listeners.remove(listener)
     }
 
-    fun onPacksUpdated() {
-        reloadIcons(context)
+    /**
+     * Recreates the icons which may look different after [changedPacks] were applied, removed,
+     * reordered or updated.
+     */
+    fun onPacksUpdated(changedPacks: Collection<IconPack>) {
+        if (changedPacks.any { it.supportsMasking() }) {
+            // Masks apply to all the icons which no pack covers, and to the deep shortcuts.
+            reloadIcons(context)
+        } else if (!changedPacks.isEmpty()) {
+            val packNames = changedPacks.map { it.packPackageName }.toSet()
+            reloadIcons(context, false) { app ->
+                val key = ComponentKey(app.componentName, app.user)
+                changedPacks.any { it.coversComponent(key) }
+                        || appInfoProvider.getCustomIconEntry(key)?.packPackageName in packNames
+            }
+        }
         runOnMainThread { listeners.forEach { it.invoke() } }
     }
 
+    /**
+     * Recreates the icons which are masked by the applied packs, after the masking pref changed.
+     */
+    fun onMaskingChanged() {
+        if (!maskSupported()) return
+        reloadIcons(context, true) { app -> !isCoveredByPack(app) }
+    }
+
+    /**
+     * Recreates the legacy icons, after one of the legacy treatment prefs changed.
+     */
+    fun onLegacyTreatmentChanged() {
+        if (!Utilities.ATLEAST_OREO || (prefs.iconPackMasking && maskSupported())) return
+        reloadIcons(context, true) { app ->
+            !isCoveredByPack(app) && defaultPack.mayWrapToAdaptive(app.getIcon(0))
+        }
+    }
+
+    /**
+     * Returns whether the icon of [app] comes from a pack rather than from the app, custom icons
+     * are never counted as covered since they can come from either.
+     */
+    private fun isCoveredByPack(app: LauncherActivityInfo): Boolean {
+        val key = ComponentKey(app.componentName, app.user)
+        if (appInfoProvider.getCustomIconEntry(key) != null) return false
+        return packList.appliedPacks.any { it !== defaultPack && it.coversComponent(key) }
+    }
+
     data class CustomIconEntry(val packPackageName: String, val icon: String? = null) {
 
         fun toPackString(): String {
@@ -20,10 +20,8 @@ package org.zimmob.zimlx.iconpack
 import android.app.Activity
 import android.content.Context
 import android.content.Intent
-import android.graphics.drawable.Drawable
+import android.graphics.Bitmap
 import android.os.Bundle
-import android.os.Handler
-import android.os.Message
 import android.os.Process
 import android.text.TextUtils
 import android.view.*
@@ -33,29 +31,31 @@ import android.widget.TextView
 import android.widget.Toast
 import androidx.recyclerview.widget.GridLayoutManager
 import androidx.recyclerview.widget.RecyclerView
-import com.android.launcher3.LauncherModel
 import com.android.launcher3.R
 import com.android.launcher3.Utilities
 import com.android.launcher3.compat.LauncherAppsCompat
 import org.zimmob.zimlx.*
 import org.zimmob.zimlx.iconpack.EditIconActivity.Companion.EXTRA_ENTRY
 import org.zimmob.zimlx.settings.ui.SettingsBaseActivity
-import java.text.Collator
-import java.util.*
-import java.util.concurrent.Semaphore
 
 class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener, SearchView.OnQueryTextListener, View.OnFocusChangeListener {
     private val iconPackManager = IconPackManager.getInstance(this)
     private val iconGrid by lazy { findViewById<RecyclerView>(R.id.iconGrid) }
     private val iconPack by lazy { iconPackManager.getIconPack(intent.getStringExtra(EXTRA_ICON_PACK), false) }
-    private val items get() = searchItems ?: actualItems
-    private var actualItems = ArrayList<AdapterItem>()
+    private val items = ArrayList<AdapterItem>()
     private val adapter = IconGridAdapter()
     private val layoutManager = GridLayoutManager(this, 1)
     private var canceled = false
     private var searchView: SearchView? = null
-    private val collator = Collator.getInstance()
     private var closingSearch: Boolean = false
+    private var thumbnails: IconThumbnailCache? = null
+
+    // Paging state of the current query, only changed on the UI thread.
+    private var searchQuery: String? = null
+    private var category: String? = null
+    private var loadedCount = 0
+    private var totalCount = -1
+    private var loadingPage = false
     private val showDebugInfo = zimPrefs.showDebugInfo
 
     private var dynamicPadding = 0
@@ -65,15 +65,6 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
                 .getActivityList(iconPack.packPackageName, Process.myUserHandle()).firstOrNull()?.componentName
     }
 
-    private var searchItems: MutableList<AdapterItem>? = null
-    private val searchHandler = object : Handler(LauncherModel.getIconPackUiLooper()) {
-        override fun handleMessage(msg: Message) {
-            if (msg.what == R.id.message_search) {
-                processSearchQuery(msg.obj as String?)
-            }
-        }
-    }
-
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         setContentView(R.layout.activity_icon_picker)
@@ -88,24 +79,7 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
         }
 
         items.add(LoadingItem())
-
-        runOnUiWorkerThread {
-            // make sure whatever running on ui worker has finished, then start parsing the pack
-            runOnThread(iconPackUiHandler) {
-                iconPack.getAllIcons(::addEntries, { canceled })
-                // Wait for the ui to finish processing new data
-                val waiter = Semaphore(0)
-                runOnUiThread {
-                    waiter.release()
-                }
-                waiter.acquireUninterruptibly()
-                waiter.release()
-            }
-        }
-        collator.apply {
-            decomposition = Collator.CANONICAL_DECOMPOSITION
-            strength = Collator.TERTIARY
-        }
+        loadNextPage()
     }
 
     override fun finish() {
@@ -113,23 +87,53 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
         canceled = true
     }
 
-    private fun addEntries(entries: List<IconPack.PackEntry>) {
-        val newItems = entries.mapNotNull {
+    /**
+     * Loads the next page of the current query in the background, unless it is loading already
+     * or all the matching icons are shown.
+     */
+    private fun loadNextPage() {
+        if (loadingPage || (totalCount >= 0 && loadedCount >= totalCount)) return
+        loadingPage = true
+        val query = searchQuery
+        val category = category
+        val offset = loadedCount
+        runOnThread(iconPackUiHandler) {
+            val page = iconPack.getIconPage(offset, PAGE_SIZE, category, query)
+            runOnUiThread {
+                // Drop the pages of previous queries.
+                if (!canceled && query == searchQuery && category == this.category
+                        && offset == loadedCount) {
+                    addEntries(page)
+                }
+            }
+        }
+    }
+
+    private fun addEntries(page: IconPack.IconPage) {
+        loadingPage = false
+        loadedCount += page.entries.size
+        totalCount = page.totalCount
+
+        if (items.size == 1 && items[0] is LoadingItem) {
+            items.removeAt(0)
+            adapter.notifyItemRemoved(0)
+        }
+        val newItems = page.entries.mapNotNull {
             when (it) {
                 is IconPack.CategoryTitle -> CategoryItem(it.title)
                 is IconPack.Entry -> IconItem(it)
                 else -> null
             }
         }
-        runOnUiThread {
-            if (items.size == 1 && items[0] is LoadingItem) {
-                items.removeAt(0)
-                adapter.notifyItemRemoved(0)
-            }
+        val addIndex = items.size
+        items.addAll(newItems)
+        adapter.notifyItemRangeInserted(addIndex, newItems.size)
+        loadMoreIfNeeded()
+    }
 
-            val addIndex = items.size
-            items.addAll(newItems)
-            adapter.notifyItemRangeInserted(addIndex, newItems.size)
+    private fun loadMoreIfNeeded() {
+        if (layoutManager.findLastVisibleItemPosition() >= items.size - PAGE_PREFETCH_DISTANCE) {
+            loadNextPage()
         }
     }
 
@@ -147,27 +151,40 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
             closingSearch = false
             return true
         }
-        addToSearchQueue(query)
+        setSearchQuery(query)
         return true
     }
 
-    private fun addToSearchQueue(query: String?) {
-        searchHandler.removeMessages(R.id.message_search)
-        searchHandler.sendMessage(searchHandler.obtainMessage(R.id.message_search, query))
+    /**
+     * Shows the icons whose drawable name starts with [query], where words are separated by
+     * underscores, or all the icons if it is empty.
+     */
+    private fun setSearchQuery(query: String?) {
+        val q = query?.trim()?.replace(Regex("""\s+"""), "_")
+        setFilter(if (TextUtils.isEmpty(q)) null else q, category)
     }
 
-    private fun processSearchQuery(query: String?) {
-        val q = query?.trim()
-        val filtered = if (!TextUtils.isEmpty(q)) {
-            actualItems.filter { it is IconItem && collator.equals(q!!, it.entry.displayName) }.toMutableList()
-        } else null
-        runOnUiThread {
-            val hashCode = items.hashCode()
-            searchItems = filtered
-            if (items.hashCode() != hashCode) {
-                adapter.notifyDataSetChanged()
-            }
-        }
+    /**
+     * Shows only the icons of [newCategory], or all the icons if it is null. Selected by tapping
+     * the title of a category, and cleared by tapping it again or going back.
+     */
+    private fun setCategory(newCategory: String?) {
+        setFilter(searchQuery, newCategory)
+        title = newCategory ?: iconPack.displayName
+    }
+
+    private fun setFilter(newQuery: String?, newCategory: String?) {
+        if (newQuery == searchQuery && newCategory == category) return
+
+        searchQuery = newQuery
+        category = newCategory
+        loadedCount = 0
+        totalCount = -1
+        loadingPage = false
+        items.clear()
+        items.add(LoadingItem())
+        adapter.notifyDataSetChanged()
+        loadNextPage()
     }
 
     override fun onCreateOptionsMenu(menu: Menu): Boolean {
@@ -193,13 +210,16 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
                 title = ""
             } else {
                 searchView!!.isIconified = true
-                title = iconPack.displayName
+                title = category ?: iconPack.displayName
             }
         }
     }
 
     override fun onBackPressed() {
-        if (searchView!!.isIconified) {
+        if (searchView?.isIconified == false) return
+        if (category != null) {
+            setCategory(null)
+        } else {
             super.onBackPressed()
         }
     }
@@ -240,17 +260,25 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
 
     override fun onLayoutChange(v: View?, left: Int, top: Int, right: Int, bottom: Int, oldLeft: Int, oldTop: Int, oldRight: Int, oldBottom: Int) {
         getContentFrame().removeOnLayoutChangeListener(this)
-        calculateDynamicGrid(iconGrid.width)
+        calculateDynamicGrid(iconGrid.width, iconGrid.height)
         iconGrid.adapter = adapter
         iconGrid.layoutManager = layoutManager
+        iconGrid.addOnScrollListener(object : RecyclerView.OnScrollListener() {
+            override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                loadMoreIfNeeded()
+            }
+        })
     }
 
-    private fun calculateDynamicGrid(width: Int) {
+    private fun calculateDynamicGrid(width: Int, height: Int) {
         val iconPadding = resources.getDimensionPixelSize(R.dimen.icon_preview_padding)
         val iconSize = resources.getDimensionPixelSize(R.dimen.icon_preview_size)
         val iconSizeWithPadding = iconSize + iconPadding + iconPadding
         val maxWidth = width - iconPadding - iconPadding
         val columnCount = maxWidth / iconSizeWithPadding
+        val rowCount = height / iconSizeWithPadding + 1
+        thumbnails = IconThumbnailCache(iconSize,
+                Math.max(1, columnCount * rowCount * THUMBNAIL_CACHE_SCREENS))
         val usedWidth = iconSize * columnCount
         dynamicPadding = (width - usedWidth) / (columnCount + 1) / 2
         layoutManager.spanCount = columnCount
@@ -285,6 +313,12 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
 
         override fun getItemCount() = items.size
 
+        override fun onViewRecycled(holder: RecyclerView.ViewHolder) {
+            if (holder is IconHolder) {
+                holder.unbind()
+            }
+        }
+
         override fun onBindViewHolder(holder: RecyclerView.ViewHolder, position: Int) {
             if (holder is IconHolder) {
                 holder.bind(items[position] as IconItem)
@@ -328,18 +362,23 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
             }
 
             fun bind(item: IconItem) {
-                iconLoader = item
-                iconLoader?.loadIcon()
                 itemView.clearAnimation()
                 itemView.alpha = 0f
                 (itemView as ImageView).setImageDrawable(null)
+                iconLoader = item
+                iconLoader?.loadIcon(thumbnails!!)
                 // We're just being optimistic here, but starting the animation in the callback
                 // results in empty view holders in some cases and places.
                 itemView.animate().alpha(1f).setDuration(125).start()
             }
 
-            override fun onIconLoaded(drawable: Drawable, name: String) {
-                (itemView as ImageView).setImageDrawable(drawable)
+            fun unbind() {
+                // Icons which are not decoded yet are skipped.
+                iconLoader = null
+            }
+
+            override fun onIconLoaded(icon: Bitmap, name: String) {
+                (itemView as ImageView).setImageBitmap(icon)
                 this.name = name
             }
 
@@ -352,6 +391,15 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
 
             private val title: TextView = itemView.findViewById(android.R.id.title)
 
+            init {
+                itemView.setOnClickListener {
+                    val item = items.getOrNull(adapterPosition) as? CategoryItem
+                    if (item != null) {
+                        setCategory(if (item.title == category) null else item.title)
+                    }
+                }
+            }
+
             fun bind(category: CategoryItem) {
                 title.text = category.title
             }
@@ -366,19 +414,27 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
 
     class IconItem(val entry: IconPack.Entry) : AdapterItem() {
 
+        @Volatile
         var callback: Callback? = null
 
-        fun loadIcon() {
+        fun loadIcon(thumbnails: IconThumbnailCache) {
+            val cached = thumbnails[entry]
+            if (cached != null) {
+                callback?.onIconLoaded(cached, entry.displayName)
+                return
+            }
             runOnUiWorkerThread {
-                val drawable = entry.drawable
+                // Skip the icons scrolled out of view before their turn.
+                if (callback == null) return@runOnUiWorkerThread
+                val icon = thumbnails.load(entry) ?: return@runOnUiWorkerThread
                 val displayName = entry.displayName
-                runOnMainThread { callback?.onIconLoaded(drawable, displayName) }
+                runOnMainThread { callback?.onIconLoaded(icon, displayName) }
             }
         }
 
         interface Callback {
 
-            fun onIconLoaded(drawable: Drawable, name: String)
+            fun onIconLoaded(icon: Bitmap, name: String)
         }
     }
 
@@ -388,6 +444,12 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
 
         private const val EXTRA_ICON_PACK = "pack"
 
+        private const val PAGE_SIZE = 120
+        // Next page is loaded when the last visible item is this close to the end.
+        private const val PAGE_PREFETCH_DISTANCE = 30
+        // Number of screens of icons kept decoded.
+        private const val THUMBNAIL_CACHE_SCREENS = 3
+
         fun newIntent(context: Context, packageName: String): Intent {
             return Intent(context, IconPickerActivity::class.java).apply {
                 putExtra(EXTRA_ICON_PACK, packageName)
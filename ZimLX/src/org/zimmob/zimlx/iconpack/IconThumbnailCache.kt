@@ -0,0 +1,58 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.iconpack
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.util.Log
+import android.util.LruCache
+
+/**
+ * Icons of the icon picker, drawn at the size of the grid cells. Only the most recently shown
+ * icons are kept, so that scrolling back doesn't decode them again.
+ */
+class IconThumbnailCache(private val size: Int, maxCount: Int) {
+
+    private val cache = LruCache<String, Bitmap>(maxCount)
+
+    operator fun get(entry: IconPack.Entry): Bitmap? = cache[entry.identifierName]
+
+    /**
+     * Returns the thumbnail of [entry], decoding it if needed. Must be called on a background
+     * thread.
+     */
+    fun load(entry: IconPack.Entry): Bitmap? {
+        cache[entry.identifierName]?.let { return it }
+        val drawable = try {
+            entry.drawable
+        } catch (e: Exception) {
+            Log.e(TAG, "Can't load icon ${entry.identifierName}", e)
+            return null
+        }
+        val bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888)
+        drawable.setBounds(0, 0, size, size)
+        drawable.draw(Canvas(bitmap))
+        cache.put(entry.identifierName, bitmap)
+        return bitmap
+    }
+
+    companion object {
+
+        private const val TAG = "IconThumbnailCache"
+    }
+}
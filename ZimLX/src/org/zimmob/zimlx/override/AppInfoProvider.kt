@@ -25,6 +25,7 @@ import com.android.launcher3.compat.LauncherAppsCompat
 import com.android.launcher3.util.ComponentKey
 import org.zimmob.zimlx.ensureOnMainThread
 import org.zimmob.zimlx.iconpack.IconPackManager
+import org.zimmob.zimlx.reloadIcons
 import org.zimmob.zimlx.useApplicationContext
 import org.zimmob.zimlx.util.SingletonHolder
 import org.zimmob.zimlx.zimPrefs
@@ -66,7 +67,7 @@ class AppInfoProvider private constructor(context: Context) : CustomInfoProvider
 
     fun setIcon(key: ComponentKey, entry: IconPackManager.CustomIconEntry?) {
         prefs.customAppIcon[key] = entry
-        LauncherAppState.getInstance(context).iconCache.updateIconsForPkg(key.componentName.packageName, key.user)
+        reloadIcons(context, listOf(key))
     }
 
     private fun getLauncherActivityInfo(info: AppInfo): LauncherActivityInfo? {
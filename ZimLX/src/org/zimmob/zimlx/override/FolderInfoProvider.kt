@@ -19,6 +19,7 @@ package org.zimmob.zimlx.override
 
 import android.content.Context
 import com.android.launcher3.FolderInfo
+import com.android.launcher3.LauncherAppState
 import com.android.launcher3.R
 import org.zimmob.zimlx.ensureOnMainThread
 import org.zimmob.zimlx.iconpack.IconPackManager
@@ -48,6 +49,7 @@ class FolderInfoProvider(context: Context) : CustomInfoProvider<FolderInfo>(cont
 
     override fun setIcon(info: FolderInfo, entry: IconPackManager.CustomIconEntry?) {
         prefs.customAppIcon[info.toComponentKey()] = entry
+        LauncherAppState.getInstance(context).model.forceReload()
     }
 
     override fun getIcon(info: FolderInfo): IconPackManager.CustomIconEntry? {
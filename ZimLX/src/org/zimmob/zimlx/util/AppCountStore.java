@@ -0,0 +1,149 @@
+package org.zimmob.zimlx.util;
+
+import android.content.Context;
+import android.os.Handler;
+
+import com.android.launcher3.LauncherModel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * In-memory copy of the launch count of every package, backed by the app_count table of
+ * {@link DbHelper}.
+ *
+ * The counts are read once on the model worker thread, when the store is created at startup.
+ * Until then the store is empty, so that the UI thread never waits for the DB. Launches and
+ * removals update the memory copy right away, and are written to the DB in batches on the model
+ * worker thread.
+ *
+ * This class is thread safe.
+ */
+public class AppCountStore {
+
+    // Launches within this delay are written to the DB in the same transaction.
+    private static final long WRITE_DELAY_MS = 2000;
+
+    private static final Object sInstanceLock = new Object();
+    private static AppCountStore sInstance;
+
+    public static AppCountStore getInstance(Context context) {
+        synchronized (sInstanceLock) {
+            if (sInstance == null) {
+                sInstance = new AppCountStore(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    private final Context mContext;
+    private final Handler mWorkerHandler;
+    private final Runnable mWriteRunnable = this::writePendingChanges;
+
+    private final Object mLock = new Object();
+    // All guarded by mLock. mDb is null until the counts are read.
+    private DbHelper mDb;
+    private HashMap<String, Integer> mCounts = new HashMap<>();
+    private final HashMap<String, Integer> mPendingIncrements = new HashMap<>();
+    private final HashSet<String> mPendingDeletes = new HashSet<>();
+
+    private AppCountStore(Context context) {
+        mContext = context;
+        mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+        // Queued before any write, which also runs on the worker thread.
+        mWorkerHandler.post(this::load);
+    }
+
+    private void load() {
+        DbHelper db = new DbHelper(mContext);
+        HashMap<String, Integer> counts = db.getAppCounts();
+        synchronized (mLock) {
+            // Apply the changes made while the counts were not loaded yet.
+            for (String packageName : mPendingDeletes) {
+                counts.remove(packageName);
+            }
+            for (Map.Entry<String, Integer> e : mPendingIncrements.entrySet()) {
+                Integer count = counts.get(e.getKey());
+                counts.put(e.getKey(), count == null ? e.getValue() : count + e.getValue());
+            }
+            mCounts = counts;
+            mDb = db;
+        }
+    }
+
+    /**
+     * Returns the number of times {@param packageName} was launched, or 0 if the counts are not
+     * read yet.
+     */
+    public int getCount(String packageName) {
+        synchronized (mLock) {
+            Integer count = mCounts.get(packageName);
+            return count == null ? 0 : count;
+        }
+    }
+
+    /**
+     * Returns a copy of the launch counts, keyed by package name. Packages which were never
+     * launched are not included.
+     */
+    public HashMap<String, Integer> getCounts() {
+        synchronized (mLock) {
+            return new HashMap<>(mCounts);
+        }
+    }
+
+    /**
+     * Records a launch of {@param packageName}.
+     */
+    public void incrementCount(String packageName) {
+        synchronized (mLock) {
+            Integer count = mCounts.get(packageName);
+            mCounts.put(packageName, count == null ? 1 : count + 1);
+            Integer pending = mPendingIncrements.get(packageName);
+            mPendingIncrements.put(packageName, pending == null ? 1 : pending + 1);
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * Forgets the launch count of {@param packageName}, eg. when it is uninstalled.
+     */
+    public void removePackage(String packageName) {
+        synchronized (mLock) {
+            mCounts.remove(packageName);
+            mPendingIncrements.remove(packageName);
+            mPendingDeletes.add(packageName);
+        }
+        scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+        mWorkerHandler.removeCallbacks(mWriteRunnable);
+        mWorkerHandler.postDelayed(mWriteRunnable, WRITE_DELAY_MS);
+    }
+
+    /**
+     * Writes the changes made since the last write in a single transaction. Runs on the worker
+     * thread, so that successive writes are applied in order.
+     */
+    private void writePendingChanges() {
+        DbHelper db;
+        ArrayList<String> deletes;
+        HashMap<String, Integer> increments;
+        synchronized (mLock) {
+            if (mPendingDeletes.isEmpty() && mPendingIncrements.isEmpty()) {
+                return;
+            }
+            db = mDb;
+            // Deletes are applied first, so that a package launched after being removed
+            // starts again from its new launches.
+            deletes = new ArrayList<>(mPendingDeletes);
+            increments = new HashMap<>(mPendingIncrements);
+            mPendingDeletes.clear();
+            mPendingIncrements.clear();
+        }
+        db.applyAppCountChanges(deletes, increments);
+    }
+}
@@ -5,10 +5,14 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.util.Log;
+import android.database.sqlite.SQLiteStatement;
 
 import com.android.launcher3.LauncherFiles;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 public class DbHelper extends SQLiteOpenHelper {
     private static final String DATABASE_HOME = LauncherFiles.LAUNCHER_DB2;
     private static final String TABLE_APP_COUNT = "app_count";
@@ -46,45 +50,50 @@ public class DbHelper extends SQLiteOpenHelper {
         onUpgrade(db, oldVersion, newVersion);
     }
 
-    public int getAppCount(String packageName) {
-        String SQL_QUERY = "SELECT package_count FROM app_count WHERE package_name='" + packageName + "';";
-        Cursor cursor = db.rawQuery(SQL_QUERY, null);
-        int appCount = 0;
-        if (cursor.moveToFirst()) {
-            appCount = cursor.getInt(0);
+    /**
+     * Returns the launch count of every package, read with a single query.
+     */
+    public HashMap<String, Integer> getAppCounts() {
+        HashMap<String, Integer> counts = new HashMap<>();
+        Cursor cursor = db.query(TABLE_APP_COUNT,
+                new String[]{COLUMN_PACKAGE_NAME, COLUMN_PACKAGE_COUNT},
+                null, null, null, null, null);
+        while (cursor.moveToNext()) {
+            counts.put(cursor.getString(0), cursor.getInt(1));
         }
         cursor.close();
-        Log.i("APP COUNT " + packageName, String.valueOf(appCount));
-        return appCount;
+        return counts;
     }
 
-    public void updateAppCount(String packageName) {
-        String SQL_QUERY = "SELECT package_count FROM app_count WHERE package_name='" + packageName + "';";
-        Cursor cursor = db.rawQuery(SQL_QUERY, null);
-        int appCount = 0;
-        if (cursor.moveToFirst()) {
-            //Log.i("APP COUNT", String.format("Cursor qty: %d", cursor.getInt(0)));
-            appCount = cursor.getInt(0);
-        } else {
-            saveAppCount(packageName);
+    /**
+     * Deletes the counts of {@param deletedPackages}, then adds {@param increments} to the
+     * counts of their packages, in a single transaction.
+     */
+    public void applyAppCountChanges(Collection<String> deletedPackages,
+                                     Map<String, Integer> increments) {
+        String where = COLUMN_PACKAGE_NAME + "=?";
+        SQLiteStatement increment = db.compileStatement("UPDATE " + TABLE_APP_COUNT
+                + " SET " + COLUMN_PACKAGE_COUNT + "=" + COLUMN_PACKAGE_COUNT + "+?"
+                + " WHERE " + where);
+        db.beginTransaction();
+        try {
+            for (String packageName : deletedPackages) {
+                db.delete(TABLE_APP_COUNT, where, new String[]{packageName});
+            }
+            for (Map.Entry<String, Integer> entry : increments.entrySet()) {
+                increment.bindLong(1, entry.getValue());
+                increment.bindString(2, entry.getKey());
+                if (increment.executeUpdateDelete() == 0) {
+                    ContentValues values = new ContentValues();
+                    values.put(COLUMN_PACKAGE_NAME, entry.getKey());
+                    values.put(COLUMN_PACKAGE_COUNT, entry.getValue());
+                    db.insert(TABLE_APP_COUNT, null, values);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            increment.close();
         }
-
-        cursor.close();
-        appCount++;
-        ContentValues cv = new ContentValues();
-        cv.put(COLUMN_PACKAGE_COUNT, appCount);
-        db.update(TABLE_APP_COUNT, cv, "package_name='" + packageName + "'", null);
-
-    }
-
-    private void saveAppCount(String packageName) {
-        ContentValues itemValues = new ContentValues();
-        itemValues.put(COLUMN_PACKAGE_NAME, packageName);
-        itemValues.put(COLUMN_PACKAGE_COUNT, 0);
-        db.insert(TABLE_APP_COUNT, null, itemValues);
-    }
-
-    public void deleteApp(String packageName) {
-        db.delete(TABLE_APP_COUNT, "package_name='" + packageName + "'", null);
     }
 }
@@ -26,12 +26,14 @@ import android.util.Log;
 
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.PackageInstallerCompat;
+import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.FlagOp;
 import com.android.launcher3.util.ItemInfoMatcher;
 
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -172,6 +174,19 @@ public class AllAppsList {
         }
     }
 
+    /**
+     * Updates the icons and labels of the apps in {@param components}.
+     */
+    public void updateIconsAndLabels(Set<ComponentKey> components,
+                                     ArrayList<AppInfo> outUpdates) {
+        for (AppInfo info : data) {
+            if (components.contains(info.toComponentKey())) {
+                mIconCache.updateTitleAndIcon(info);
+                outUpdates.add(info);
+            }
+        }
+    }
+
     /**
      * Add and remove icons for this package which has been updated.
      */
@@ -16,6 +16,7 @@
 
 package com.android.launcher3;
 
+import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
@@ -43,12 +44,15 @@ import android.util.Log;
 
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.graphics.BitmapInfo;
 import com.android.launcher3.graphics.BitmapRenderer;
 import com.android.launcher3.graphics.LauncherIcons;
+import com.android.launcher3.graphics.RawPixelCodec;
 import com.android.launcher3.model.PackageItemInfo;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.InstantAppResolver;
+import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.Preconditions;
 import com.android.launcher3.util.Provider;
 import com.android.launcher3.util.SQLiteCacheHelper;
@@ -56,18 +60,32 @@ import com.android.launcher3.util.Thunk;
 
 import org.zimmob.zimlx.iconpack.ZimIconProvider;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import androidx.annotation.NonNull;
 import androidx.core.graphics.ColorUtils;
 
 /**
  * Cache of application icons.  Icons can be made from any thread.
+ *
+ * Loading an entry is guarded by a lock striped on the cache key, so that lookups for different
+ * components proceed in parallel while concurrent lookups for the same component are coalesced
+ * into a single load. Package entries use their own set of stripes, which are only ever acquired
+ * after (never before) a component stripe.
  */
 public class IconCache {
 
@@ -75,6 +93,17 @@ public class IconCache {
 
     private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
 
+    // Fraction of the per-app memory class which can be used by the in-memory icons.
+    private static final int MEMORY_CACHE_FRACTION = 16;
+
+    // Number of locks used to guard the loading of component and package entries.
+    private static final int LOCK_STRIPES = 16;
+
+    // Max number of components read by a single query when prefetching, this is kept well below
+    // the SQLite limit on the number of bound arguments.
+    private static final int PREFETCH_BATCH_SIZE = 200;
+    private static final int PREFETCH_MAX_DECODE_THREADS = 4;
+
     // Empty class name is used for storing package default entry.
     public static final String EMPTY_CLASS_NAME = ".";
 
@@ -96,11 +125,14 @@ public class IconCache {
     @Thunk
     final UserManagerCompat mUserManager;
     private final LauncherAppsCompat mLauncherApps;
-    private final HashMap<ComponentKey, CacheEntry> mCache = new HashMap<>(INITIAL_ICON_CACHE_CAPACITY);
+    private final IconMemoryCache mCache;
+    private final Object[] mComponentLocks = newLocks(LOCK_STRIPES);
+    private final Object[] mPackageLocks = newLocks(LOCK_STRIPES);
     private final InstantAppResolver mInstantAppResolver;
     private final int mIconDpi;
     @Thunk
     final IconDB mIconDb;
+    private final int mIconDbVersion;
 
     @Thunk
     final Handler mWorkerHandler;
@@ -108,6 +140,9 @@ public class IconCache {
     private final BitmapFactory.Options mLowResOptions;
     private final BitmapFactory.Options mHighResOptions;
 
+    // Pool used to decode the icons read in bulk by {@link #prefetch}.
+    private final ThreadPoolExecutor mDecodeExecutor;
+
     private int mPendingIconRequestCount = 0;
 
     public IconCache(Context context, InvariantDeviceProfile inv) {
@@ -118,6 +153,26 @@ public class IconCache {
         mInstantAppResolver = InstantAppResolver.newInstance(mContext);
         mIconDpi = inv.fillResIconDpi;
         mIconDb = new IconDB(context, inv.iconBitmapSize);
+        mIconDbVersion = IconDB.getVersion(inv.iconBitmapSize);
+
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long maxCacheBytes = (long) am.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_FRACTION;
+        mCache = new IconMemoryCache(INITIAL_ICON_CACHE_CAPACITY, maxCacheBytes,
+                new IconMemoryCache.LowResGenerator() {
+                    @Override
+                    public Bitmap generateLowResIcon(Bitmap icon) {
+                        return IconCache.this.generateLowResIcon(icon);
+                    }
+
+                    @Override
+                    public boolean isDefaultIcon(Bitmap icon, UserHandle user) {
+                        // Entries with the default icon imply that it was already created.
+                        synchronized (mDefaultIcons) {
+                            BitmapInfo defaultIcon = mDefaultIcons.get(user);
+                            return defaultIcon != null && defaultIcon.icon == icon;
+                        }
+                    }
+                });
 
         mIconProvider = IconProvider.newInstance(context);
         mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
@@ -133,6 +188,28 @@ public class IconCache {
         } else {
             mHighResOptions = null;
         }
+
+        int decodeThreads = Math.max(1, Math.min(PREFETCH_MAX_DECODE_THREADS,
+                Runtime.getRuntime().availableProcessors() - 1));
+        mDecodeExecutor = new ThreadPoolExecutor(decodeThreads, decodeThreads,
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        mDecodeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static Object[] newLocks(int count) {
+        Object[] locks = new Object[count];
+        for (int i = 0; i < count; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    private static Object getStripe(Object[] locks, int hashCode) {
+        return locks[(hashCode & Integer.MAX_VALUE) % locks.length];
+    }
+
+    private Object getPackageLock(String packageName) {
+        return getStripe(mPackageLocks, packageName.hashCode());
     }
 
     private Drawable getFullResDefaultActivityIcon() {
@@ -208,7 +285,7 @@ public class IconCache {
     /**
      * Remove any records for the supplied ComponentName.
      */
-    public synchronized void remove(ComponentName componentName, UserHandle user) {
+    public void remove(ComponentName componentName, UserHandle user) {
         mCache.remove(new ComponentKey(componentName, user));
     }
 
@@ -216,22 +293,34 @@ public class IconCache {
      * Remove any records for the supplied package name from memory.
      */
     private void removeFromMemCacheLocked(String packageName, UserHandle user) {
-        HashSet<ComponentKey> forDeletion = new HashSet<>();
-        for (ComponentKey key : mCache.keySet()) {
-            if (key.componentName.getPackageName().equals(packageName)
-                    && key.user.equals(user)) {
-                forDeletion.add(key);
-            }
-        }
-        for (ComponentKey condemned : forDeletion) {
-            mCache.remove(condemned);
-        }
+        mCache.removePackage(packageName, user);
+    }
+
+    /**
+     * Releases the in-memory icons in response to {@link Launcher#onTrimMemory(int)}. High-res
+     * icons are demoted to low-res first, they are reloaded from the DB when needed again.
+     */
+    public void onTrimMemory(int level) {
+        // Demoting icons allocates bitmaps, so avoid doing it on the caller's thread.
+        mWorkerHandler.post(() -> mCache.onTrimMemory(level));
+    }
+
+    public void dumpState(String prefix, PrintWriter writer) {
+        mCache.dump(prefix, writer);
+    }
+
+    /**
+     * Returns the version of the persistent icon DB. Icons copied out of the cache, like the
+     * first screen snapshot, must be discarded when it changes.
+     */
+    public int getDbVersion() {
+        return mIconDbVersion;
     }
 
     /**
      * Updates the entries related to the given package in memory and persistent DB.
      */
-    public synchronized void updateIconsForPkg(String packageName, UserHandle user) {
+    public void updateIconsForPkg(String packageName, UserHandle user) {
         removeIconsForPkg(packageName, user);
         try {
             PackageInfo info = mPackageManager.getPackageInfo(packageName,
@@ -245,10 +334,45 @@ public class IconCache {
         }
     }
 
+    /**
+     * Recreates the icons of the given components in memory and persistent DB, leaving the other
+     * components of their packages untouched.
+     */
+    public void updateIconsForComponents(Collection<ComponentKey> keys) {
+        HashMap<PackageUserKey, HashSet<ComponentName>> byPackage = new HashMap<>();
+        for (ComponentKey key : keys) {
+            PackageUserKey packageKey = new PackageUserKey(key.componentName.getPackageName(),
+                    key.user);
+            HashSet<ComponentName> components = byPackage.get(packageKey);
+            if (components == null) {
+                components = new HashSet<>();
+                byPackage.put(packageKey, components);
+            }
+            components.add(key.componentName);
+        }
+
+        for (Map.Entry<PackageUserKey, HashSet<ComponentName>> entry : byPackage.entrySet()) {
+            String packageName = entry.getKey().mPackageName;
+            UserHandle user = entry.getKey().mUser;
+            try {
+                PackageInfo info = mPackageManager.getPackageInfo(packageName,
+                        PackageManager.GET_UNINSTALLED_PACKAGES);
+                long userSerial = mUserManager.getSerialNumberForUser(user);
+                for (LauncherActivityInfo app : mLauncherApps.getActivityList(packageName, user)) {
+                    if (entry.getValue().contains(app.getComponentName())) {
+                        addIconToDBAndMemCache(app, info, userSerial, true /*replace existing*/);
+                    }
+                }
+            } catch (NameNotFoundException e) {
+                Log.d(TAG, "Package not found", e);
+            }
+        }
+    }
+
     /**
      * Removes the entries related to the given package in memory and persistent DB.
      */
-    public synchronized void removeIconsForPkg(String packageName, UserHandle user) {
+    public void removeIconsForPkg(String packageName, UserHandle user) {
         removeFromMemCacheLocked(packageName, user);
         long userSerial = mUserManager.getSerialNumberForUser(user);
         mIconDb.delete(
@@ -374,27 +498,27 @@ public class IconCache {
      *                        old data.
      */
     @Thunk
-    synchronized void addIconToDBAndMemCache(LauncherActivityInfo app,
-                                             PackageInfo info, long userSerial, boolean replaceExisting) {
+    void addIconToDBAndMemCache(LauncherActivityInfo app,
+                                PackageInfo info, long userSerial, boolean replaceExisting) {
+        Preconditions.assertNonUiThread();
         final ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
-        CacheEntry entry = null;
-        if (!replaceExisting) {
-            entry = mCache.get(key);
+        // The entry in memory may be read concurrently, so it is replaced and never modified.
+        CacheEntry entry = new CacheEntry();
+        synchronized (getStripe(mComponentLocks, key.hashCode())) {
+            CacheEntry existing = replaceExisting ? null : mCache.peek(key);
             // We can't reuse the entry if the high-res icon is not present.
-            if (entry == null || entry.isLowResIcon || entry.icon == null) {
-                entry = null;
+            if (existing != null && !existing.isLowResIcon && existing.icon != null) {
+                existing.applyTo(entry);
+            } else {
+                LauncherIcons li = LauncherIcons.obtain(mContext);
+                li.createBadgedIconBitmap(getFullResIcon(app), app.getUser(),
+                        app.getApplicationInfo().targetSdkVersion).applyTo(entry);
+                li.recycle();
             }
+            entry.title = app.getLabel();
+            entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, app.getUser());
+            mCache.put(key, entry);
         }
-        if (entry == null) {
-            entry = new CacheEntry();
-            LauncherIcons li = LauncherIcons.obtain(mContext);
-            li.createBadgedIconBitmap(getFullResIcon(app), app.getUser(),
-                    app.getApplicationInfo().targetSdkVersion).applyTo(entry);
-            li.recycle();
-        }
-        entry.title = app.getLabel();
-        entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, app.getUser());
-        mCache.put(key, entry);
 
         Bitmap lowResIcon = generateLowResIcon(entry.icon);
         ContentValues values = newContentValues(entry.icon, lowResIcon, entry.color,
@@ -455,7 +579,7 @@ public class IconCache {
     /**
      * Updates {@param application} only if a valid entry is found.
      */
-    public synchronized void updateTitleAndIcon(AppInfo application) {
+    public void updateTitleAndIcon(AppInfo application) {
         CacheEntry entry = cacheLocked(application.componentName,
                 Provider.of(null),
                 application.user, false, application.usingLowResIcon);
@@ -467,8 +591,8 @@ public class IconCache {
     /**
      * Fill in {@param info} with the icon and label for {@param activityInfo}
      */
-    public synchronized void getTitleAndIcon(ItemInfoWithIcon info,
-                                             LauncherActivityInfo activityInfo, boolean useLowResIcon) {
+    public void getTitleAndIcon(ItemInfoWithIcon info,
+                                LauncherActivityInfo activityInfo, boolean useLowResIcon) {
         // If we already have activity info, no need to use package icon
         getTitleAndIcon(info, Provider.of(activityInfo), false, useLowResIcon);
     }
@@ -477,7 +601,7 @@ public class IconCache {
      * Fill in {@param info} with the icon and label. If the
      * corresponding activity is not found, it reverts to the package icon.
      */
-    public synchronized void getTitleAndIcon(ItemInfoWithIcon info, boolean useLowResIcon) {
+    public void getTitleAndIcon(ItemInfoWithIcon info, boolean useLowResIcon) {
         // null info means not installed, but if we have a component from the intent then
         // we should still look in the cache for restored app icons.
         if (info.getTargetComponent() == null) {
@@ -494,7 +618,7 @@ public class IconCache {
     /**
      * Fill in {@param shortcutInfo} with the icon and label for {@param info}
      */
-    private synchronized void getTitleAndIcon(
+    private void getTitleAndIcon(
             @NonNull ItemInfoWithIcon infoInOut,
             @NonNull Provider<LauncherActivityInfo> activityInfoProvider,
             boolean usePkgIcon, boolean useLowResIcon) {
@@ -506,7 +630,7 @@ public class IconCache {
     /**
      * Fill in {@param infoInOut} with the corresponding icon and label.
      */
-    public synchronized void getTitleAndIconForApp(
+    public void getTitleAndIconForApp(
             PackageItemInfo infoInOut, boolean useLowResIcon) {
         CacheEntry entry = getEntryForPackageLocked(
                 infoInOut.packageName, infoInOut.user, useLowResIcon);
@@ -520,11 +644,13 @@ public class IconCache {
         ((entry.icon == null) ? getDefaultIcon(info.user) : entry).applyTo(info);
     }
 
-    public synchronized BitmapInfo getDefaultIcon(UserHandle user) {
-        if (!mDefaultIcons.containsKey(user)) {
-            mDefaultIcons.put(user, makeDefaultIcon(user));
+    public BitmapInfo getDefaultIcon(UserHandle user) {
+        synchronized (mDefaultIcons) {
+            if (!mDefaultIcons.containsKey(user)) {
+                mDefaultIcons.put(user, makeDefaultIcon(user));
+            }
+            return mDefaultIcons.get(user);
         }
-        return mDefaultIcons.get(user);
     }
 
     public boolean isDefaultIcon(Bitmap icon, UserHandle user) {
@@ -533,18 +659,28 @@ public class IconCache {
 
     /**
      * Retrieves the entry from the cache. If the entry is not present, it creates a new entry.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * This method is thread safe: the entry is loaded while holding the lock for its key, and
+     * callers waiting on the same key reuse the loaded entry.
      */
     protected CacheEntry cacheLocked(
             @NonNull ComponentName componentName,
             @NonNull Provider<LauncherActivityInfo> infoProvider,
             UserHandle user, boolean usePackageIcon, boolean useLowResIcon) {
-        Preconditions.assertWorkerThread();
         ComponentKey cacheKey = new ComponentKey(componentName, user);
         CacheEntry entry = mCache.get(cacheKey);
-        if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
+        if (isUsable(entry, useLowResIcon)) {
+            return entry;
+        }
+        synchronized (getStripe(mComponentLocks, cacheKey.hashCode())) {
+            // The same entry may have been loaded while we were waiting for the lock.
+            entry = mCache.peek(cacheKey);
+            if (isUsable(entry, useLowResIcon)) {
+                mCache.recordCoalescedLoad();
+                return entry;
+            }
+
+            int generation = mCache.getGeneration(cacheKey);
             entry = new CacheEntry();
-            mCache.put(cacheKey, entry);
 
             // Check the DB first.
             LauncherActivityInfo info = null;
@@ -589,11 +725,17 @@ public class IconCache {
                     entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
                 }
             }
+            // Only add the entry once it is populated, so that its size is accounted for.
+            mCache.putIfValid(cacheKey, entry, generation);
         }
         return entry;
     }
 
-    public synchronized void clear() {
+    private static boolean isUsable(CacheEntry entry, boolean useLowResIcon) {
+        return entry != null && (!entry.isLowResIcon || useLowResIcon);
+    }
+
+    public void clear() {
         Preconditions.assertWorkerThread();
         mIconDb.clear();
     }
@@ -602,27 +744,35 @@ public class IconCache {
      * Adds a default package entry in the cache. This entry is not persisted and will be removed
      * when the cache is flushed.
      */
-    public synchronized void cachePackageInstallInfo(String packageName, UserHandle user,
-                                                     Bitmap icon, CharSequence title) {
-        removeFromMemCacheLocked(packageName, user);
-
-        ComponentKey cacheKey = getPackageKey(packageName, user);
-        CacheEntry entry = mCache.get(cacheKey);
-
-        // For icon caching, do not go through DB. Just update the in-memory entry.
-        if (entry == null) {
-            entry = new CacheEntry();
-        }
-        if (!TextUtils.isEmpty(title)) {
-            entry.title = title;
-        }
-        if (icon != null) {
-            LauncherIcons li = LauncherIcons.obtain(mContext);
-            li.createIconBitmap(icon).applyTo(entry);
-            li.recycle();
-        }
-        if (!TextUtils.isEmpty(title) && entry.icon != null) {
-            mCache.put(cacheKey, entry);
+    public void cachePackageInstallInfo(String packageName, UserHandle user,
+                                        Bitmap icon, CharSequence title) {
+        synchronized (getPackageLock(packageName)) {
+            removeFromMemCacheLocked(packageName, user);
+
+            ComponentKey cacheKey = getPackageKey(packageName, user);
+            CacheEntry existing = mCache.peek(cacheKey);
+
+            // For icon caching, do not go through DB. Just replace the in-memory entry, which may
+            // be read concurrently and hence is never modified.
+            CacheEntry entry = new CacheEntry();
+            if (existing != null) {
+                existing.applyTo(entry);
+                entry.title = existing.title;
+                entry.contentDescription = existing.contentDescription;
+                entry.isLowResIcon = existing.isLowResIcon;
+            }
+            if (!TextUtils.isEmpty(title)) {
+                entry.title = title;
+            }
+            if (icon != null) {
+                LauncherIcons li = LauncherIcons.obtain(mContext);
+                li.createIconBitmap(icon).applyTo(entry);
+                li.recycle();
+            }
+            if (!TextUtils.isEmpty(title) && entry.icon != null) {
+                // This entry is not persisted, so it should never be evicted from memory.
+                mCache.putPinned(cacheKey, entry);
+            }
         }
     }
 
@@ -633,15 +783,25 @@ public class IconCache {
 
     /**
      * Gets an entry for the package, which can be used as a fallback entry for various components.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * This method is thread safe, the entry is loaded while holding the lock for the package.
      */
     private CacheEntry getEntryForPackageLocked(String packageName, UserHandle user,
                                                 boolean useLowResIcon) {
-        Preconditions.assertWorkerThread();
+        Preconditions.assertNonUiThread();
         ComponentKey cacheKey = getPackageKey(packageName, user);
         CacheEntry entry = mCache.get(cacheKey);
+        if (isUsable(entry, useLowResIcon)) {
+            return entry;
+        }
 
-        if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
+        synchronized (getPackageLock(packageName)) {
+            entry = mCache.peek(cacheKey);
+            if (isUsable(entry, useLowResIcon)) {
+                mCache.recordCoalescedLoad();
+                return entry;
+            }
+
+            int generation = mCache.getGeneration(cacheKey);
             entry = new CacheEntry();
             boolean entryUpdated = true;
 
@@ -686,12 +846,129 @@ public class IconCache {
 
             // Only add a filled-out entry to the cache
             if (entryUpdated) {
-                mCache.put(cacheKey, entry);
+                mCache.putIfValid(cacheKey, entry, generation);
             }
         }
         return entry;
     }
 
+    /**
+     * Loads the entries for {@param keys} from the DB into memory, using a few bulk queries
+     * instead of one query per key, and decodes the icons in parallel. Keys which are already in
+     * memory or which are not present in the DB are skipped, and will be loaded on demand.
+     */
+    public void prefetch(Collection<ComponentKey> keys, boolean lowRes) {
+        HashMap<UserHandle, ArrayList<ComponentKey>> keysByUser = new HashMap<>();
+        for (ComponentKey key : keys) {
+            if (isUsable(mCache.peek(key), lowRes)) {
+                continue;
+            }
+            ArrayList<ComponentKey> userKeys = keysByUser.get(key.user);
+            if (userKeys == null) {
+                userKeys = new ArrayList<>();
+                keysByUser.put(key.user, userKeys);
+            }
+            userKeys.add(key);
+        }
+        if (keysByUser.isEmpty()) {
+            return;
+        }
+
+        ArrayList<Future<?>> pendingDecodes = new ArrayList<>();
+        for (Map.Entry<UserHandle, ArrayList<ComponentKey>> e : keysByUser.entrySet()) {
+            UserHandle user = e.getKey();
+            ArrayList<ComponentKey> userKeys = e.getValue();
+            String userSerial = Long.toString(mUserManager.getSerialNumberForUser(user));
+            for (int start = 0; start < userKeys.size(); start += PREFETCH_BATCH_SIZE) {
+                List<ComponentKey> batch = userKeys.subList(start,
+                        Math.min(start + PREFETCH_BATCH_SIZE, userKeys.size()));
+                prefetchBatch(batch, user, userSerial, lowRes, pendingDecodes);
+            }
+        }
+
+        for (Future<?> decode : pendingDecodes) {
+            try {
+                decode.get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(TAG, "Error decoding icon", e);
+            }
+        }
+    }
+
+    private void prefetchBatch(List<ComponentKey> batch, UserHandle user, String userSerial,
+            boolean lowRes, List<Future<?>> pendingDecodes) {
+        // Taken before the query, so that entries invalidated while it runs are not added.
+        HashMap<ComponentKey, Integer> generations = new HashMap<>(batch.size());
+        for (ComponentKey key : batch) {
+            generations.put(key, mCache.getGeneration(key));
+        }
+
+        String[] selectionArgs = new String[batch.size() + 1];
+        StringBuilder selection = new StringBuilder(IconDB.COLUMN_USER)
+                .append(" = ? AND ").append(IconDB.COLUMN_COMPONENT).append(" IN (");
+        selectionArgs[0] = userSerial;
+        for (int i = 0; i < batch.size(); i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+            selectionArgs[i + 1] = batch.get(i).componentName.flattenToString();
+        }
+        selection.append(")");
+
+        Cursor c = null;
+        try {
+            c = mIconDb.query(
+                    new String[]{IconDB.COLUMN_COMPONENT,
+                            lowRes ? IconDB.COLUMN_ICON_LOW_RES : IconDB.COLUMN_ICON,
+                            IconDB.COLUMN_ICON_COLOR, IconDB.COLUMN_LABEL},
+                    selection.toString(), selectionArgs);
+            while (c.moveToNext()) {
+                ComponentName cn = ComponentName.unflattenFromString(c.getString(0));
+                byte[] data = c.getBlob(1);
+                int color = c.getInt(2);
+                String title = c.getString(3);
+                if (cn == null || data == null) {
+                    continue;
+                }
+                ComponentKey key = new ComponentKey(cn, user);
+                Integer generation = generations.get(key);
+                if (generation == null) {
+                    continue;
+                }
+                pendingDecodes.add(mDecodeExecutor.submit(() -> {
+                    CacheEntry entry = new CacheEntry();
+                    entry.icon = decodeIcon(data, lowRes);
+                    if (entry.icon == null) {
+                        return;
+                    }
+                    // Set the alpha to be 255, so that we never have a wrong color
+                    entry.color = ColorUtils.setAlphaComponent(color, 255);
+                    entry.isLowResIcon = lowRes;
+                    setTitle(entry, title, user);
+                    synchronized (getStripe(mComponentLocks, key.hashCode())) {
+                        if (!isUsable(mCache.peek(key), lowRes)) {
+                            mCache.putIfValid(key, entry, generation);
+                        }
+                    }
+                }));
+            }
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Error reading icon cache", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    private void setTitle(CacheEntry entry, String title, UserHandle user) {
+        if (title == null) {
+            entry.title = "";
+            entry.contentDescription = "";
+        } else {
+            entry.title = title;
+            entry.contentDescription = mUserManager.getBadgedLabelForUser(title, user);
+        }
+    }
+
     private boolean getEntryFromDB(ComponentKey cacheKey, CacheEntry entry, boolean lowRes) {
         Cursor c = null;
         try {
@@ -702,18 +979,11 @@ public class IconCache {
                     new String[]{cacheKey.componentName.flattenToString(),
                             Long.toString(mUserManager.getSerialNumberForUser(cacheKey.user))});
             if (c.moveToNext()) {
-                entry.icon = loadIconNoResize(c, 0, lowRes ? mLowResOptions : mHighResOptions);
+                entry.icon = decodeIcon(c.getBlob(0), lowRes);
                 // Set the alpha to be 255, so that we never have a wrong color
                 entry.color = ColorUtils.setAlphaComponent(c.getInt(1), 255);
                 entry.isLowResIcon = lowRes;
-                entry.title = c.getString(2);
-                if (entry.title == null) {
-                    entry.title = "";
-                    entry.contentDescription = "";
-                } else {
-                    entry.contentDescription = mUserManager.getBadgedLabelForUser(
-                            entry.title, cacheKey.user);
-                }
+                setTitle(entry, c.getString(2), cacheKey.user);
                 return true;
             }
         } catch (SQLiteException e) {
@@ -813,6 +1083,12 @@ public class IconCache {
     private static final class IconDB extends SQLiteCacheHelper {
         private final static int RELEASE_VERSION = 22;
 
+        // Storage format of the icon blobs, part of the DB version so that changing it resets
+        // the DB instead of mixing formats.
+        private final static boolean RAW_PIXELS = FeatureFlags.ICON_CACHE_RAW_PIXELS;
+        private final static int FORMAT_PNG = 0;
+        private final static int FORMAT_RAW_PIXELS = 1;
+
         private final static String TABLE_NAME = "icons";
         private final static String COLUMN_ROWID = "rowid";
         private final static String COLUMN_COMPONENT = "componentName";
@@ -826,9 +1102,13 @@ public class IconCache {
         private final static String COLUMN_SYSTEM_STATE = "system_state";
 
         public IconDB(Context context, int iconPixelSize) {
-            super(context, LauncherFiles.APP_ICONS_DB,
-                    (RELEASE_VERSION << 16) + iconPixelSize,
-                    TABLE_NAME);
+            super(context, LauncherFiles.APP_ICONS_DB, getVersion(iconPixelSize), TABLE_NAME);
+        }
+
+        static int getVersion(int iconPixelSize) {
+            return (RELEASE_VERSION << 16)
+                    + ((RAW_PIXELS ? FORMAT_RAW_PIXELS : FORMAT_PNG) << 15)
+                    + iconPixelSize;
         }
 
         @Override
@@ -851,8 +1131,8 @@ public class IconCache {
     private ContentValues newContentValues(Bitmap icon, Bitmap lowResIcon, int iconColor,
                                            String label, String packageName) {
         ContentValues values = new ContentValues();
-        values.put(IconDB.COLUMN_ICON, Utilities.flattenBitmap(icon));
-        values.put(IconDB.COLUMN_ICON_LOW_RES, Utilities.flattenBitmap(lowResIcon));
+        values.put(IconDB.COLUMN_ICON, encodeIcon(icon));
+        values.put(IconDB.COLUMN_ICON_LOW_RES, encodeIcon(lowResIcon));
         values.put(IconDB.COLUMN_ICON_COLOR, iconColor);
 
         values.put(IconDB.COLUMN_LABEL, label);
@@ -870,8 +1150,20 @@ public class IconCache {
                 icon.getHeight() / LOW_RES_SCALE_FACTOR, true);
     }
 
-    private static Bitmap loadIconNoResize(Cursor c, int iconIndex, BitmapFactory.Options options) {
-        byte[] data = c.getBlob(iconIndex);
+    private byte[] encodeIcon(Bitmap icon) {
+        return IconDB.RAW_PIXELS ? RawPixelCodec.encode(icon) : Utilities.flattenBitmap(icon);
+    }
+
+    private Bitmap decodeIcon(byte[] data, boolean lowRes) {
+        if (IconDB.RAW_PIXELS) {
+            // Low res icons are always kept in software, like with BitmapFactory.
+            return RawPixelCodec.decode(data, lowRes || mHighResOptions == null
+                    ? null : mHighResOptions.inPreferredConfig);
+        }
+        return decodeIcon(data, lowRes ? mLowResOptions : mHighResOptions);
+    }
+
+    private static Bitmap decodeIcon(byte[] data, BitmapFactory.Options options) {
         try {
             return BitmapFactory.decodeByteArray(data, 0, data.length, options);
         } catch (Exception e) {
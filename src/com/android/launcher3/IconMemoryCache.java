@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.os.UserHandle;
+import android.util.Log;
+
+import com.android.launcher3.IconCache.CacheEntry;
+import com.android.launcher3.util.ComponentKey;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory tier of the {@link IconCache}, bounded by the number of bytes used by the icon
+ * bitmaps. Entries are kept in access order; when the budget is exceeded the coldest high-res
+ * entries are first demoted to their low-res variant, and only then evicted entirely.
+ *
+ * This class is thread safe. Its lock is only held for the map operations and never while an
+ * icon is being loaded, see {@link IconCache#cacheLocked}, or demoted.
+ */
+class IconMemoryCache {
+
+    private static final String TAG = "IconMemoryCache";
+    private static final boolean DEBUG = false;
+
+    /**
+     * Generates the low-res version of a high-res icon, used when demoting an entry.
+     */
+    interface LowResGenerator {
+        Bitmap generateLowResIcon(Bitmap icon);
+
+        /**
+         * Returns true if {@param icon} is the default icon for the user, which is shared by
+         * several entries and is never demoted.
+         */
+        boolean isDefaultIcon(Bitmap icon, UserHandle user);
+    }
+
+    private final LinkedHashMap<ComponentKey, CacheEntry> mEntries;
+    // Entries which are not backed by the DB and hence can never be demoted or evicted.
+    private final HashSet<ComponentKey> mPinned = new HashSet<>();
+    private final LowResGenerator mLowResGenerator;
+    private final long mMaxBytes;
+
+    private long mSizeBytes;
+
+    // Set while a thread generates the low-res icons of a demotion outside of the lock. Trims
+    // requested meanwhile are left to that thread, down to the smallest requested size.
+    private boolean mDemoting;
+    private long mPendingTrimBytes = Long.MAX_VALUE;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mDemotionCount;
+    private int mEvictionCount;
+    private int mCoalescedCount;
+
+    // Number of package stripes tracked by the generations below.
+    private static final int GENERATION_STRIPES = 32;
+
+    // Incremented every time entries of a package stripe are invalidated, so that loads which
+    // started before the invalidation do not add stale entries back. Loads of the other packages
+    // are not affected.
+    private final int[] mGenerations = new int[GENERATION_STRIPES];
+
+    IconMemoryCache(int initialCapacity, long maxBytes, LowResGenerator lowResGenerator) {
+        mEntries = new LinkedHashMap<>(initialCapacity, 0.75f, true /* accessOrder */);
+        mMaxBytes = maxBytes;
+        mLowResGenerator = lowResGenerator;
+    }
+
+    /**
+     * Returns the entry for the key and marks it as recently used, or null if absent.
+     */
+    public synchronized CacheEntry get(ComponentKey key) {
+        CacheEntry entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Same as {@link #get} but without affecting the hit and miss counters.
+     */
+    public synchronized CacheEntry peek(ComponentKey key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * Records that a load request was served by a load made concurrently by another caller.
+     */
+    public synchronized void recordCoalescedLoad() {
+        mCoalescedCount++;
+    }
+
+    /**
+     * Returns a token to pass to {@link #putIfValid} once the entry for the key has been loaded.
+     */
+    public synchronized int getGeneration(ComponentKey key) {
+        return mGenerations[getGenerationStripe(key.componentName.getPackageName())];
+    }
+
+    /**
+     * Adds the entry only if the package of the key was not invalidated since {@param generation}
+     * was obtained.
+     */
+    public void putIfValid(ComponentKey key, CacheEntry entry, int generation) {
+        synchronized (this) {
+            if (generation != getGeneration(key)) {
+                return;
+            }
+            putInternal(key, entry);
+            mPinned.remove(key);
+        }
+        trimToSize(mMaxBytes);
+    }
+
+    private static int getGenerationStripe(String packageName) {
+        return (packageName.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    /**
+     * Adds or replaces the entry for the key. The entry must be fully populated, as its size is
+     * only measured once here.
+     */
+    public void put(ComponentKey key, CacheEntry entry) {
+        synchronized (this) {
+            putInternal(key, entry);
+            mPinned.remove(key);
+        }
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Adds an entry which is not persisted anywhere else and hence should be kept in memory
+     * until it is explicitly removed.
+     */
+    public void putPinned(ComponentKey key, CacheEntry entry) {
+        synchronized (this) {
+            putInternal(key, entry);
+            mPinned.add(key);
+        }
+        trimToSize(mMaxBytes);
+    }
+
+    private void putInternal(ComponentKey key, CacheEntry entry) {
+        CacheEntry previous = mEntries.put(key, entry);
+        if (previous != null) {
+            mSizeBytes -= sizeOf(previous);
+        }
+        mSizeBytes += sizeOf(entry);
+    }
+
+    public synchronized void remove(ComponentKey key) {
+        mGenerations[getGenerationStripe(key.componentName.getPackageName())]++;
+        CacheEntry previous = mEntries.remove(key);
+        if (previous != null) {
+            mSizeBytes -= sizeOf(previous);
+        }
+        mPinned.remove(key);
+    }
+
+    /**
+     * Removes all the entries for the provided package and user.
+     */
+    public synchronized void removePackage(String packageName, UserHandle user) {
+        mGenerations[getGenerationStripe(packageName)]++;
+        Iterator<Map.Entry<ComponentKey, CacheEntry>> itr = mEntries.entrySet().iterator();
+        while (itr.hasNext()) {
+            Map.Entry<ComponentKey, CacheEntry> e = itr.next();
+            ComponentKey key = e.getKey();
+            if (key.componentName.getPackageName().equals(packageName)
+                    && key.user.equals(user)) {
+                mSizeBytes -= sizeOf(e.getValue());
+                mPinned.remove(key);
+                itr.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            mGenerations[i]++;
+        }
+        mEntries.clear();
+        mPinned.clear();
+        mSizeBytes = 0;
+    }
+
+    /**
+     * Releases memory in response to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            // We are likely to be killed soon, keep only what cannot be reloaded from the DB.
+            trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(mMaxBytes / 4);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(mMaxBytes / 2);
+        }
+    }
+
+    /**
+     * Brings the cache under {@param maxBytes}, by first demoting the least recently used
+     * high-res entries and then evicting the least recently used entries. The low-res icons are
+     * generated without holding the lock, so that readers are not blocked meanwhile.
+     */
+    private void trimToSize(long maxBytes) {
+        LinkedHashMap<ComponentKey, CacheEntry> candidates;
+        synchronized (this) {
+            if (mDemoting) {
+                mPendingTrimBytes = Math.min(mPendingTrimBytes, maxBytes);
+                return;
+            }
+            if (mSizeBytes <= maxBytes) {
+                return;
+            }
+            // Demotion is skipped when emptying the cache, as the low-res icons would be evicted
+            // right away.
+            candidates = maxBytes == 0
+                    ? new LinkedHashMap<>() : getDemotionCandidates(mSizeBytes - maxBytes);
+            if (candidates.isEmpty()) {
+                evictToSize(maxBytes);
+                return;
+            }
+            mDemoting = true;
+        }
+
+        HashMap<ComponentKey, CacheEntry> lowResEntries = new HashMap<>();
+        try {
+            for (Map.Entry<ComponentKey, CacheEntry> candidate : candidates.entrySet()) {
+                CacheEntry lowRes = demote(candidate.getValue());
+                if (lowRes != null) {
+                    lowResEntries.put(candidate.getKey(), lowRes);
+                }
+            }
+        } finally {
+            finishDemotion(candidates, lowResEntries, maxBytes);
+        }
+    }
+
+    private synchronized void finishDemotion(HashMap<ComponentKey, CacheEntry> candidates,
+            HashMap<ComponentKey, CacheEntry> lowResEntries, long maxBytes) {
+        mDemoting = false;
+        // The demoted entries are replaced in place, so that their position in the access order
+        // is not changed. Entries which were replaced or removed meanwhile are skipped.
+        int demoted = 0;
+        if (!lowResEntries.isEmpty()) {
+            for (Map.Entry<ComponentKey, CacheEntry> e : mEntries.entrySet()) {
+                CacheEntry lowRes = lowResEntries.get(e.getKey());
+                if (lowRes != null && e.getValue() == candidates.get(e.getKey())) {
+                    mSizeBytes += sizeOf(lowRes) - sizeOf(e.getValue());
+                    e.setValue(lowRes);
+                    demoted++;
+                }
+            }
+        }
+        mDemotionCount += demoted;
+        if (DEBUG) {
+            Log.d(TAG, "Demoted " + demoted + " entries");
+        }
+
+        // Evict only if demoting wasn't enough, including for the trims requested meanwhile.
+        maxBytes = Math.min(maxBytes, mPendingTrimBytes);
+        mPendingTrimBytes = Long.MAX_VALUE;
+        evictToSize(maxBytes);
+    }
+
+    /**
+     * Returns the coldest high-res entries which can be demoted, until their size covers
+     * {@param excessBytes}.
+     */
+    private LinkedHashMap<ComponentKey, CacheEntry> getDemotionCandidates(long excessBytes) {
+        LinkedHashMap<ComponentKey, CacheEntry> candidates = new LinkedHashMap<>();
+        long candidateBytes = 0;
+        for (Map.Entry<ComponentKey, CacheEntry> e : mEntries.entrySet()) {
+            if (candidateBytes >= excessBytes) {
+                break;
+            }
+            CacheEntry entry = e.getValue();
+            if (entry.isLowResIcon || entry.icon == null || mPinned.contains(e.getKey())
+                    || mLowResGenerator.isDefaultIcon(entry.icon, e.getKey().user)) {
+                continue;
+            }
+            candidates.put(e.getKey(), entry);
+            candidateBytes += sizeOf(entry);
+        }
+        return candidates;
+    }
+
+    /**
+     * Evicts the coldest entries until the cache is under {@param maxBytes}.
+     */
+    private void evictToSize(long maxBytes) {
+        Iterator<Map.Entry<ComponentKey, CacheEntry>> itr = mEntries.entrySet().iterator();
+        while (mSizeBytes > maxBytes && itr.hasNext()) {
+            Map.Entry<ComponentKey, CacheEntry> e = itr.next();
+            if (mPinned.contains(e.getKey())) {
+                continue;
+            }
+            mSizeBytes -= sizeOf(e.getValue());
+            itr.remove();
+            mEvictionCount++;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Trimmed to " + mSizeBytes + "/" + maxBytes + " bytes");
+        }
+    }
+
+    private CacheEntry demote(CacheEntry entry) {
+        Bitmap lowResIcon;
+        try {
+            lowResIcon = mLowResGenerator.generateLowResIcon(entry.icon);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            Log.w(TAG, "Unable to generate low-res icon", e);
+            return null;
+        }
+        if (lowResIcon == null) {
+            return null;
+        }
+        CacheEntry lowRes = new CacheEntry();
+        lowRes.icon = lowResIcon;
+        lowRes.color = entry.color;
+        lowRes.title = entry.title;
+        lowRes.contentDescription = entry.contentDescription;
+        // Marking the entry as low-res makes the next high-res request reload it from the DB.
+        lowRes.isLowResIcon = true;
+        return lowRes;
+    }
+
+    private static long sizeOf(CacheEntry entry) {
+        Bitmap icon = entry.icon;
+        if (icon == null || icon.isRecycled()) {
+            return 0;
+        }
+        return icon.getAllocationByteCount();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long sizeBytes() {
+        return mSizeBytes;
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "IconMemoryCache: entries=" + mEntries.size()
+                + " pinned=" + mPinned.size()
+                + " bytes=" + mSizeBytes + "/" + mMaxBytes);
+        writer.println(prefix + "  hits=" + mHitCount
+                + " misses=" + mMissCount
+                + " demotions=" + mDemotionCount
+                + " evictions=" + mEvictionCount
+                + " coalesced=" + mCoalescedCount);
+    }
+}
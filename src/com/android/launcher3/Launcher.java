@@ -906,6 +906,8 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         super.onPause();
         mDragController.cancelDrag();
         mDragController.resetLastGestureUpTime();
+        // The process may be killed while in the background.
+        mModelWriter.flushPendingUpdates();
 
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onPause();
@@ -1796,6 +1798,9 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
     public void onTrimMemory(int level) {
         super.onTrimMemory(level);
         if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // Write the queued item updates before the process becomes a candidate to be killed.
+            mModelWriter.flushPendingUpdates();
+
             // The widget preview db can result in holding onto over
             // 3MB of memory for caching which isn't necessary.
             SQLiteDatabase.releaseMemory();
@@ -1803,6 +1808,16 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
             // This clears all widget bitmaps from the widget tray
             // TODO(hyunyoungs)
         }
+        if (mIconCache != null) {
+            mIconCache.onTrimMemory(level);
+        }
+        LauncherAppState app = LauncherAppState.getInstanceNoCreate();
+        if (app != null) {
+            app.getWidgetCache().onTrimMemory(level);
+        }
+        if (mBlurWallpaperProvider != null) {
+            mBlurWallpaperProvider.onTrimMemory(level);
+        }
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onTrimMemory(level);
         }
@@ -2347,7 +2362,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
      */
     @Override
     public void bindAppsAddedOrUpdated(ArrayList<AppInfo> apps) {
-        mAppsView.getAppsStore().addOrUpdateApps(apps);
+        mAppsView.addOrUpdateApps(apps);
     }
 
     @Override
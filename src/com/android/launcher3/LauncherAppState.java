@@ -29,10 +29,13 @@ import com.android.launcher3.compat.PackageInstallerCompat;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.notification.NotificationListener;
+import com.android.launcher3.provider.LauncherDao;
 import com.android.launcher3.util.ConfigMonitor;
 import com.android.launcher3.util.Preconditions;
 import com.android.launcher3.util.SettingsObserver;
 
+import org.zimmob.zimlx.util.AppCountStore;
+
 import java.util.concurrent.ExecutionException;
 
 import static org.zimmob.zimlx.settings.ui.SettingsActivity.NOTIFICATION_BADGING;
@@ -45,6 +48,7 @@ public class LauncherAppState {
     private static LauncherAppState INSTANCE;
 
     private final Context mContext;
+    private final LauncherProvider mProvider;
     private final LauncherModel mModel;
     private final IconCache mIconCache;
     private final WidgetPreviewLoader mWidgetCache;
@@ -76,7 +80,8 @@ public class LauncherAppState {
     }
 
     private LauncherAppState(Context context) {
-        if (getLocalProvider(context) == null) {
+        mProvider = getLocalProvider(context);
+        if (mProvider == null) {
             throw new RuntimeException(
                     "Initializing LauncherAppState in the absence of LauncherProvider");
         }
@@ -88,6 +93,8 @@ public class LauncherAppState {
         mIconCache = new IconCache(mContext, mInvariantDeviceProfile);
         mWidgetCache = new WidgetPreviewLoader(mContext, mIconCache);
         mModel = new LauncherModel(this, mIconCache, AppFilter.newInstance(mContext));
+        // Queues the read of the launch counts on the worker thread, ahead of the loader.
+        AppCountStore.getInstance(mContext);
 
         LauncherAppsCompat.getInstance(mContext).addOnAppsChangedCallback(mModel);
 
@@ -142,7 +149,7 @@ public class LauncherAppState {
 
     LauncherModel setLauncher(Launcher launcher) {
         mLauncher = launcher;
-        getLocalProvider(mContext).setLauncherProviderChangeListener(launcher);
+        mProvider.setLauncherProviderChangeListener(launcher);
         mModel.initialize(launcher);
         return mModel;
     }
@@ -163,6 +170,14 @@ public class LauncherAppState {
         return mWidgetCache;
     }
 
+    /**
+     * Returns the direct access to the launcher DB, to be used by the model instead of
+     * {@link LauncherProvider}. Must not be called on the UI thread before the DB is loaded.
+     */
+    public LauncherDao getLauncherDao() {
+        return mProvider.getDao();
+    }
+
     public InvariantDeviceProfile getInvariantDeviceProfile() {
         return mInvariantDeviceProfile;
     }
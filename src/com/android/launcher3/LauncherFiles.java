@@ -23,6 +23,7 @@ public class LauncherFiles {
     public static final String REFLECTION_PREFERENCES_KEY = "reflection.private.properties";
     public static final String WIDGET_PREVIEWS_DB = "widgetpreviews.db";
     public static final String APP_ICONS_DB = "app_icons.db";
+    public static final String FIRST_SCREEN_SNAPSHOT = "first_screen.snapshot";
     private static final String XML = ".xml";
     public static final List<String> ALL_FILES = Collections.unmodifiableList(Arrays.asList(
             LAUNCHER_DB,
@@ -31,5 +32,6 @@ public class LauncherFiles {
             MANAGED_USER_PREFERENCES_KEY + XML,
             DEVICE_PREFERENCES_KEY + XML,
             REFLECTION_PREFERENCES_KEY + XML,
-            APP_ICONS_DB));
+            APP_ICONS_DB,
+            FIRST_SCREEN_SNAPSHOT));
 }
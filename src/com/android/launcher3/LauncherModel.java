@@ -40,6 +40,9 @@ import com.android.launcher3.model.AddWorkspaceItemsTask;
 import com.android.launcher3.model.BaseModelUpdateTask;
 import com.android.launcher3.model.BgDataModel;
 import com.android.launcher3.model.CacheDataUpdatedTask;
+import com.android.launcher3.model.ComponentIconsUpdatedTask;
+import com.android.launcher3.model.FirstScreenSnapshot;
+import com.android.launcher3.model.ItemUpdateQueue;
 import com.android.launcher3.model.LoaderResults;
 import com.android.launcher3.model.LoaderTask;
 import com.android.launcher3.model.ModelWriter;
@@ -47,7 +50,6 @@ import com.android.launcher3.model.PackageInstallStateChangedTask;
 import com.android.launcher3.model.PackageUpdatedTask;
 import com.android.launcher3.model.ShortcutsChangedTask;
 import com.android.launcher3.model.UserLockStateChangedTask;
-import com.android.launcher3.provider.LauncherDbUtils;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.util.ComponentKey;
@@ -135,6 +137,14 @@ public class LauncherModel extends BroadcastReceiver
     // < only access in worker thread >
     private final AllAppsList mBgAllAppsList;
 
+    private final FirstScreenSnapshot mFirstScreenSnapshot;
+    // The snapshot is only bound for the first load of the process, later loads replace an
+    // already populated workspace.
+    private boolean mFirstScreenSnapshotUsed;
+
+    // Shared by all the ModelWriters, so that their updates are written in order.
+    private final ItemUpdateQueue mItemUpdateQueue;
+
     /**
      * All the static data should be accessed on the background thread, A lock should be acquired
      * on this object when accessing any data from this model.
@@ -204,6 +214,13 @@ public class LauncherModel extends BroadcastReceiver
     LauncherModel(LauncherAppState app, IconCache iconCache, AppFilter appFilter) {
         mApp = app;
         mBgAllAppsList = new AllAppsList(iconCache, appFilter);
+        mFirstScreenSnapshot = new FirstScreenSnapshot(app.getContext(),
+                app.getInvariantDeviceProfile(), iconCache.getDbVersion());
+        mItemUpdateQueue = new ItemUpdateQueue(app.getContext());
+    }
+
+    public FirstScreenSnapshot getFirstScreenSnapshot() {
+        return mFirstScreenSnapshot;
     }
 
     /**
@@ -241,7 +258,7 @@ public class LauncherModel extends BroadcastReceiver
     }
 
     public ModelWriter getWriter(boolean hasVerticalHotseat, boolean verifyChanges) {
-        return new ModelWriter(mApp.getContext(), this, sBgDataModel,
+        return new ModelWriter(mApp.getContext(), this, sBgDataModel, mItemUpdateQueue,
                 hasVerticalHotseat, verifyChanges);
     }
 
@@ -419,6 +436,18 @@ public class LauncherModel extends BroadcastReceiver
         enqueueModelUpdateTask(new ShortcutsChangedTask(packageName, shortcuts, user, false));
     }
 
+    /**
+     * Recreates the icons of {@param components}, and of all the pinned deep shortcuts if
+     * {@param updateDeepShortcuts} is set.
+     */
+    public void onComponentIconsChanged(HashSet<ComponentKey> components,
+                                        boolean updateDeepShortcuts) {
+        if (components.isEmpty() && !updateDeepShortcuts) {
+            return;
+        }
+        enqueueModelUpdateTask(new ComponentIconsUpdatedTask(components, updateDeepShortcuts));
+    }
+
     /**
      * Call from the handler for ACTION_PACKAGE_ADDED, ACTION_PACKAGE_REMOVED and
      * ACTION_PACKAGE_CHANGED.
@@ -510,6 +539,11 @@ public class LauncherModel extends BroadcastReceiver
                     loaderResults.bindWidgets();
                     return true;
                 } else {
+                    if (!mFirstScreenSnapshotUsed && !mModelLoaded) {
+                        // Show the first page saved by the previous process while loading.
+                        mFirstScreenSnapshotUsed = true;
+                        loaderResults.bindSnapshot(mFirstScreenSnapshot.read());
+                    }
                     startLoaderForResults(loaderResults);
                 }
             }
@@ -534,6 +568,8 @@ public class LauncherModel extends BroadcastReceiver
         synchronized (mLock) {
             stopLoader();
             mLoaderTask = new LoaderTask(mApp, mBgAllAppsList, sBgDataModel, results);
+            // The loader must read the queued item updates from the DB.
+            mItemUpdateQueue.flush();
             runOnWorkerThread(mLoaderTask);
         }
     }
@@ -551,12 +587,7 @@ public class LauncherModel extends BroadcastReceiver
      * Loads the workspace screen ids in an ordered list.
      */
     public static ArrayList<Long> loadWorkspaceScreensDb(Context context) {
-        final ContentResolver contentResolver = context.getContentResolver();
-        final Uri screensUri = LauncherSettings.WorkspaceScreens.CONTENT_URI;
-
-        // Get screens ordered by rank.
-        return LauncherDbUtils.getScreenIdsFromCursor(contentResolver.query(
-                screensUri, null, null, null, LauncherSettings.WorkspaceScreens.SCREEN_RANK));
+        return LauncherAppState.getInstance(context).getLauncherDao().loadWorkspaceScreens();
     }
 
     public void onInstallSessionCreated(final PackageInstallInfo sessionInfo) {
@@ -640,6 +671,8 @@ public class LauncherModel extends BroadcastReceiver
 
     public void enqueueModelUpdateTask(ModelUpdateTask task) {
         task.init(mApp, this, sBgDataModel, mBgAllAppsList, mUiExecutor);
+        // The task must see the queued item updates, in the DB and in the model.
+        mItemUpdateQueue.flush();
         runOnWorkerThread(task);
     }
 
@@ -713,6 +746,9 @@ public class LauncherModel extends BroadcastReceiver
             }
         }
         sBgDataModel.dump(prefix, fd, writer, args);
+        mApp.getIconCache().dumpState(prefix, writer);
+        mApp.getWidgetCache().dumpState(prefix, writer);
+        mItemUpdateQueue.dump(prefix, writer);
     }
 
     public Callbacks getCallback() {
@@ -56,6 +56,7 @@ import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.graphics.IconShapeOverride;
 import com.android.launcher3.logging.FileLog;
 import com.android.launcher3.model.DbDowngradeHelper;
+import com.android.launcher3.provider.LauncherDao;
 import com.android.launcher3.provider.LauncherDbUtils;
 import com.android.launcher3.provider.LauncherDbUtils.SQLiteTransaction;
 import com.android.launcher3.provider.RestoreDbTask;
@@ -93,6 +94,7 @@ public class LauncherProvider extends ContentProvider {
     private Handler mListenerHandler;
 
     protected DatabaseHelper mOpenHelper;
+    private LauncherDao mDao;
 
     /**
      * $ adb shell dumpsys activity provider com.android.launcher3
@@ -157,6 +159,17 @@ public class LauncherProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Returns the direct DB access for the launcher process, creating the DB if needed.
+     */
+    public synchronized LauncherDao getDao() {
+        createDbIfNotExists();
+        if (mDao == null) {
+            mDao = new LauncherDao(mOpenHelper, this::notifyListeners);
+        }
+        return mDao;
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
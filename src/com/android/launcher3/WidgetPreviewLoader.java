@@ -1,5 +1,6 @@
 package com.android.launcher3;
 
+import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
@@ -21,9 +22,9 @@ import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.CancellationSignal;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.util.Log;
 import android.util.LongSparseArray;
@@ -41,14 +42,21 @@ import com.android.launcher3.util.SQLiteCacheHelper;
 import com.android.launcher3.util.Thunk;
 import com.android.launcher3.widget.WidgetCell;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.Nullable;
 
@@ -57,6 +65,11 @@ public class WidgetPreviewLoader {
     private static final String TAG = "WidgetPreviewLoader";
     private static final boolean DEBUG = false;
 
+    // Fraction of the per-app memory class which can be used by the in-memory previews.
+    private static final int MEMORY_CACHE_FRACTION = 16;
+    // The previews are read from a single DB connection, more threads would mostly wait on it.
+    private static final int PREVIEW_LOADER_THREADS = 2;
+
     private final HashMap<String, long[]> mPackageVersions = new HashMap<>();
 
     /**
@@ -75,10 +88,28 @@ public class WidgetPreviewLoader {
     private final AppWidgetManagerCompat mWidgetManager;
     private final CacheDb mDb;
 
-    private final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
+    @Thunk
+    final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
     @Thunk
     final Handler mWorkerHandler;
 
+    @Thunk
+    final WidgetPreviewMemoryCache mMemoryCache;
+    // Runs the PreviewLoadTasks, ordered by PreviewLoadTask#compareTo.
+    @Thunk
+    final ThreadPoolExecutor mPreviewExecutor;
+    // Only accessed on the UI thread.
+    private long mRequestSequence;
+
+    @Thunk
+    final AtomicInteger mDbHitCount = new AtomicInteger();
+    @Thunk
+    final AtomicInteger mGeneratedCount = new AtomicInteger();
+    @Thunk
+    final AtomicInteger mDroppedCount = new AtomicInteger();
+    // Summary of the last removeObsoletePreviews, only written on the worker thread.
+    private volatile String mLastSweep = "none";
+
     public WidgetPreviewLoader(Context context, IconCache iconCache) {
         mContext = context;
         mIconCache = iconCache;
@@ -86,11 +117,18 @@ public class WidgetPreviewLoader {
         mUserManager = UserManagerCompat.getInstance(context);
         mDb = new CacheDb(context);
         mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mMemoryCache = new WidgetPreviewMemoryCache(
+                (long) am.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_FRACTION);
+        mPreviewExecutor = new ThreadPoolExecutor(PREVIEW_LOADER_THREADS, PREVIEW_LOADER_THREADS,
+                1, TimeUnit.SECONDS, new PriorityBlockingQueue<>());
+        mPreviewExecutor.allowCoreThreadTimeOut(true);
     }
 
     /**
-     * Generates the widget preview on {@link AsyncTask#THREAD_POOL_EXECUTOR}. Must be
-     * called on UI thread
+     * Applies the preview right away if it is in memory, otherwise loads it on
+     * {@link #mPreviewExecutor}. Must be called on UI thread
      *
      * @return a request id which can be used to cancel the request.
      */
@@ -99,20 +137,45 @@ public class WidgetPreviewLoader {
         String size = previewWidth + "x" + previewHeight;
         WidgetCacheKey key = new WidgetCacheKey(item.componentName, item.user, size);
 
-        PreviewLoadTask task = new PreviewLoadTask(key, item, previewWidth, previewHeight, caller);
-        task.executeOnExecutor(Utilities.THREAD_POOL_EXECUTOR);
-
         CancellationSignal signal = new CancellationSignal();
+        Bitmap cached = mMemoryCache.get(key);
+        if (cached != null) {
+            caller.applyPreview(cached);
+            return signal;
+        }
+
+        PreviewLoadTask task = new PreviewLoadTask(key, item, previewWidth, previewHeight, caller,
+                mRequestSequence++);
         signal.setOnCancelListener(task);
+        mPreviewExecutor.execute(task);
         return signal;
     }
 
+    /**
+     * Releases the in-memory previews in response to {@link Launcher#onTrimMemory(int)}.
+     */
+    public void onTrimMemory(int level) {
+        mMemoryCache.onTrimMemory(level);
+    }
+
+    public void dumpState(String prefix, PrintWriter writer) {
+        mMemoryCache.dump(prefix, writer);
+        writer.println(prefix + "  dbHits=" + mDbHitCount.get()
+                + " generated=" + mGeneratedCount.get()
+                + " droppedBeforeLoad=" + mDroppedCount.get());
+        writer.println(prefix + "  lastObsoleteSweep: " + mLastSweep);
+    }
+
     /**
      * The DB holds the generated previews for various components. Previews can also have different
      * sizes (landscape vs portrait).
+     *
+     * All the previews of a package/user are generated for the same package version, which is
+     * stamped in {@link #TABLE_PACKAGE_VERSIONS}. This lets {@link #removeObsoletePreviews} check
+     * one row per package instead of every preview.
      */
     private static class CacheDb extends SQLiteCacheHelper {
-        private static final int DB_VERSION = 9;
+        private static final int DB_VERSION = 10;
 
         private static final String TABLE_NAME = "shortcut_and_widget_previews";
         private static final String COLUMN_COMPONENT = "componentName";
@@ -123,6 +186,9 @@ public class WidgetPreviewLoader {
         private static final String COLUMN_VERSION = "version";
         private static final String COLUMN_PREVIEW_BITMAP = "preview_bitmap";
 
+        private static final String TABLE_PACKAGE_VERSIONS = "package_versions";
+        private static final String INDEX_PACKAGE = "previews_package";
+
         public CacheDb(Context context) {
             super(context, LauncherFiles.WIDGET_PREVIEWS_DB, DB_VERSION, TABLE_NAME);
         }
@@ -139,20 +205,83 @@ public class WidgetPreviewLoader {
                     COLUMN_PREVIEW_BITMAP + " BLOB, " +
                     "PRIMARY KEY (" + COLUMN_COMPONENT + ", " + COLUMN_USER + ", " + COLUMN_SIZE + ") " +
                     ");");
+            database.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PACKAGE + " ON " + TABLE_NAME +
+                    " (" + COLUMN_PACKAGE + ", " + COLUMN_USER + ");");
+            database.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_PACKAGE_VERSIONS + " (" +
+                    COLUMN_PACKAGE + " TEXT NOT NULL, " +
+                    COLUMN_USER + " INTEGER NOT NULL, " +
+                    COLUMN_LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0, " +
+                    "PRIMARY KEY (" + COLUMN_PACKAGE + ", " + COLUMN_USER + ") " +
+                    ");");
+        }
+
+        @Override
+        protected void onDropExtraTables(SQLiteDatabase database) {
+            database.execSQL("DROP TABLE IF EXISTS " + TABLE_PACKAGE_VERSIONS);
+        }
+
+        /**
+         * @return the versions the previews of the package were generated for, or null if the
+         * package has no previews.
+         */
+        static long[] readVersionStamp(SQLiteDatabase db, String packageName, long userSerial) {
+            try (Cursor c = db.query(TABLE_PACKAGE_VERSIONS,
+                    new String[]{COLUMN_VERSION, COLUMN_LAST_UPDATED},
+                    COLUMN_PACKAGE + " = ? AND " + COLUMN_USER + " = ?",
+                    new String[]{packageName, Long.toString(userSerial)}, null, null, null)) {
+                return c.moveToNext() ? new long[]{c.getLong(0), c.getLong(1)} : null;
+            }
+        }
+
+        static void writeVersionStamp(SQLiteDatabase db, String packageName, long userSerial,
+                long[] versions) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_PACKAGE, packageName);
+            values.put(COLUMN_USER, userSerial);
+            values.put(COLUMN_VERSION, versions[0]);
+            values.put(COLUMN_LAST_UPDATED, versions[1]);
+            db.insertWithOnConflict(TABLE_PACKAGE_VERSIONS, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+        }
+
+        /**
+         * Removes the previews and the version stamp of the package.
+         *
+         * @return the number of previews removed
+         */
+        static int deletePackage(SQLiteDatabase db, String packageName, long userSerial) {
+            String selection = COLUMN_PACKAGE + " = ? AND " + COLUMN_USER + " = ?";
+            String[] selectionArgs = new String[]{packageName, Long.toString(userSerial)};
+            db.delete(TABLE_PACKAGE_VERSIONS, selection, selectionArgs);
+            return db.delete(TABLE_NAME, selection, selectionArgs);
         }
     }
 
     @Thunk
     void writeToDb(WidgetCacheKey key, long[] versions, Bitmap preview) {
-        ContentValues values = new ContentValues();
+        final String packageName = key.componentName.getPackageName();
+        final long userSerial = mUserManager.getSerialNumberForUser(key.user);
+        final ContentValues values = new ContentValues();
         values.put(CacheDb.COLUMN_COMPONENT, key.componentName.flattenToShortString());
-        values.put(CacheDb.COLUMN_USER, mUserManager.getSerialNumberForUser(key.user));
+        values.put(CacheDb.COLUMN_USER, userSerial);
         values.put(CacheDb.COLUMN_SIZE, key.size);
-        values.put(CacheDb.COLUMN_PACKAGE, key.componentName.getPackageName());
+        values.put(CacheDb.COLUMN_PACKAGE, packageName);
         values.put(CacheDb.COLUMN_VERSION, versions[0]);
         values.put(CacheDb.COLUMN_LAST_UPDATED, versions[1]);
         values.put(CacheDb.COLUMN_PREVIEW_BITMAP, Utilities.flattenBitmap(preview));
-        mDb.insertOrReplace(values);
+        mDb.runInTransaction(db -> {
+            long[] stamp = CacheDb.readVersionStamp(db, packageName, userSerial);
+            if (!Arrays.equals(stamp, versions)) {
+                if (stamp != null) {
+                    // Keep all the previews of the package at the stamped version.
+                    CacheDb.deletePackage(db, packageName, userSerial);
+                }
+                CacheDb.writeVersionStamp(db, packageName, userSerial, versions);
+            }
+            db.insertWithOnConflict(CacheDb.TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+        });
     }
 
     public void removePackage(String packageName, UserHandle user) {
@@ -163,10 +292,9 @@ public class WidgetPreviewLoader {
         synchronized (mPackageVersions) {
             mPackageVersions.remove(packageName);
         }
+        mMemoryCache.removePackage(packageName, user);
 
-        mDb.delete(
-                CacheDb.COLUMN_PACKAGE + " = ? AND " + CacheDb.COLUMN_USER + " = ?",
-                new String[]{packageName, Long.toString(userSerial)});
+        mDb.runInTransaction(db -> CacheDb.deletePackage(db, packageName, userSerial));
     }
 
     /**
@@ -174,6 +302,7 @@ public class WidgetPreviewLoader {
      *   1. Any preview generated for an old package version is removed
      *   2. Any preview for an absent package is removed
      * This ensures that we remove entries for packages which changed while the launcher was dead.
+     * Only the version stamps are visited, and the deletions are done in a single transaction.
      *
      * @param packageUser if provided, specifies that list only contains previews for the
      *                    given package/user, otherwise the list contains all previews
@@ -194,59 +323,89 @@ public class WidgetPreviewLoader {
             packages.add(key.componentName.getPackageName());
         }
 
-        LongSparseArray<HashSet<String>> packagesToDelete = new LongSparseArray<>();
         long passedUserId = packageUser == null ? 0
                 : mUserManager.getSerialNumberForUser(packageUser.mUser);
-        Cursor c = null;
-        try {
-            c = mDb.query(
+        // Query the package versions before opening the transaction, so that the preview
+        // loaders do not wait on binder calls.
+        if (packageUser == null) {
+            prefetchPackageVersions();
+        } else {
+            getPackageVersion(packageUser.mPackageName);
+        }
+
+        long startTime = SystemClock.uptimeMillis();
+        LongSparseArray<HashSet<String>> packagesToDelete = new LongSparseArray<>();
+        int[] stampCount = new int[1];
+        int[] deletedRows = new int[1];
+        boolean committed = mDb.runInTransaction(db -> {
+            String selection = null;
+            String[] selectionArgs = null;
+            if (packageUser != null) {
+                selection = CacheDb.COLUMN_PACKAGE + " = ? AND " + CacheDb.COLUMN_USER + " = ?";
+                selectionArgs = new String[]{packageUser.mPackageName,
+                        Long.toString(passedUserId)};
+            }
+            try (Cursor c = db.query(CacheDb.TABLE_PACKAGE_VERSIONS,
                     new String[]{CacheDb.COLUMN_USER, CacheDb.COLUMN_PACKAGE,
                             CacheDb.COLUMN_LAST_UPDATED, CacheDb.COLUMN_VERSION},
-                    null, null);
-            while (c.moveToNext()) {
-                long userId = c.getLong(0);
-                String pkg = c.getString(1);
-                long lastUpdated = c.getLong(2);
-                long version = c.getLong(3);
-
-                if (packageUser != null && (!pkg.equals(packageUser.mPackageName)
-                        || userId != passedUserId)) {
-                    // This preview is associated with a different package/user, no need to remove.
-                    continue;
-                }
-
-                HashSet<String> packages = validPackages.get(userId);
-                if (packages != null && packages.contains(pkg)) {
-                    long[] versions = getPackageVersion(pkg);
-                    if (versions[0] == version && versions[1] == lastUpdated) {
-                        // Every thing checks out
-                        continue;
+                    selection, selectionArgs, null, null, null)) {
+                while (c.moveToNext()) {
+                    stampCount[0]++;
+                    long userId = c.getLong(0);
+                    String pkg = c.getString(1);
+                    long lastUpdated = c.getLong(2);
+                    long version = c.getLong(3);
+
+                    HashSet<String> packages = validPackages.get(userId);
+                    if (packages != null && packages.contains(pkg)) {
+                        long[] versions = getPackageVersion(pkg);
+                        if (versions[0] == version && versions[1] == lastUpdated) {
+                            // Every thing checks out
+                            continue;
+                        }
                     }
-                }
 
-                // We need to delete this package.
-                packages = packagesToDelete.get(userId);
-                if (packages == null) {
-                    packages = new HashSet<>();
-                    packagesToDelete.put(userId, packages);
+                    // We need to delete this package.
+                    packages = packagesToDelete.get(userId);
+                    if (packages == null) {
+                        packages = new HashSet<>();
+                        packagesToDelete.put(userId, packages);
+                    }
+                    packages.add(pkg);
                 }
-                packages.add(pkg);
             }
 
             for (int i = 0; i < packagesToDelete.size(); i++) {
                 long userId = packagesToDelete.keyAt(i);
-                UserHandle user = mUserManager.getUserForSerialNumber(userId);
                 for (String pkg : packagesToDelete.valueAt(i)) {
-                    removePackage(pkg, user, userId);
+                    deletedRows[0] += CacheDb.deletePackage(db, pkg, userId);
                 }
             }
-        } catch (SQLException e) {
-            Log.e(TAG, "Error updating widget previews", e);
-        } finally {
-            if (c != null) {
-                c.close();
+        });
+        if (!committed) {
+            Log.e(TAG, "Error updating widget previews");
+            return;
+        }
+
+        int deletedPackages = 0;
+        for (int i = 0; i < packagesToDelete.size(); i++) {
+            UserHandle user = mUserManager.getUserForSerialNumber(packagesToDelete.keyAt(i));
+            for (String pkg : packagesToDelete.valueAt(i)) {
+                synchronized (mPackageVersions) {
+                    mPackageVersions.remove(pkg);
+                }
+                if (user != null) {
+                    mMemoryCache.removePackage(pkg, user);
+                }
+                deletedPackages++;
             }
         }
+        mLastSweep = String.format("%dms, %d packages checked, %d removed, %d previews deleted",
+                SystemClock.uptimeMillis() - startTime, stampCount[0], deletedPackages,
+                deletedRows[0]);
+        if (DEBUG) {
+            Log.d(TAG, "removeObsoletePreviews: " + mLastSweep);
+        }
     }
 
     /**
@@ -507,6 +666,28 @@ public class WidgetPreviewLoader {
         }
     }
 
+    /**
+     * Fills {@link #mPackageVersions} for all the installed packages with a single query.
+     */
+    private void prefetchPackageVersions() {
+        List<PackageInfo> infos;
+        try {
+            infos = mContext.getPackageManager().getInstalledPackages(
+                    PackageManager.GET_UNINSTALLED_PACKAGES);
+        } catch (RuntimeException e) {
+            // The list did not fit in a single binder transaction, fall back to
+            // getPackageVersion for each package.
+            Log.w(TAG, "Unable to list the installed packages", e);
+            return;
+        }
+        synchronized (mPackageVersions) {
+            for (PackageInfo info : infos) {
+                mPackageVersions.put(info.packageName,
+                        new long[]{info.versionCode, info.lastUpdateTime});
+            }
+        }
+    }
+
     /**
      * @return an array of containing versionCode and lastUpdatedTime for the package.
      */
@@ -530,8 +711,12 @@ public class WidgetPreviewLoader {
         }
     }
 
-    public class PreviewLoadTask extends AsyncTask<Void, Void, Bitmap>
-            implements CancellationSignal.OnCancelListener {
+    /**
+     * Loads a preview from the DB, or generates it, on {@link #mPreviewExecutor}. The most recent
+     * requests run first.
+     */
+    public class PreviewLoadTask implements Runnable, Comparable<PreviewLoadTask>,
+            CancellationSignal.OnCancelListener {
         @Thunk
         final WidgetCacheKey mKey;
         private final WidgetItem mInfo;
@@ -539,33 +724,52 @@ public class WidgetPreviewLoader {
         private final int mPreviewWidth;
         private final WidgetCell mCaller;
         private final BaseActivity mActivity;
-        @Thunk
-        long[] mVersions;
-        @Thunk
-        Bitmap mBitmapToRecycle;
+        private final long mSequence;
+        private volatile boolean mCancelled;
 
         PreviewLoadTask(WidgetCacheKey key, WidgetItem info, int previewWidth,
-                        int previewHeight, WidgetCell caller) {
+                        int previewHeight, WidgetCell caller, long sequence) {
             mKey = key;
             mInfo = info;
             mPreviewHeight = previewHeight;
             mPreviewWidth = previewWidth;
             mCaller = caller;
             mActivity = BaseActivity.fromContext(mCaller.getContext());
+            mSequence = sequence;
             if (DEBUG) {
                 Log.d(TAG, String.format("%s, %s, %d, %d",
                         mKey, mInfo, mPreviewHeight, mPreviewWidth));
             }
         }
 
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
         @Override
-        protected Bitmap doInBackground(Void... params) {
-            Bitmap unusedBitmap = null;
+        public int compareTo(PreviewLoadTask other) {
+            // Newer requests are for the cells which just became visible.
+            return Long.compare(other.mSequence, mSequence);
+        }
 
-            // If already cancelled before this gets to run in the background, then return early
+        @Override
+        public void run() {
+            // The request may have been cancelled while it was queued.
             if (isCancelled()) {
-                return null;
+                return;
+            }
+            // Taken before loading, so that a preview of a package removed or updated meanwhile
+            // isn't cached.
+            final int generation = mMemoryCache.getGeneration(mKey);
+            // Another request for the same preview may have loaded it meanwhile. Its miss was
+            // already counted by getPreview.
+            Bitmap cached = mMemoryCache.peek(mKey);
+            if (cached != null) {
+                mMainThreadExecutor.execute(() -> onPreviewLoaded(cached));
+                return;
             }
+
+            Bitmap unusedBitmap = null;
             synchronized (mUnusedBitmaps) {
                 // Check if we can re-use a bitmap
                 for (Bitmap candidate : mUnusedBitmaps) {
@@ -585,91 +789,60 @@ public class WidgetPreviewLoader {
             }
             // If cancelled now, don't bother reading the preview from the DB
             if (isCancelled()) {
-                return unusedBitmap;
+                recycleUnused(unusedBitmap);
+                return;
             }
             Bitmap preview = readFromDb(mKey, unusedBitmap, this);
-            // Only consider generating the preview if we have not cancelled the task already
-            if (!isCancelled() && preview == null) {
+            long[] versions = null;
+            if (preview != null) {
+                mDbHitCount.incrementAndGet();
+            } else if (!isCancelled()) {
                 // Fetch the version info before we generate the preview, so that, in-case the
                 // app was updated while we are generating the preview, we use the old version info,
                 // which would gets re-written next time.
                 boolean persistable = mInfo.activityInfo == null
                         || mInfo.activityInfo.isPersistable();
-                mVersions = persistable ? getPackageVersion(mKey.componentName.getPackageName())
+                versions = persistable ? getPackageVersion(mKey.componentName.getPackageName())
                         : null;
 
                 // it's not in the db... we need to generate it
                 preview = generatePreview(mActivity, mInfo, unusedBitmap, mPreviewWidth, mPreviewHeight);
+                mGeneratedCount.incrementAndGet();
+            }
+            if (preview == null) {
+                recycleUnused(unusedBitmap);
+                return;
+            }
+
+            // From now on the preview is shared through the memory cache, and is never recycled.
+            boolean added = mMemoryCache.putIfValid(mKey, preview, generation);
+            if (versions != null && added) {
+                final long[] previewVersions = versions;
+                final Bitmap generated = preview;
+                mWorkerHandler.post(() -> writeToDb(mKey, previewVersions, generated));
             }
-            return preview;
+            final Bitmap result = preview;
+            mMainThreadExecutor.execute(() -> onPreviewLoaded(result));
         }
 
-        @Override
-        protected void onPostExecute(final Bitmap preview) {
-            mCaller.applyPreview(preview);
-
-            // Write the generated preview to the DB in the worker thread
-            if (mVersions != null) {
-                mWorkerHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (!isCancelled()) {
-                            // If we are still using this preview, then write it to the DB and then
-                            // let the normal clear mechanism recycle the bitmap
-                            writeToDb(mKey, mVersions, preview);
-                            mBitmapToRecycle = preview;
-                        } else {
-                            // If we've already cancelled, then skip writing the bitmap to the DB
-                            // and manually add the bitmap back to the recycled set
-                            synchronized (mUnusedBitmaps) {
-                                mUnusedBitmaps.add(preview);
-                            }
-                        }
-                    }
-                });
-            } else {
-                // If we don't need to write to disk, then ensure the preview gets recycled by
-                // the normal clear mechanism
-                mBitmapToRecycle = preview;
+        private void onPreviewLoaded(Bitmap preview) {
+            if (!isCancelled()) {
+                mCaller.applyPreview(preview);
             }
         }
 
-        @Override
-        protected void onCancelled(final Bitmap preview) {
-            // If we've cancelled while the task is running, then can return the bitmap to the
-            // recycled set immediately. Otherwise, it will be recycled after the preview is written
-            // to disk.
-            if (preview != null) {
-                mWorkerHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(preview);
-                        }
-                    }
-                });
+        private void recycleUnused(Bitmap bitmap) {
+            synchronized (mUnusedBitmaps) {
+                mUnusedBitmaps.add(bitmap);
             }
         }
 
         @Override
         public void onCancel() {
-            cancel(true);
-
-            // This only handles the case where the PreviewLoadTask is cancelled after the task has
-            // successfully completed (including having written to disk when necessary).  In the
-            // other cases where it is cancelled while the task is running, it will be cleaned up
-            // in the tasks's onCancelled() call, and if cancelled while the task is writing to
-            // disk, it will be cancelled in the task's onPostExecute() call.
-            if (mBitmapToRecycle != null) {
-                mWorkerHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(mBitmapToRecycle);
-                        }
-                        mBitmapToRecycle = null;
-                    }
-                });
+            mCancelled = true;
+            // Drop the request right away if it didn't start, so that it never reaches the DB.
+            if (mPreviewExecutor.remove(this)) {
+                mDroppedCount.incrementAndGet();
             }
         }
     }
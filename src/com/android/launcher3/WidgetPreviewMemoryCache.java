@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.os.UserHandle;
+
+import com.android.launcher3.util.ComponentKey;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory tier of the {@link WidgetPreviewLoader}, bounded by the number of bytes used by the
+ * preview bitmaps. Entries are kept in access order and the least recently used ones are evicted
+ * first.
+ *
+ * A cached preview can be shown by several cells at once, so it is never reused to decode another
+ * preview. Evicted previews are left to the garbage collector.
+ *
+ * This class is thread safe.
+ */
+class WidgetPreviewMemoryCache {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private final LinkedHashMap<ComponentKey, Bitmap> mEntries =
+            new LinkedHashMap<>(INITIAL_CAPACITY, 0.75f, true /* accessOrder */);
+    private final long mMaxBytes;
+
+    private long mSizeBytes;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    // Number of package stripes tracked by the generations below.
+    private static final int GENERATION_STRIPES = 32;
+
+    // Incremented every time the previews of a package stripe are removed, so that loads which
+    // started before the removal do not add stale previews back.
+    private final int[] mGenerations = new int[GENERATION_STRIPES];
+
+    WidgetPreviewMemoryCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the preview for the key and marks it as recently used, or null if absent.
+     */
+    public synchronized Bitmap get(ComponentKey key) {
+        Bitmap preview = mEntries.get(key);
+        if (preview == null || preview.isRecycled()) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return preview;
+    }
+
+    /**
+     * Same as {@link #get} but without affecting the hit and miss counters.
+     */
+    public synchronized Bitmap peek(ComponentKey key) {
+        Bitmap preview = mEntries.get(key);
+        return preview == null || preview.isRecycled() ? null : preview;
+    }
+
+    /**
+     * Returns a token to pass to {@link #putIfValid} once the preview for the key has been
+     * loaded.
+     */
+    public synchronized int getGeneration(ComponentKey key) {
+        return mGenerations[getGenerationStripe(key.componentName.getPackageName())];
+    }
+
+    /**
+     * Adds the preview only if the package of the key was not removed since {@param generation}
+     * was obtained.
+     *
+     * @return true if the preview was added
+     */
+    public synchronized boolean putIfValid(ComponentKey key, Bitmap preview, int generation) {
+        if (generation != getGeneration(key)) {
+            return false;
+        }
+        put(key, preview);
+        return true;
+    }
+
+    private static int getGenerationStripe(String packageName) {
+        return (packageName.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    /**
+     * Adds or replaces the preview for the key. Previews larger than the whole budget are not
+     * kept.
+     */
+    public synchronized void put(ComponentKey key, Bitmap preview) {
+        if (sizeOf(preview) > mMaxBytes) {
+            return;
+        }
+        Bitmap previous = mEntries.put(key, preview);
+        if (previous != null) {
+            mSizeBytes -= sizeOf(previous);
+        }
+        mSizeBytes += sizeOf(preview);
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Removes all the previews for the provided package and user.
+     */
+    public synchronized void removePackage(String packageName, UserHandle user) {
+        mGenerations[getGenerationStripe(packageName)]++;
+        Iterator<Map.Entry<ComponentKey, Bitmap>> itr = mEntries.entrySet().iterator();
+        while (itr.hasNext()) {
+            Map.Entry<ComponentKey, Bitmap> e = itr.next();
+            ComponentKey key = e.getKey();
+            if (key.componentName.getPackageName().equals(packageName)
+                    && key.user.equals(user)) {
+                mSizeBytes -= sizeOf(e.getValue());
+                itr.remove();
+            }
+        }
+    }
+
+    /**
+     * Releases memory in response to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // The previews are only shown in the widget tray, which is gone.
+            trimToSize(0);
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(mMaxBytes / 2);
+        }
+    }
+
+    private void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<ComponentKey, Bitmap>> itr = mEntries.entrySet().iterator();
+        while (mSizeBytes > maxBytes && itr.hasNext()) {
+            mSizeBytes -= sizeOf(itr.next().getValue());
+            itr.remove();
+            mEvictionCount++;
+        }
+    }
+
+    private static long sizeOf(Bitmap preview) {
+        return preview.isRecycled() ? 0 : preview.getAllocationByteCount();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        int requests = mHitCount + mMissCount;
+        writer.println(prefix + "WidgetPreviewMemoryCache: entries=" + mEntries.size()
+                + " bytes=" + mSizeBytes + "/" + mMaxBytes);
+        writer.println(prefix + "  hits=" + mHitCount
+                + " misses=" + mMissCount
+                + " hitRate=" + (requests == 0 ? 0 : mHitCount * 100 / requests) + "%"
+                + " evictions=" + mEvictionCount);
+    }
+}
@@ -52,6 +52,8 @@ import com.android.launcher3.views.BottomUserEducationView;
 import com.android.launcher3.views.RecyclerViewFastScroller;
 import com.android.launcher3.views.SpringRelativeLayout;
 
+import java.util.List;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
@@ -440,6 +442,16 @@ public class AllAppsContainerView extends SpringRelativeLayout implements DragSo
         return mAH[AdapterHolder.MAIN].appsList;
     }
 
+    /**
+     * Adds or updates {@param apps} in the store, after their package was installed or updated.
+     */
+    public void addOrUpdateApps(List<AppInfo> apps) {
+        for (AdapterHolder holder : mAH) {
+            holder.appsList.onPackagesUpdated(apps);
+        }
+        mAllAppsStore.addOrUpdateApps(apps);
+    }
+
     public FloatingHeaderView getFloatingHeaderView() {
         return mHeader;
     }
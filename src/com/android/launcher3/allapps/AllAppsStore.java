@@ -26,7 +26,7 @@ import com.android.launcher3.PromiseAppInfo;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.PackageUserKey;
 
-import org.zimmob.zimlx.util.DbHelper;
+import org.zimmob.zimlx.util.AppCountStore;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -88,12 +88,11 @@ public class AllAppsStore {
      * Removes some apps from the list.
      */
     public void removeApps(List<AppInfo> apps) {
-        DbHelper db = new DbHelper(Launcher.mContext);
+        AppCountStore appCounts = AppCountStore.getInstance(Launcher.mContext);
         for (AppInfo app : apps) {
             mComponentToAppMap.remove(app.toComponentKey());
-            db.deleteApp(app.componentName.getPackageName());
+            appCounts.removePackage(app.componentName.getPackageName());
         }
-        db.close();
         notifyUpdate();
     }
 
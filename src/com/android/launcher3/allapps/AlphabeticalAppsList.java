@@ -31,10 +31,7 @@ import com.android.launcher3.util.ItemInfoMatcher;
 import com.android.launcher3.util.LabelComparator;
 
 import org.zimmob.zimlx.ZimPreferences;
-import org.zimmob.zimlx.util.InstallTimeComparator;
-import org.zimmob.zimlx.util.MostUsedComparator;
 
-import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -44,9 +41,6 @@ import java.util.Map;
 import java.util.TreeMap;
 
 import static org.zimmob.zimlx.util.Config.SORT_AZ;
-import static org.zimmob.zimlx.util.Config.SORT_LAST_INSTALLED;
-import static org.zimmob.zimlx.util.Config.SORT_MOST_USED;
-import static org.zimmob.zimlx.util.Config.SORT_ZA;
 
 /**
  * The alphabetically sorted list of applications.
@@ -84,7 +78,7 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
     private HashMap<CharSequence, String> mCachedSectionNames = new HashMap<>();
     private AllAppsGridAdapter mAdapter;
     private AlphabeticIndexCompat mIndexer;
-    private AppInfoComparator mAppNameComparator;
+    private final AppSortKeys mSortKeys;
     private final int mNumAppsPerRow;
     private int mNumAppRowsInAdapter;
     private ItemInfoMatcher mItemFilter;
@@ -93,7 +87,7 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
         mAllAppsStore = appsStore;
         mLauncher = Launcher.getLauncher(context);
         mIndexer = new AlphabeticIndexCompat(context);
-        mAppNameComparator = new AppInfoComparator(context);
+        mSortKeys = new AppSortKeys(context);
         mIsWork = isWork;
         mNumAppsPerRow = mLauncher.getDeviceProfile().inv.numColumns;
         mAllAppsStore.addUpdateListener(this);
@@ -150,38 +144,19 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
         }
     }
 
-    public void sortApps(int sortType) {
-        switch (sortType) {
-            //SORT BY NAME AZ
-            case SORT_AZ:
-                Collections.sort(mApps, mAppNameComparator);
-                break;
-
-            //SORT BY NAME ZA
-            case SORT_ZA:
-                Collections.sort(mApps, (p2, p1) -> Collator
-                        .getInstance()
-                        .compare(p1.title, p2.title));
-                break;
-
-            //SORT BY LAST INSTALLED
-            case SORT_LAST_INSTALLED:
-                PackageManager pm = mLauncher.getApplicationContext().getPackageManager();
-                InstallTimeComparator installTimeComparator = new InstallTimeComparator(pm);
-                //Collections.sort(mApps, installTimeComparator);
-                break;
-
-            //SORT BY MOST USED DESC
-            case SORT_MOST_USED:
-                MostUsedComparator mostUsedComparator = new MostUsedComparator(mLauncher.getApplicationContext());
-                Collections.sort(mApps, mostUsedComparator);
-                //Utilities.getZimPrefs(mLauncher).reloadApps();
-                break;
-            default:
-                Collections.sort(mApps, mAppNameComparator);
-                break;
+    /**
+     * Called before {@param apps} are updated in the {@link AllAppsStore}, when their package
+     * was updated.
+     */
+    public void onPackagesUpdated(List<AppInfo> apps) {
+        mSortKeys.invalidateInstallTimes(apps);
+    }
 
-        }
+    /**
+     * Sorts the apps in the order of {@param sortType}, see {@link AppSortKeys}.
+     */
+    public void sortApps(int sortType) {
+        mSortKeys.sort(mApps, sortType);
     }
 
     /**
@@ -284,7 +259,7 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
         if (!pref.getShowPredictions()) {
             sortApps(pref.getSortMode());
         } else {
-            Collections.sort(mApps, mAppNameComparator);
+            mSortKeys.sort(mApps, SORT_AZ);
         }
 
 
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Process;
+import android.os.UserHandle;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.compat.UserManagerCompat;
+
+import org.zimmob.zimlx.util.AppCountStore;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.zimmob.zimlx.util.Config.SORT_AZ;
+import static org.zimmob.zimlx.util.Config.SORT_LAST_INSTALLED;
+import static org.zimmob.zimlx.util.Config.SORT_MOST_USED;
+import static org.zimmob.zimlx.util.Config.SORT_ZA;
+
+/**
+ * Sorts the apps of {@link AlphabeticalAppsList} in the sort modes of the drawer.
+ *
+ * The values compared by each mode (collation keys, install times, launch counts) are computed
+ * once per app before sorting, instead of in every comparison. The collation keys are kept until
+ * the app or its title changes, and the install times until the package is updated, so that
+ * sorting again after an update only computes the keys of the changed apps.
+ *
+ * The alphabetical order is the same as {@link AppInfoComparator}, and is used to break the ties
+ * of the other modes.
+ *
+ * This class is not thread safe, it is only used on the UI thread.
+ */
+class AppSortKeys {
+
+    private static final long UNKNOWN_INSTALL_TIME = -1;
+
+    private final Context mContext;
+    private final PackageManager mPackageManager;
+    private final UserManagerCompat mUserManager;
+    private final UserHandle mMyUser = Process.myUserHandle();
+
+    private final IdentityHashMap<AppInfo, SortEntry> mEntries = new IdentityHashMap<>();
+    private Locale mLocale;
+    private Collator mCollator;
+
+    private static class SortEntry {
+        final AppInfo app;
+        final String title;
+        final boolean startsWithLetter;
+        final CollationKey titleKey;
+        final long userSerial;
+        long installTime = UNKNOWN_INSTALL_TIME;
+
+        // Per sort values.
+        int alphabeticalRank;
+        long primaryKey;
+
+        SortEntry(AppInfo app, String title, CollationKey titleKey, long userSerial) {
+            this.app = app;
+            this.title = title;
+            this.startsWithLetter = title.length() > 0
+                    && Character.isLetterOrDigit(title.codePointAt(0));
+            this.titleKey = titleKey;
+            this.userSerial = userSerial;
+        }
+    }
+
+    /**
+     * Same order as {@link AppInfoComparator}.
+     */
+    private final Comparator<SortEntry> mAlphabeticalComparator = (a, b) -> {
+        // De-prioritize the titles which don't start with a letter or a digit, see
+        // LabelComparator.
+        if (a.startsWithLetter != b.startsWithLetter) {
+            return a.startsWithLetter ? -1 : 1;
+        }
+        int result = a.titleKey.compareTo(b.titleKey);
+        if (result != 0) {
+            return result;
+        }
+        result = a.app.componentName.compareTo(b.app.componentName);
+        if (result != 0) {
+            return result;
+        }
+        return Long.compare(a.userSerial, b.userSerial);
+    };
+
+    // Decreasing primary key, then alphabetical.
+    private static final Comparator<SortEntry> PRIMARY_KEY_COMPARATOR = (a, b) -> {
+        int result = Long.compare(b.primaryKey, a.primaryKey);
+        return result != 0 ? result : Integer.compare(a.alphabeticalRank, b.alphabeticalRank);
+    };
+
+    AppSortKeys(Context context) {
+        mContext = context.getApplicationContext();
+        mPackageManager = mContext.getPackageManager();
+        mUserManager = UserManagerCompat.getInstance(mContext);
+    }
+
+    /**
+     * Sorts {@param apps} in place, in the order of {@param sortType}.
+     */
+    void sort(List<AppInfo> apps, int sortType) {
+        Map<String, Integer> launchCounts = sortType == SORT_MOST_USED
+                ? AppCountStore.getInstance(mContext).getCounts() : null;
+        sort(apps, sortType, launchCounts);
+    }
+
+    void sort(List<AppInfo> apps, int sortType, Map<String, Integer> launchCounts) {
+        SortEntry[] entries = decorate(apps);
+        Arrays.sort(entries, mAlphabeticalComparator);
+
+        switch (sortType) {
+            case SORT_ZA:
+                // The titles which don't start with a letter or a digit stay last.
+                int letterCount = 0;
+                while (letterCount < entries.length && entries[letterCount].startsWithLetter) {
+                    letterCount++;
+                }
+                Collections.reverse(Arrays.asList(entries).subList(0, letterCount));
+                break;
+            case SORT_LAST_INSTALLED:
+            case SORT_MOST_USED:
+                HashMap<String, Long> installTimes = new HashMap<>();
+                for (int i = 0; i < entries.length; i++) {
+                    SortEntry entry = entries[i];
+                    entry.alphabeticalRank = i;
+                    entry.primaryKey = sortType == SORT_LAST_INSTALLED
+                            ? getInstallTime(entry, installTimes)
+                            : getLaunchCount(entry, launchCounts);
+                }
+                Arrays.sort(entries, PRIMARY_KEY_COMPARATOR);
+                break;
+            case SORT_AZ:
+            default:
+                break;
+        }
+
+        for (int i = 0; i < entries.length; i++) {
+            apps.set(i, entries[i].app);
+        }
+    }
+
+    /**
+     * Forgets the install times of the packages of {@param apps}, which were updated.
+     */
+    void invalidateInstallTimes(Collection<AppInfo> apps) {
+        HashSet<String> packages = new HashSet<>();
+        for (AppInfo app : apps) {
+            packages.add(app.componentName.getPackageName());
+        }
+        for (SortEntry entry : mEntries.values()) {
+            if (packages.contains(entry.app.componentName.getPackageName())) {
+                entry.installTime = UNKNOWN_INSTALL_TIME;
+            }
+        }
+    }
+
+    /**
+     * Returns the sort entries of {@param apps}, reusing the cached ones which are still valid.
+     */
+    private SortEntry[] decorate(List<AppInfo> apps) {
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(mLocale)) {
+            mLocale = locale;
+            mCollator = Collator.getInstance(locale);
+            mEntries.clear();
+        }
+
+        SortEntry[] entries = new SortEntry[apps.size()];
+        for (int i = 0; i < entries.length; i++) {
+            AppInfo app = apps.get(i);
+            String title = app.title == null ? "" : app.title.toString();
+            SortEntry entry = mEntries.get(app);
+            if (entry == null || !entry.title.equals(title)) {
+                long userSerial = mMyUser.equals(app.user)
+                        ? Long.MIN_VALUE : mUserManager.getSerialNumberForUser(app.user);
+                entry = new SortEntry(app, title, mCollator.getCollationKey(title), userSerial);
+                mEntries.put(app, entry);
+            }
+            entries[i] = entry;
+        }
+
+        if (mEntries.size() > entries.length) {
+            // Drop the entries of the removed apps.
+            mEntries.clear();
+            for (SortEntry entry : entries) {
+                mEntries.put(entry.app, entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the first install time of the package of {@param entry}, reading it once per
+     * package for apps with several activities.
+     */
+    private long getInstallTime(SortEntry entry, HashMap<String, Long> installTimes) {
+        if (entry.installTime == UNKNOWN_INSTALL_TIME) {
+            String packageName = entry.app.componentName.getPackageName();
+            Long installTime = installTimes.get(packageName);
+            if (installTime == null) {
+                try {
+                    installTime = mPackageManager.getPackageInfo(packageName, 0).firstInstallTime;
+                } catch (PackageManager.NameNotFoundException e) {
+                    // Not installed for the current user, eg. a work profile app.
+                    installTime = 0L;
+                }
+                installTimes.put(packageName, installTime);
+            }
+            entry.installTime = installTime;
+        }
+        return entry.installTime;
+    }
+
+    private static int getLaunchCount(SortEntry entry, Map<String, Integer> launchCounts) {
+        Integer count = launchCounts.get(entry.app.componentName.getPackageName());
+        return count == null ? 0 : count;
+    }
+}
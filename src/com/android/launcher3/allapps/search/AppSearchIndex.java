@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import android.os.CancellationSignal;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.allapps.search.DefaultAppSearchAlgorithm.StringMatcher;
+
+import java.text.CollationKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Sorted table of the collation keys of every word-break prefix of the app titles, used by
+ * {@link DefaultAppSearchAlgorithm} to find the apps matching a query with a binary search
+ * instead of comparing the query against every title.
+ *
+ * The table only selects candidates, which are then confirmed with {@link StringMatcher} so
+ * that the results are the same as {@link DefaultAppSearchAlgorithm#matches}. In locales with
+ * contractions, the prefixes are not grouped together in the table and all the apps are checked
+ * instead.
+ *
+ * This class is not thread safe, it is only used on the thread of {@link AppSearchWorker}.
+ */
+class AppSearchIndex {
+
+    private static final char MAX_UNICODE = '\uFFFF';
+
+    // Only the start of each word is indexed, longer queries are matched on this prefix and
+    // confirmed against the full title.
+    private static final int MAX_KEY_LENGTH = 16;
+
+    // Number of candidates checked between two checks of the cancellation signal.
+    private static final int CANCELLATION_CHECK_INTERVAL = 64;
+
+    private final StringMatcher mMatcher;
+    // Whether the table can't be used for the locale, created on the first search.
+    private Boolean mLinearScan;
+
+    private final IdentityHashMap<AppInfo, IndexedApp> mApps = new IdentityHashMap<>();
+    private Entry[] mEntries = new Entry[0];
+    private boolean mEntriesDirty;
+
+    // Incremented every time the indexed apps change.
+    private int mGeneration;
+
+    AppSearchIndex() {
+        this(StringMatcher.getInstance());
+    }
+
+    AppSearchIndex(StringMatcher matcher) {
+        mMatcher = matcher;
+    }
+
+    /**
+     * An indexed app and the positions of its word breaks.
+     */
+    static class IndexedApp {
+        final AppInfo info;
+        final String title;
+        final int[] breaks;
+        // Keys of the word-break prefixes, created when the app is first added to the table.
+        Entry[] entries;
+
+        IndexedApp(AppInfo info, String title) {
+            this.info = info;
+            this.title = title;
+            this.breaks = DefaultAppSearchAlgorithm.findWordBreaks(title);
+        }
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        final CollationKey key;
+        final IndexedApp app;
+
+        Entry(CollationKey key, IndexedApp app) {
+            this.key = key;
+            this.app = app;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return key.compareTo(other.key);
+        }
+    }
+
+    /**
+     * Brings the index in sync with {@param apps}, only re-indexing the apps which were added or
+     * whose title changed since the last update.
+     */
+    public void update(Collection<AppInfo> apps) {
+        boolean changed = false;
+        Set<AppInfo> current = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (AppInfo info : apps) {
+            current.add(info);
+            String title = info.title == null ? "" : info.title.toString();
+            IndexedApp indexed = mApps.get(info);
+            if (indexed == null || !indexed.title.equals(title)) {
+                mApps.put(info, new IndexedApp(info, title));
+                changed = true;
+            }
+        }
+        Iterator<AppInfo> itr = mApps.keySet().iterator();
+        while (itr.hasNext()) {
+            if (!current.contains(itr.next())) {
+                itr.remove();
+                changed = true;
+            }
+        }
+        if (changed) {
+            mEntriesDirty = true;
+            mGeneration++;
+        }
+    }
+
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    public IndexedApp get(AppInfo info) {
+        return mApps.get(info);
+    }
+
+    /**
+     * Returns true if a word of {@param app} starts with {@param query}.
+     */
+    public boolean matches(IndexedApp app, String query) {
+        int queryLength = query.length();
+        int titleLength = app.title.length();
+        for (int start : app.breaks) {
+            if (start + queryLength > titleLength) {
+                break;
+            }
+            if (mMatcher.matches(query, app.title.substring(start, start + queryLength))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the apps having a word which starts with {@param query}.
+     */
+    public Set<IndexedApp> search(String query) {
+        return search(query, null);
+    }
+
+    /**
+     * Returns the apps having a word which starts with {@param query}, or null if
+     * {@param signal} is cancelled before the search completes.
+     */
+    public Set<IndexedApp> search(String query, CancellationSignal signal) {
+        Set<IndexedApp> result = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (query.isEmpty()) {
+            return result;
+        }
+        if (mLinearScan == null) {
+            mLinearScan = mMatcher.hasContractions();
+        }
+        if (mLinearScan) {
+            int i = 0;
+            for (IndexedApp app : mApps.values()) {
+                if (signal != null && i++ % CANCELLATION_CHECK_INTERVAL == 0
+                        && signal.isCanceled()) {
+                    return null;
+                }
+                if (matches(app, query)) {
+                    result.add(app);
+                }
+            }
+            return result;
+        }
+        ensureEntriesSorted();
+
+        // All the keys having the query as a prefix sort between the query and the query
+        // followed by the largest character.
+        String prefix = query.length() > MAX_KEY_LENGTH
+                ? query.substring(0, MAX_KEY_LENGTH) : query;
+        CollationKey lower = mMatcher.getCollationKey(prefix);
+        CollationKey upper = mMatcher.getCollationKey(prefix + MAX_UNICODE);
+
+        for (int i = lowerBound(lower); i < mEntries.length; i++) {
+            Entry entry = mEntries[i];
+            if (entry.key.compareTo(upper) > 0) {
+                break;
+            }
+            if (signal != null && i % CANCELLATION_CHECK_INTERVAL == 0 && signal.isCanceled()) {
+                return null;
+            }
+            if (!result.contains(entry.app) && matches(entry.app, query)) {
+                result.add(entry.app);
+            }
+        }
+        return result;
+    }
+
+    private int lowerBound(CollationKey key) {
+        int low = 0;
+        int high = mEntries.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mEntries[mid].key.compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void ensureEntriesSorted() {
+        if (!mEntriesDirty) {
+            return;
+        }
+        // Only the keys of the new apps are created, the existing ones are merged back.
+        ArrayList<Entry> entries = new ArrayList<>(mApps.size() * 2);
+        for (IndexedApp app : mApps.values()) {
+            if (app.entries == null) {
+                app.entries = createEntries(app);
+            }
+            Collections.addAll(entries, app.entries);
+        }
+        mEntries = entries.toArray(new Entry[entries.size()]);
+        Arrays.sort(mEntries);
+        mEntriesDirty = false;
+    }
+
+    private Entry[] createEntries(IndexedApp app) {
+        int titleLength = app.title.length();
+        Entry[] entries = new Entry[app.breaks.length];
+        for (int i = 0; i < app.breaks.length; i++) {
+            int start = app.breaks[i];
+            int end = Math.min(titleLength, start + MAX_KEY_LENGTH);
+            entries[i] = new Entry(mMatcher.getCollationKey(app.title.substring(start, end)), app);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+
+/**
+ * Scores how well a query matches an app title, used by {@link RankedAppSearchAlgorithm}.
+ * From best to worst, a query can match:
+ *   1) the whole title,
+ *   2) the start of the title,
+ *   3) the start of a word of the title, see {@link DefaultAppSearchAlgorithm#findWordBreaks},
+ *   4) the start of several words, one per word of the query,
+ *   5) the first letters of the words, like "gm" for "Google Maps",
+ *   6) the start of a word with a few typos, like "gmial" for "Gmail".
+ *
+ * Titles and queries are compared after removing accents and case, see {@link #normalize}.
+ *
+ * This class is not thread safe.
+ */
+class AppSearchScorer {
+
+    public static final int NO_MATCH = 0;
+    public static final int SCORE_EXACT = 1000;
+    public static final int SCORE_TITLE_PREFIX = 900;
+    public static final int SCORE_WORD_PREFIX = 800;
+    public static final int SCORE_ALL_WORDS = 700;
+    public static final int SCORE_ACRONYM = 600;
+    public static final int SCORE_TYPO = 400;
+
+    // Lowers the score of matches on later words. Together with the launch bonus of
+    // RankedAppSearchAlgorithm, it must stay below the gap of 100 between two tiers.
+    private static final int WORD_INDEX_PENALTY = 10;
+    static final int MAX_WORD_INDEX_PENALTY = 45;
+    static final int TYPO_PENALTY = 100;
+
+    private static final int MIN_ACRONYM_LENGTH = 2;
+    // Shorter queries match too many words with a single typo.
+    private static final int MIN_TYPO_QUERY_LENGTH = 3;
+    private static final int LONG_QUERY_LENGTH = 6;
+
+    // Scratch rows for the edit distance, grown on demand.
+    private int[] mPrevPrevRow = new int[0];
+    private int[] mPrevRow = new int[0];
+    private int[] mRow = new int[0];
+
+    /**
+     * A title split into normalized words.
+     */
+    static class PreparedTitle {
+        final String title;
+        final String normalized;
+        final String[] words;
+        final String acronym;
+
+        PreparedTitle(String title) {
+            this.title = title;
+            this.normalized = normalize(title).trim();
+
+            int[] breaks = DefaultAppSearchAlgorithm.findWordBreaks(title);
+            ArrayList<String> words = new ArrayList<>(breaks.length);
+            StringBuilder acronym = new StringBuilder(breaks.length);
+            for (int i = 0; i < breaks.length; i++) {
+                int end = i + 1 < breaks.length ? breaks[i + 1] : title.length();
+                String word = normalize(title.substring(breaks[i], end)).trim();
+                if (word.isEmpty()) {
+                    continue;
+                }
+                words.add(word);
+                if (Character.isLetterOrDigit(word.charAt(0))) {
+                    acronym.append(word.charAt(0));
+                }
+            }
+            this.words = words.toArray(new String[words.size()]);
+            this.acronym = acronym.toString();
+        }
+    }
+
+    /**
+     * A normalized query and its words.
+     */
+    static class PreparedQuery {
+        final String normalized;
+        final String[] words;
+        final int maxTypos;
+
+        PreparedQuery(String query) {
+            normalized = normalize(query).trim();
+            words = normalized.isEmpty() ? new String[0] : normalized.split("\\s+");
+            maxTypos = normalized.length() < MIN_TYPO_QUERY_LENGTH ? 0
+                    : normalized.length() < LONG_QUERY_LENGTH ? 1 : 2;
+        }
+    }
+
+    /**
+     * Returns the lower case form of {@param text} without accents, with the compatibility
+     * characters replaced by their canonical form (eg, Hangul compatibility jamo).
+     */
+    static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase();
+    }
+
+    /**
+     * Returns the match score of {@param query} for {@param title}, or {@link #NO_MATCH}.
+     */
+    public int score(PreparedTitle title, PreparedQuery query) {
+        String q = query.normalized;
+        if (q.isEmpty()) {
+            return NO_MATCH;
+        }
+        if (title.normalized.equals(q)) {
+            return SCORE_EXACT;
+        }
+        if (title.normalized.startsWith(q)) {
+            return SCORE_TITLE_PREFIX;
+        }
+
+        String[] words = title.words;
+        for (int i = 0; i < words.length; i++) {
+            if (words[i].startsWith(q)) {
+                return SCORE_WORD_PREFIX - getWordIndexPenalty(i);
+            }
+        }
+        if (query.words.length > 1) {
+            int firstWord = matchAllWords(words, query.words);
+            if (firstWord >= 0) {
+                return SCORE_ALL_WORDS - getWordIndexPenalty(firstWord);
+            }
+        }
+        if (q.length() >= MIN_ACRONYM_LENGTH && title.acronym.startsWith(q)) {
+            return SCORE_ACRONYM;
+        }
+
+        if (query.maxTypos > 0) {
+            // The whole title is tried as well, for typos across words.
+            int best = prefixDistance(q, title.normalized, query.maxTypos);
+            for (String word : words) {
+                best = Math.min(best, prefixDistance(q, word, query.maxTypos));
+                if (best == 1) {
+                    break;
+                }
+            }
+            if (best <= query.maxTypos) {
+                return SCORE_TYPO - best * TYPO_PENALTY;
+            }
+        }
+        return NO_MATCH;
+    }
+
+    private static int getWordIndexPenalty(int wordIndex) {
+        return Math.min(wordIndex * WORD_INDEX_PENALTY, MAX_WORD_INDEX_PENALTY);
+    }
+
+    /**
+     * Checks if each word of the query is a prefix of a word of the title, in order.
+     * @return the index of the title word matching the first query word, or -1 if there is no
+     *         match.
+     */
+    private static int matchAllWords(String[] titleWords, String[] queryWords) {
+        int first = -1;
+        int next = 0;
+        for (String queryWord : queryWords) {
+            while (next < titleWords.length && !titleWords[next].startsWith(queryWord)) {
+                next++;
+            }
+            if (next == titleWords.length) {
+                return -1;
+            }
+            if (first < 0) {
+                first = next;
+            }
+            next++;
+        }
+        return first;
+    }
+
+    /**
+     * Returns the smallest edit distance between {@param query} and a prefix of {@param word},
+     * counting transpositions as a single edit, or {@param maxDistance} + 1 if it is larger.
+     */
+    int prefixDistance(String query, String word, int maxDistance) {
+        int n = query.length();
+        // Longer prefixes can't be within the maximum distance.
+        int m = Math.min(word.length(), n + maxDistance);
+        if (m < n - maxDistance) {
+            return maxDistance + 1;
+        }
+        ensureCapacity(n + 1);
+
+        // Rows are indexed by the length of the word prefix, columns by the query position.
+        int[] prevPrev = mPrevPrevRow;
+        int[] prev = mPrevRow;
+        int[] row = mRow;
+        for (int j = 0; j <= n; j++) {
+            prev[j] = j;
+        }
+        // Distance to the empty prefix.
+        int best = n <= maxDistance ? n : maxDistance + 1;
+        for (int i = 1; i <= m; i++) {
+            row[0] = i;
+            int rowMin = row[0];
+            char wc = word.charAt(i - 1);
+            for (int j = 1; j <= n; j++) {
+                char qc = query.charAt(j - 1);
+                int cost = qc == wc ? 0 : 1;
+                int value = Math.min(Math.min(row[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                if (i > 1 && j > 1 && qc == word.charAt(i - 2) && query.charAt(j - 2) == wc) {
+                    value = Math.min(value, prevPrev[j - 2] + 1);
+                }
+                row[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (i >= n - maxDistance) {
+                best = Math.min(best, row[n]);
+            }
+            if (rowMin > maxDistance) {
+                // Every longer prefix is even further away.
+                break;
+            }
+            int[] tmp = prevPrev;
+            prevPrev = prev;
+            prev = row;
+            row = tmp;
+        }
+        return Math.min(best, maxDistance + 1);
+    }
+
+    private void ensureCapacity(int size) {
+        if (mRow.length < size) {
+            mPrevPrevRow = new int[size];
+            mPrevRow = new int[size];
+            mRow = new int[size];
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.config.FeatureFlags;
+import com.android.launcher3.util.ComponentKey;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the app searches of a {@link SearchAlgorithm} on a shared background thread, so that
+ * typing in the search box never waits for a scan of all the apps.
+ *
+ * Only the latest query runs: a new query drops the pending one and aborts the one in progress
+ * through its {@link CancellationSignal}, and results are only delivered if no other query was
+ * started since. When {@link FeatureFlags#APP_SEARCH_IN_BACKGROUND} is disabled, searches run
+ * synchronously on the UI thread instead.
+ *
+ * To log the latency of every query, execute the following command:
+ * $ adb shell setprop log.tag.AppSearchWorker DEBUG
+ *
+ * All the methods must be called on the UI thread.
+ */
+class AppSearchWorker {
+
+    private static final String TAG = "AppSearchWorker";
+
+    private static HandlerThread sSearchThread;
+
+    /**
+     * A search run by the worker.
+     */
+    interface SearchTask {
+        /**
+         * Returns the apps of {@param apps} matching {@param query}, or null if {@param signal}
+         * was cancelled before the search completed. Implementations should check the signal
+         * regularly.
+         */
+        ArrayList<ComponentKey> search(String query, List<AppInfo> apps,
+                CancellationSignal signal);
+    }
+
+    private final List<AppInfo> mApps;
+    private final SearchTask mTask;
+    private final Handler mUiHandler;
+    private final Handler mWorkerHandler;
+    private final boolean mLogLatency;
+
+    private Request mLatest;
+
+    // Debug counters, only updated when the latency is logged.
+    private int mCoalescedCount;
+    private int mAbortedCount;
+
+    /**
+     * @param apps the apps to search, only read on the UI thread.
+     */
+    AppSearchWorker(List<AppInfo> apps, SearchTask task) {
+        mApps = apps;
+        mTask = task;
+        mUiHandler = new Handler();
+        mWorkerHandler = FeatureFlags.APP_SEARCH_IN_BACKGROUND
+                ? new Handler(getSearchLooper()) : mUiHandler;
+        mLogLatency = Log.isLoggable(TAG, Log.DEBUG);
+    }
+
+    private static Looper getSearchLooper() {
+        if (sSearchThread == null) {
+            sSearchThread = new HandlerThread("app-search-thread",
+                    Process.THREAD_PRIORITY_FOREGROUND);
+            sSearchThread.start();
+        }
+        return sSearchThread.getLooper();
+    }
+
+    /**
+     * Runs {@param r} on the thread used for searching, after the searches already started.
+     * Used to keep the state read by {@link SearchTask} confined to that thread.
+     */
+    void execute(Runnable r) {
+        if (FeatureFlags.APP_SEARCH_IN_BACKGROUND) {
+            mWorkerHandler.post(r);
+        } else {
+            r.run();
+        }
+    }
+
+    void doSearch(String query, AllAppsSearchBarController.Callbacks callback) {
+        if (mLatest != null) {
+            stop(mLatest);
+        }
+        Request request;
+        if (FeatureFlags.APP_SEARCH_IN_BACKGROUND) {
+            // The list is changed on the UI thread, the worker gets a copy.
+            request = new Request(query, new ArrayList<>(mApps), callback);
+        } else {
+            request = new Request(query, mApps, callback);
+        }
+        mLatest = request;
+        if (FeatureFlags.APP_SEARCH_IN_BACKGROUND) {
+            mWorkerHandler.post(request);
+        } else {
+            request.run();
+        }
+    }
+
+    void cancel(boolean interruptActiveRequests) {
+        if (mLatest == null) {
+            return;
+        }
+        stop(mLatest);
+        if (interruptActiveRequests) {
+            mUiHandler.removeCallbacks(mLatest.mDeliverRunnable);
+            mLatest = null;
+        }
+    }
+
+    private void stop(Request request) {
+        request.mSignal.cancel();
+        if (FeatureFlags.APP_SEARCH_IN_BACKGROUND) {
+            mWorkerHandler.removeCallbacks(request);
+            if (mLogLatency && !request.mStarted) {
+                mCoalescedCount++;
+            }
+        }
+    }
+
+    private class Request implements Runnable {
+
+        final String mQuery;
+        final List<AppInfo> mApps;
+        final AllAppsSearchBarController.Callbacks mCallback;
+        final CancellationSignal mSignal = new CancellationSignal();
+        final long mStartTime = SystemClock.uptimeMillis();
+
+        // Set when the worker picks the request up, after which it can't be coalesced.
+        volatile boolean mStarted;
+
+        // Written on the worker thread, read on the UI thread after the post.
+        ArrayList<ComponentKey> mResult;
+        long mMatchStartTime;
+        long mMatchEndTime;
+
+        final Runnable mDeliverRunnable = this::deliver;
+
+        Request(String query, List<AppInfo> apps,
+                AllAppsSearchBarController.Callbacks callback) {
+            mQuery = query;
+            mApps = apps;
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            mStarted = true;
+            if (mSignal.isCanceled()) {
+                return;
+            }
+            mMatchStartTime = SystemClock.uptimeMillis();
+            mResult = mTask.search(mQuery, mApps, mSignal);
+            mMatchEndTime = SystemClock.uptimeMillis();
+            if (mResult == null) {
+                if (mLogLatency) {
+                    mUiHandler.post(() -> mAbortedCount++);
+                }
+                return;
+            }
+            mUiHandler.post(mDeliverRunnable);
+        }
+
+        private void deliver() {
+            if (mLatest != this) {
+                // A newer query was started since.
+                return;
+            }
+            mCallback.onSearchResult(mQuery, mResult);
+            if (mLogLatency) {
+                long now = SystemClock.uptimeMillis();
+                Log.d(TAG, "query length=" + mQuery.length() + " results=" + mResult.size()
+                        + " queued=" + (mMatchStartTime - mStartTime) + "ms"
+                        + " match=" + (mMatchEndTime - mMatchStartTime) + "ms"
+                        + " total=" + (now - mStartTime) + "ms"
+                        + " coalesced=" + mCoalescedCount + " aborted=" + mAbortedCount);
+            }
+        }
+    }
+}
@@ -32,6 +32,7 @@ import com.android.launcher3.ExtendedEditText;
 import com.android.launcher3.Insettable;
 import com.android.launcher3.Launcher;
 import com.android.launcher3.R;
+import com.android.launcher3.Utilities;
 import com.android.launcher3.allapps.AllAppsContainerView;
 import com.android.launcher3.allapps.AllAppsStore;
 import com.android.launcher3.allapps.AlphabeticalAppsList;
@@ -60,6 +61,7 @@ public class AppsSearchContainerLayout extends ExtendedEditText
 
     private AlphabeticalAppsList mApps;
     private AllAppsContainerView mAppsView;
+    private DefaultAppSearchAlgorithm mAppSearchAlgorithm;
 
     // This value was used to position the QSB. We store it here for translationY animations.
     private final float mFixedTranslationY;
@@ -148,12 +150,24 @@ public class AppsSearchContainerLayout extends ExtendedEditText
     public void initialize(AllAppsContainerView appsView) {
         mApps = appsView.getApps();
         mAppsView = appsView;
-        mSearchBarController.initialize(
-                new DefaultAppSearchAlgorithm(mApps.getApps()), this, mLauncher, this);
+        SearchAlgorithm searchAlgorithm;
+        if (Utilities.getPrefs(getContext())
+                .getBoolean(RankedAppSearchAlgorithm.PREF_RANKED_SEARCH, false)) {
+            searchAlgorithm = new RankedAppSearchAlgorithm(mApps.getApps(),
+                    new RankedAppSearchAlgorithm.DbLaunchCounts(getContext()));
+        } else {
+            mAppSearchAlgorithm = new DefaultAppSearchAlgorithm(mApps.getApps(),
+                    appsView.getAppsStore());
+            searchAlgorithm = mAppSearchAlgorithm;
+        }
+        mSearchBarController.initialize(searchAlgorithm, this, mLauncher, this);
     }
 
     @Override
     public void onAppsUpdated() {
+        if (mAppSearchAlgorithm != null) {
+            mAppSearchAlgorithm.onAppsUpdated();
+        }
         mSearchBarController.refreshSearchResult();
     }
 
@@ -15,36 +15,64 @@
  */
 package com.android.launcher3.allapps.search;
 
+import android.annotation.TargetApi;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.LauncherActivityInfo;
-import android.os.Handler;
+import android.icu.text.UnicodeSetIterator;
+import android.os.Build;
+import android.os.CancellationSignal;
 import android.os.UserHandle;
 
 import com.android.launcher3.AppInfo;
 import com.android.launcher3.IconCache;
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.Utilities;
+import com.android.launcher3.allapps.AllAppsStore;
+import com.android.launcher3.allapps.search.AppSearchIndex.IndexedApp;
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.util.ComponentKey;
 
+import java.text.CollationKey;
 import java.text.Collator;
+import java.text.RuleBasedCollator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 /**
  * The default search implementation.
+ *
+ * Matches are looked up in an {@link AppSearchIndex} of all the apps in the {@link AllAppsStore},
+ * which is kept up to date through {@link #onAppsUpdated()}. When characters are appended to the
+ * previous query, only the previous results are checked again. Searches run in the background,
+ * see {@link AppSearchWorker}.
  */
-public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
+public class DefaultAppSearchAlgorithm implements SearchAlgorithm, AllAppsStore.OnUpdateListener {
 
     public final static String SEARCH_HIDDEN_APPS = "pref_search_hidden_apps";
-    private final List<AppInfo> mApps;
-    protected final Handler mResultHandler;
+    private final AllAppsStore mAppsStore;
+    private final AppSearchWorker mWorker;
+    private boolean mIndexCreated;
+
+    // Only used on the thread of mWorker.
+    private final AppSearchIndex mIndex = new AppSearchIndex();
+    // Results of the previous query, in the order of the searched apps.
+    private String mLastQuery;
+    private ArrayList<IndexedApp> mLastMatches;
+    private List<AppInfo> mLastApps;
+    private int mLastGeneration;
 
-    public DefaultAppSearchAlgorithm(List<AppInfo> apps) {
-        mApps = apps;
-        mResultHandler = new Handler();
+    /**
+     * @param apps the apps to search, in the order of the results.
+     * @param appsStore the store containing {@param apps}.
+     */
+    public DefaultAppSearchAlgorithm(List<AppInfo> apps, AllAppsStore appsStore) {
+        mAppsStore = appsStore;
+        mWorker = new AppSearchWorker(apps, this::getTitleMatchResult);
     }
 
     public static List<AppInfo> getApps(Context context, List<AppInfo> defaultApps) {
@@ -67,40 +95,99 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
         return apps;
     }
 
+    /**
+     * Updates the index with the apps added, removed or renamed in the store. The index is only
+     * created on the first search.
+     */
     @Override
-    public void cancel(boolean interruptActiveRequests) {
-        if (interruptActiveRequests) {
-            mResultHandler.removeCallbacksAndMessages(null);
+    public void onAppsUpdated() {
+        if (mIndexCreated) {
+            updateIndex();
         }
     }
 
+    private void updateIndex() {
+        // The store is changed on the UI thread, the index is updated from a copy.
+        final ArrayList<AppInfo> apps = new ArrayList<>(mAppsStore.getApps());
+        mWorker.execute(() -> mIndex.update(apps));
+    }
+
+    @Override
+    public void cancel(boolean interruptActiveRequests) {
+        mWorker.cancel(interruptActiveRequests);
+    }
+
     @Override
     public void doSearch(final String query,
                          final AllAppsSearchBarController.Callbacks callback) {
-        final ArrayList<ComponentKey> result = getTitleMatchResult(query);
-        mResultHandler.post(new Runnable() {
-
-            @Override
-            public void run() {
-                callback.onSearchResult(query, result);
-            }
-        });
+        if (!mIndexCreated) {
+            updateIndex();
+            mIndexCreated = true;
+        }
+        mWorker.doSearch(query, callback);
     }
 
-    private ArrayList<ComponentKey> getTitleMatchResult(String query) {
-        // Do an intersection of the words in the query and each title, and filter out all the
-        // apps that don't match all of the words in the query.
+    /**
+     * Returns the apps of {@param apps} matching {@param query}, or null if {@param signal} is
+     * cancelled first. Runs on the thread of {@link AppSearchWorker}.
+     */
+    private ArrayList<ComponentKey> getTitleMatchResult(String query, List<AppInfo> apps,
+            CancellationSignal signal) {
         final String queryTextLower = query.toLowerCase();
-        final ArrayList<ComponentKey> result = new ArrayList<>();
-        StringMatcher matcher = StringMatcher.getInstance();
-        for (AppInfo info : mApps) {
-            if (matches(info, queryTextLower, matcher)) {
-                result.add(info.toComponentKey());
+
+        final ArrayList<IndexedApp> matches = new ArrayList<>();
+        // The previous results can only be narrowed down if they were found in the same apps,
+        // in the same order.
+        if (mLastQuery != null && queryTextLower.startsWith(mLastQuery)
+                && mLastGeneration == mIndex.getGeneration() && isSameOrder(apps, mLastApps)) {
+            // A word matching the new query also matches the previous one.
+            for (IndexedApp app : mLastMatches) {
+                if (mIndex.matches(app, queryTextLower)) {
+                    matches.add(app);
+                }
+            }
+        } else {
+            Set<IndexedApp> found = mIndex.search(queryTextLower, signal);
+            if (found == null) {
+                return null;
             }
+            if (!found.isEmpty()) {
+                for (AppInfo info : apps) {
+                    IndexedApp app = mIndex.get(info);
+                    if (app != null && found.contains(app)) {
+                        matches.add(app);
+                    }
+                }
+            }
+        }
+        mLastQuery = queryTextLower;
+        mLastMatches = matches;
+        mLastApps = apps;
+        mLastGeneration = mIndex.getGeneration();
+
+        final ArrayList<ComponentKey> result = new ArrayList<>(matches.size());
+        for (IndexedApp app : matches) {
+            result.add(app.info.toComponentKey());
         }
         return result;
     }
 
+    private static boolean isSameOrder(List<AppInfo> apps, List<AppInfo> lastApps) {
+        if (apps == lastApps) {
+            return true;
+        }
+        int size = apps.size();
+        if (lastApps == null || lastApps.size() != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (apps.get(i) != lastApps.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static boolean matches(AppInfo info, String query, StringMatcher matcher) {
         int queryLength = query.length();
 
@@ -111,22 +198,40 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
             return false;
         }
 
+        for (int start : findWordBreaks(title)) {
+            if (start + queryLength > titleLength) {
+                break;
+            }
+            if (matcher.matches(query, title.substring(start, start + queryLength))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the indices of {@param title} where a word starts, in increasing order.
+     */
+    static int[] findWordBreaks(String title) {
+        int titleLength = title.length();
+        int[] breaks = new int[titleLength];
+        int count = 0;
+
         int lastType;
         int thisType = Character.UNASSIGNED;
-        int nextType = Character.getType(title.codePointAt(0));
+        int nextType = titleLength > 0
+                ? Character.getType(title.codePointAt(0)) : Character.UNASSIGNED;
 
-        int end = titleLength - queryLength;
-        for (int i = 0; i <= end; i++) {
+        for (int i = 0; i < titleLength; i++) {
             lastType = thisType;
             thisType = nextType;
             nextType = i < (titleLength - 1) ?
                     Character.getType(title.codePointAt(i + 1)) : Character.UNASSIGNED;
-            if (isBreak(thisType, lastType, nextType) &&
-                    matcher.matches(query, title.substring(i, i + queryLength))) {
-                return true;
+            if (isBreak(thisType, lastType, nextType)) {
+                breaks[count++] = i;
             }
         }
-        return false;
+        return count == titleLength ? breaks : Arrays.copyOf(breaks, count);
     }
 
     /**
@@ -179,12 +284,18 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
 
         private static final char MAX_UNICODE = '\uFFFF';
 
+        private final Locale mLocale;
         private final Collator mCollator;
 
         StringMatcher() {
+            this(Locale.getDefault());
+        }
+
+        StringMatcher(Locale locale) {
+            mLocale = locale;
             // On android N and above, Collator uses ICU implementation which has a much better
             // support for non-latin locales.
-            mCollator = Collator.getInstance();
+            mCollator = Collator.getInstance(locale);
             mCollator.setStrength(Collator.PRIMARY);
             mCollator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
         }
@@ -207,6 +318,43 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
             }
         }
 
+        /**
+         * Returns a key ordering {@param source} as {@link #matches} compares it.
+         */
+        public CollationKey getCollationKey(String source) {
+            return mCollator.getCollationKey(source);
+        }
+
+        /**
+         * Returns true if the locale has contractions, where several characters sort as one. The
+         * collation keys of the titles starting with a prefix are then not grouped together, e.g.
+         * "ch" sorts after "h" in Czech.
+         */
+        public boolean hasContractions() {
+            if (Utilities.ATLEAST_NOUGAT) {
+                return hasTailoredContractions(mLocale);
+            }
+            // The tailoring can't be inspected, assume that any custom rules add contractions.
+            return mCollator instanceof RuleBasedCollator
+                    && !((RuleBasedCollator) mCollator).getRules().isEmpty();
+        }
+
+        @TargetApi(Build.VERSION_CODES.N)
+        private static boolean hasTailoredContractions(Locale locale) {
+            android.icu.text.Collator collator = android.icu.text.Collator.getInstance(locale);
+            if (!(collator instanceof android.icu.text.RuleBasedCollator)) {
+                return false;
+            }
+            UnicodeSetIterator itr = new UnicodeSetIterator(
+                    ((android.icu.text.RuleBasedCollator) collator).getTailoredSet());
+            while (itr.nextRange()) {
+                if (itr.codepoint == UnicodeSetIterator.IS_STRING) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         public static StringMatcher getInstance() {
             return new StringMatcher();
         }
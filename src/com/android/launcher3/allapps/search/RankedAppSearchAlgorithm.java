@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import android.content.Context;
+import android.os.CancellationSignal;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.allapps.search.AppSearchScorer.PreparedQuery;
+import com.android.launcher3.allapps.search.AppSearchScorer.PreparedTitle;
+import com.android.launcher3.util.ComponentKey;
+
+import org.zimmob.zimlx.util.AppCountStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Search implementation which tolerates typos and abbreviations, and orders the results by
+ * relevance, see {@link AppSearchScorer}. Apps with a similar score are ordered by their launch
+ * count. Searches run in the background, see {@link AppSearchWorker}.
+ */
+public class RankedAppSearchAlgorithm implements SearchAlgorithm {
+
+    public static final String PREF_RANKED_SEARCH = "pref_ranked_app_search";
+
+    // Upper bound of the launch count bonus. Added to the largest word index penalty of
+    // AppSearchScorer, it is lower than the gap between two match tiers.
+    static final int MAX_LAUNCH_BONUS = 45;
+    private static final int LAUNCH_BONUS_PER_DOUBLING = 10;
+
+    /**
+     * Provides the number of times each app was launched.
+     */
+    public interface LaunchCounts {
+        int getLaunchCount(AppInfo app);
+    }
+
+    // Number of apps scored between two checks of the cancellation signal.
+    private static final int CANCELLATION_CHECK_INTERVAL = 32;
+
+    private final List<AppInfo> mApps;
+    private final LaunchCounts mLaunchCounts;
+    private final AppSearchWorker mWorker;
+
+    // Only used on the thread of mWorker.
+    private final AppSearchScorer mScorer = new AppSearchScorer();
+    // Titles are only split again when they change.
+    private final IdentityHashMap<AppInfo, PreparedTitle> mTitles = new IdentityHashMap<>();
+
+    /**
+     * @param apps the apps to search. Apps with the same score keep their order in this list.
+     */
+    public RankedAppSearchAlgorithm(List<AppInfo> apps, LaunchCounts launchCounts) {
+        mApps = apps;
+        mLaunchCounts = launchCounts;
+        mWorker = new AppSearchWorker(apps, this::search);
+    }
+
+    @Override
+    public void cancel(boolean interruptActiveRequests) {
+        mWorker.cancel(interruptActiveRequests);
+    }
+
+    @Override
+    public void doSearch(final String query,
+                         final AllAppsSearchBarController.Callbacks callback) {
+        mWorker.doSearch(query, callback);
+    }
+
+    private ArrayList<ComponentKey> search(String query, List<AppInfo> apps,
+            CancellationSignal signal) {
+        ArrayList<AppInfo> ranked = rank(query, apps, signal);
+        if (ranked == null) {
+            return null;
+        }
+        ArrayList<ComponentKey> result = new ArrayList<>(ranked.size());
+        for (AppInfo info : ranked) {
+            result.add(info.toComponentKey());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the apps matching {@param query}, most relevant first.
+     */
+    public ArrayList<AppInfo> rank(String query) {
+        return rank(query, mApps, null);
+    }
+
+    /**
+     * Returns the apps of {@param apps} matching {@param query}, most relevant first, or null if
+     * {@param signal} is cancelled first.
+     */
+    private ArrayList<AppInfo> rank(String query, List<AppInfo> apps, CancellationSignal signal) {
+        PreparedQuery preparedQuery = new PreparedQuery(query);
+        ArrayList<ScoredApp> scored = new ArrayList<>();
+        for (int i = 0; i < apps.size(); i++) {
+            if (signal != null && i % CANCELLATION_CHECK_INTERVAL == 0 && signal.isCanceled()) {
+                return null;
+            }
+            AppInfo info = apps.get(i);
+            int score = mScorer.score(getTitle(info), preparedQuery);
+            if (score != AppSearchScorer.NO_MATCH) {
+                scored.add(new ScoredApp(info,
+                        score + getLaunchBonus(mLaunchCounts.getLaunchCount(info))));
+            }
+        }
+        // The sort is stable, so that equal scores keep the order of apps.
+        Collections.sort(scored, (a, b) -> Integer.compare(b.score, a.score));
+
+        if (mTitles.size() > apps.size() * 2) {
+            // Drop the titles of the removed apps, the others are split again on next search.
+            mTitles.clear();
+        }
+
+        ArrayList<AppInfo> result = new ArrayList<>(scored.size());
+        for (ScoredApp app : scored) {
+            result.add(app.info);
+        }
+        return result;
+    }
+
+    private PreparedTitle getTitle(AppInfo info) {
+        String title = info.title == null ? "" : info.title.toString();
+        PreparedTitle prepared = mTitles.get(info);
+        if (prepared == null || !prepared.title.equals(title)) {
+            prepared = new PreparedTitle(title);
+            mTitles.put(info, prepared);
+        }
+        return prepared;
+    }
+
+    /**
+     * Returns a bonus growing with the logarithm of the launch count.
+     */
+    static int getLaunchBonus(int launchCount) {
+        if (launchCount <= 0) {
+            return 0;
+        }
+        int doublings = 32 - Integer.numberOfLeadingZeros(launchCount);
+        return Math.min(MAX_LAUNCH_BONUS, doublings * LAUNCH_BONUS_PER_DOUBLING);
+    }
+
+    private static class ScoredApp {
+        final AppInfo info;
+        final int score;
+
+        ScoredApp(AppInfo info, int score) {
+            this.info = info;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Launch counts read from {@link AppCountStore}.
+     */
+    public static class DbLaunchCounts implements LaunchCounts {
+
+        private final AppCountStore mStore;
+
+        public DbLaunchCounts(Context context) {
+            mStore = AppCountStore.getInstance(context);
+        }
+
+        @Override
+        public int getLaunchCount(AppInfo app) {
+            return mStore.getCount(app.componentName.getPackageName());
+        }
+    }
+}
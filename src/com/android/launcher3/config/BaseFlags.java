@@ -55,6 +55,21 @@ public abstract class BaseFlags {
     public static final boolean ALL_APPS_TABS_ENABLED = true;
     public static boolean LAUNCHER3_DISABLE_ICON_NORMALIZATION = false;
 
+    // When enabled the icon cache DB stores raw pixels instead of PNG, which makes reading icons
+    // much faster at the cost of a larger DB. Changing it resets the icon cache.
+    public static final boolean ICON_CACHE_RAW_PIXELS = false;
+
+    // When enabled the app search runs on a background thread, and a query still running is
+    // aborted when the next one is typed.
+    public static final boolean APP_SEARCH_IN_BACKGROUND = true;
+
+    // When enabled the wallpaper is blurred by StackBlur on all the cores, instead of HokoBlur.
+    public static final boolean STACK_BLUR_WALLPAPER_FILTER = true;
+
+    // When enabled IconNormalizer skips the transparent margins of the icons, found with a
+    // sampling probe, instead of reading all the pixels.
+    public static final boolean ICON_NORMALIZER_FAST_SCAN = true;
+
     // When true, custom widgets are loaded using CustomWidgetParser.
     public static final boolean ENABLE_CUSTOM_WIDGETS = false;
 
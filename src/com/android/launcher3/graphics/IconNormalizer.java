@@ -28,19 +28,29 @@ import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.AdaptiveIconDrawable;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
+import android.graphics.drawable.VectorDrawable;
 import android.util.Log;
 
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.Utilities;
+import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.dragndrop.FolderAdaptiveIcon;
 
 import java.nio.ByteBuffer;
+import java.util.WeakHashMap;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+/**
+ * Computes the scale which makes an icon visually as large as the other icons.
+ *
+ * This class is not thread safe, it draws into its own scratch bitmap. Each
+ * {@link LauncherIcons} owns one, so that icons can be created on several threads at once.
+ */
 public class IconNormalizer {
 
     private static final String TAG = "IconNormalizer";
@@ -63,8 +73,13 @@ public class IconNormalizer {
     private static final float PIXEL_DIFF_PERCENTAGE_THRESHOLD = 0.005f;
     private static final float SCALE_NOT_INITIALIZED = 0;
 
-    private static final Object LOCK = new Object();
-    private static IconNormalizer sIconNormalizer;
+    // Distance between the pixels sampled by the probe, in both directions.
+    private static final int PROBE_STEP = 4;
+
+    // Scales of the icons normalized recently, shared by all the normalizers. Keyed by the
+    // constant state of the drawable, which is shared by the drawables of the same resource.
+    private static final Object sCacheLock = new Object();
+    private static final WeakHashMap<Object, CachedScale> sScaleCache = new WeakHashMap<>();
 
     // Ratio of the diameter of an normalized circular icon to the actual icon size.
     public static final float ICON_VISIBLE_AREA_FACTOR = 0.92f;
@@ -86,10 +101,23 @@ public class IconNormalizer {
     private final Path mShapePath;
     private final Matrix mMatrix;
 
+    private final boolean mFastScan;
+    private final boolean mUseCache;
+
     /**
      * package private
      **/
     IconNormalizer(Context context) {
+        this(context, FeatureFlags.ICON_NORMALIZER_FAST_SCAN, true);
+    }
+
+    /**
+     * @param fastScan if true, the visible rows are found with a probe, see {@link #scanRows}.
+     * @param useCache if true, the scales are reused for the drawables of the same resource.
+     */
+    IconNormalizer(Context context, boolean fastScan, boolean useCache) {
+        mFastScan = fastScan;
+        mUseCache = useCache;
         // Use twice the icon size as maximum size to avoid scaling down twice.
         mMaxSize = LauncherAppState.getIDP(context).iconBitmapSize * 2;
         mBitmap = Bitmap.createBitmap(mMaxSize, mMaxSize, Bitmap.Config.ALPHA_8);
@@ -116,15 +144,6 @@ public class IconNormalizer {
         mAdaptiveIconScale = SCALE_NOT_INITIALIZED;
     }
 
-    public static IconNormalizer getInstance(Context context) {
-        synchronized (LOCK) {
-            if (sIconNormalizer == null) {
-                sIconNormalizer = new IconNormalizer(context);
-            }
-        }
-        return sIconNormalizer;
-    }
-
     /**
      * Returns if the shape of the icon is same as the path.
      * For this method to work, the shape path bounds should be in [0,1]x[0,1] bounds.
@@ -205,8 +224,8 @@ public class IconNormalizer {
      *
      * @param outBounds optional rect to receive the fraction distance from each edge.
      */
-    public synchronized float getScale(@NonNull Drawable d, @Nullable RectF outBounds,
-                                       @Nullable Path path, @Nullable boolean[] outMaskShape) {
+    public float getScale(@NonNull Drawable d, @Nullable RectF outBounds,
+                          @Nullable Path path, @Nullable boolean[] outMaskShape) {
         if (Utilities.ATLEAST_OREO && d instanceof AdaptiveIconDrawable) {
             if (mAdaptiveIconScale != SCALE_NOT_INITIALIZED) {
                 if (outBounds != null) {
@@ -230,6 +249,22 @@ public class IconNormalizer {
             height = mMaxSize * height / max;
         }
 
+        Object cacheKey = mUseCache ? getCacheKey(d) : null;
+        if (cacheKey != null) {
+            synchronized (sCacheLock) {
+                CachedScale cached = sScaleCache.get(cacheKey);
+                if (cached != null && cached.matches(width, height, path, outMaskShape)) {
+                    if (outBounds != null) {
+                        outBounds.set(cached.bounds);
+                    }
+                    if (outMaskShape != null && outMaskShape.length > 0) {
+                        outMaskShape[0] = cached.maskShape;
+                    }
+                    return cached.scale;
+                }
+            }
+        }
+
         mBitmap.eraseColor(Color.TRANSPARENT);
         d.setBounds(0, 0, width, height);
         d.draw(mCanvas);
@@ -244,32 +279,13 @@ public class IconNormalizer {
         int leftX = mMaxSize + 1;
         int rightX = -1;
 
-        // Create border by going through all pixels one row at a time and for each row find
-        // the first and the last non-transparent pixel. Set those values to mLeftBorder and
-        // mRightBorder and use -1 if there are no visible pixel in the row.
-
-        // buffer position
-        int index = 0;
-        // buffer shift after every row, width of buffer = mMaxSize
-        int rowSizeDiff = mMaxSize - width;
-        // first and last position for any row.
-        int firstX, lastX;
+        // Set the first and the last non-transparent pixel of each row to mLeftBorder and
+        // mRightBorder, -1 if there are no visible pixel in the row.
+        scanRows(width, height);
 
         for (int y = 0; y < height; y++) {
-            firstX = lastX = -1;
-            for (int x = 0; x < width; x++) {
-                if ((mPixels[index] & 0xFF) > MIN_VISIBLE_ALPHA) {
-                    if (firstX == -1) {
-                        firstX = x;
-                    }
-                    lastX = x;
-                }
-                index++;
-            }
-            index += rowSizeDiff;
-
-            mLeftBorder[y] = firstX;
-            mRightBorder[y] = lastX;
+            float firstX = mLeftBorder[y];
+            float lastX = mRightBorder[y];
 
             // If there is at least one visible pixel, update the overall bounds.
             if (firstX != -1) {
@@ -278,8 +294,8 @@ public class IconNormalizer {
                     topY = y;
                 }
 
-                leftX = Math.min(leftX, firstX);
-                rightX = Math.max(rightX, lastX);
+                leftX = Math.min(leftX, (int) firstX);
+                rightX = Math.max(rightX, (int) lastX);
             }
         }
 
@@ -322,8 +338,9 @@ public class IconNormalizer {
                     1 - ((float) mBounds.bottom) / height);
         }
 
+        boolean maskShape = false;
         if (outMaskShape != null && outMaskShape.length > 0) {
-            outMaskShape[0] = isShape(path);
+            maskShape = outMaskShape[0] = isShape(path);
         }
         float areaScale = area / (width * height);
         // Use sqrt of the final ratio as the images is scaled across both width and height.
@@ -333,9 +350,90 @@ public class IconNormalizer {
             mAdaptiveIconScale = scale;
             mAdaptiveIconBounds.set(mBounds);
         }
+        if (cacheKey != null) {
+            CachedScale cached = new CachedScale(width, height, scale,
+                    outMaskShape != null && outMaskShape.length > 0 ? path : null, maskShape);
+            cached.bounds.set(((float) mBounds.left) / width, ((float) mBounds.top) / height,
+                    1 - ((float) mBounds.right) / width,
+                    1 - ((float) mBounds.bottom) / height);
+            synchronized (sCacheLock) {
+                sScaleCache.put(cacheKey, cached);
+            }
+        }
         return scale;
     }
 
+    /**
+     * Returns the key of {@param d} in {@link #sScaleCache}, or null if its scale can't be
+     * reused. Only the drawables which always draw the same for the same resource are cached.
+     */
+    private static Object getCacheKey(Drawable d) {
+        if (!(d instanceof BitmapDrawable || d instanceof VectorDrawable)) {
+            return null;
+        }
+        return d.getConstantState();
+    }
+
+    /**
+     * Sets the first and the last visible pixel of the rows of the icon in {@link #mPixels} to
+     * {@link #mLeftBorder} and {@link #mRightBorder}, -1 for the rows without visible pixels.
+     *
+     * In fast mode, a probe of every {@link #PROBE_STEP}th pixel of every PROBE_STEP'th row
+     * finds the rows with visible pixels first. Only those rows, and the rows up to the next
+     * sampled row on either side, are scanned, so the transparent margins are not read. Details
+     * thinner than the probe step in the margins may be missed, which changes the scale very
+     * little. If the probe finds nothing, all the rows are scanned.
+     */
+    private void scanRows(int width, int height) {
+        int firstRow = 0;
+        int lastRow = height - 1;
+        if (mFastScan) {
+            int probeTop = -1;
+            int probeBottom = -1;
+            for (int y = 0; y < height; y += PROBE_STEP) {
+                int index = y * mMaxSize;
+                for (int x = 0; x < width; x += PROBE_STEP) {
+                    if ((mPixels[index + x] & 0xFF) > MIN_VISIBLE_ALPHA) {
+                        if (probeTop == -1) {
+                            probeTop = y;
+                        }
+                        probeBottom = y;
+                        break;
+                    }
+                }
+            }
+            if (probeTop != -1) {
+                firstRow = Math.max(0, probeTop - PROBE_STEP + 1);
+                lastRow = Math.min(height - 1, probeBottom + PROBE_STEP - 1);
+            }
+        }
+
+        for (int y = 0; y < height; y++) {
+            mLeftBorder[y] = mRightBorder[y] = -1;
+            if (y < firstRow || y > lastRow) {
+                continue;
+            }
+            // Scan from both ends, so that only the transparent pixels outside of the icon and
+            // the borders are read.
+            int index = y * mMaxSize;
+            for (int x = 0; x < width; x++) {
+                if ((mPixels[index + x] & 0xFF) > MIN_VISIBLE_ALPHA) {
+                    mLeftBorder[y] = x;
+                    break;
+                }
+            }
+            if (mLeftBorder[y] == -1) {
+                continue;
+            }
+            for (int x = width - 1; ; x--) {
+                if ((mPixels[index + x] & 0xFF) > MIN_VISIBLE_ALPHA) {
+                    mRightBorder[y] = x;
+                    break;
+                }
+            }
+        }
+    }
+
     /**
      * Modifies {@param xCoordinates} to represent a convex border. Fills in all missing values
      * (except on either ends) with appropriate values.
@@ -391,6 +489,30 @@ public class IconNormalizer {
         }
     }
 
+    private static class CachedScale {
+        final int width;
+        final int height;
+        final float scale;
+        // Fraction distance from each edge.
+        final RectF bounds = new RectF();
+        // Mask path the shape was compared with, null if it wasn't.
+        final Path path;
+        final boolean maskShape;
+
+        CachedScale(int width, int height, float scale, Path path, boolean maskShape) {
+            this.width = width;
+            this.height = height;
+            this.scale = scale;
+            this.path = path;
+            this.maskShape = maskShape;
+        }
+
+        boolean matches(int width, int height, Path path, boolean[] outMaskShape) {
+            return this.width == width && this.height == height
+                    && (outMaskShape == null || outMaskShape.length == 0 || this.path == path);
+        }
+    }
+
     /**
      * @return The diameter of the normalized circle that fits inside of the square (size x size).
      */
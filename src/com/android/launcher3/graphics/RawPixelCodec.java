@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.graphics;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serializes bitmaps as their raw premultiplied ARGB_8888 pixels, preceded by a small header.
+ * This is larger than PNG, but decoding is a single memory copy instead of an inflate.
+ */
+public class RawPixelCodec {
+
+    private static final String TAG = "RawPixelCodec";
+
+    private static final int MAGIC = 0x52415731; // "RAW1"
+    // magic, width, height
+    public static final int HEADER_SIZE = 3 * 4;
+
+    /**
+     * Keeps one software bitmap per thread and size, used as the copy target when the decoded
+     * bitmap is converted to a different config.
+     */
+    private static final ThreadLocal<Bitmap> sScratch = new ThreadLocal<>();
+
+    public static byte[] encode(Bitmap bitmap) {
+        if (bitmap == null) {
+            return null;
+        }
+        Bitmap source = bitmap;
+        if (source.getConfig() != Bitmap.Config.ARGB_8888) {
+            source = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+            if (source == null) {
+                Log.w(TAG, "Could not convert bitmap for encoding");
+                return null;
+            }
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + width * height * 4);
+        buffer.putInt(MAGIC).putInt(width).putInt(height);
+        source.copyPixelsToBuffer(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Decodes data produced by {@link #encode}.
+     * @param config the config of the returned bitmap, or null for ARGB_8888.
+     * @return the decoded bitmap, or null if the data is invalid.
+     */
+    public static Bitmap decode(byte[] data, Bitmap.Config config) {
+        if (data == null || data.length < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.wrap(data, 0, HEADER_SIZE);
+        int width = header.getInt(4);
+        int height = header.getInt(8);
+        if (header.getInt(0) != MAGIC || width <= 0 || height <= 0
+                || data.length != HEADER_SIZE + width * height * 4) {
+            return null;
+        }
+        ByteBuffer pixels = ByteBuffer.wrap(data, HEADER_SIZE, data.length - HEADER_SIZE);
+
+        if (config == null || config == Bitmap.Config.ARGB_8888) {
+            Bitmap result = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            result.copyPixelsFromBuffer(pixels);
+            return result;
+        }
+
+        // The target config can't be written directly, go through the reusable scratch bitmap.
+        Bitmap scratch = sScratch.get();
+        if (scratch == null || scratch.getWidth() != width || scratch.getHeight() != height) {
+            scratch = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            sScratch.set(scratch);
+        }
+        scratch.copyPixelsFromBuffer(pixels);
+        return scratch.copy(config, false);
+    }
+}
@@ -34,6 +34,9 @@ import androidx.core.graphics.ColorUtils;
 
 /**
  * Utility class to add shadows to bitmaps.
+ *
+ * This class is not thread safe. Each {@link LauncherIcons} owns one, so that icons can be
+ * created on several threads at once.
  */
 public class ShadowGenerator {
 
@@ -54,10 +57,6 @@ public class ShadowGenerator {
     private final Paint mDrawPaint;
     private final BlurMaskFilter mDefaultBlurMaskFilter;
 
-    private static final Object LOCK = new Object();
-    // Singleton object guarded by {@link #LOCK}
-    private static ShadowGenerator sShadowGenerator;
-
     public ShadowGenerator(Context context) {
         mIconSize = LauncherAppState.getIDP(context).iconBitmapSize;
         mCanvas = new Canvas();
@@ -66,24 +65,12 @@ public class ShadowGenerator {
         mDefaultBlurMaskFilter = new BlurMaskFilter(mIconSize * BLUR_FACTOR, Blur.NORMAL);
     }
 
-    public static ShadowGenerator getInstance(Context context) {
-        // TODO: This currently fails as the system default icon also needs a shadow as it
-        // uses adaptive icon.
-        // Preconditions.assertNonUiThread();
-        synchronized (LOCK) {
-            if (sShadowGenerator == null) {
-                sShadowGenerator = new ShadowGenerator(context);
-            }
-        }
-        return sShadowGenerator;
-    }
-
-    public synchronized void recreateIcon(Bitmap icon, Canvas out) {
+    public void recreateIcon(Bitmap icon, Canvas out) {
         recreateIcon(icon, mDefaultBlurMaskFilter, AMBIENT_SHADOW_ALPHA, KEY_SHADOW_ALPHA, out);
     }
 
-    public synchronized void recreateIcon(Bitmap icon, BlurMaskFilter blurMaskFilter,
-                                          int ambientAlpha, int keyAlpha, Canvas out) {
+    public void recreateIcon(Bitmap icon, BlurMaskFilter blurMaskFilter,
+                             int ambientAlpha, int keyAlpha, Canvas out) {
         int[] offset = new int[2];
         mBlurPaint.setMaskFilter(blurMaskFilter);
         Bitmap shadow = icon.extractAlpha(mBlurPaint, offset);
@@ -101,8 +88,8 @@ public class ShadowGenerator {
         out.drawBitmap(icon, 0, 0, mDrawPaint);
     }
 
-    public synchronized Bitmap recreateIcon(Bitmap icon, boolean resize,
-                                            BlurMaskFilter blurMaskFilter, int ambientAlpha, int keyAlpha) {
+    public Bitmap recreateIcon(Bitmap icon, boolean resize,
+                               BlurMaskFilter blurMaskFilter, int ambientAlpha, int keyAlpha) {
         int width = resize ? mIconSize : icon.getWidth();
         int height = resize ? mIconSize : icon.getHeight();
         int[] offset = new int[2];
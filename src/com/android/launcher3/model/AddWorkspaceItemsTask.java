@@ -258,9 +258,7 @@ public class AddWorkspaceItemsTask extends BaseModelUpdateTask {
 
         if (!found) {
             // Still no position found. Add a new screen to the end.
-            screenId = LauncherSettings.Settings.call(app.getContext().getContentResolver(),
-                    LauncherSettings.Settings.METHOD_NEW_SCREEN_ID)
-                    .getLong(LauncherSettings.Settings.EXTRA_VALUE);
+            screenId = app.getLauncherDao().generateNewScreenId();
 
             // Save the screen id for binding in the workspace
             workspaceScreens.add(screenId);
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import android.content.ComponentName;
+import android.os.UserHandle;
+
+import com.android.launcher3.AllAppsList;
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.IconCache;
+import com.android.launcher3.ItemInfo;
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.LauncherModel.CallbackTask;
+import com.android.launcher3.LauncherModel.Callbacks;
+import com.android.launcher3.LauncherSettings;
+import com.android.launcher3.ShortcutInfo;
+import com.android.launcher3.graphics.LauncherIcons;
+import com.android.launcher3.shortcuts.DeepShortcutManager;
+import com.android.launcher3.shortcuts.ShortcutInfoCompat;
+import com.android.launcher3.shortcuts.ShortcutKey;
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.MultiHashMap;
+import com.android.launcher3.util.PackageUserKey;
+import com.android.launcher3.util.Provider;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recreates the icons of a set of components, and rebinds the apps and workspace items showing
+ * them. Unlike {@link PackageUpdatedTask}, the other components of their packages are not
+ * touched.
+ */
+public class ComponentIconsUpdatedTask extends BaseModelUpdateTask {
+
+    private final HashSet<ComponentKey> mComponents;
+    private final boolean mUpdateDeepShortcuts;
+
+    /**
+     * @param updateDeepShortcuts whether the icons of all the pinned deep shortcuts are recreated
+     *                            too, for changes which affect every icon
+     */
+    public ComponentIconsUpdatedTask(HashSet<ComponentKey> components,
+                                     boolean updateDeepShortcuts) {
+        mComponents = components;
+        mUpdateDeepShortcuts = updateDeepShortcuts;
+    }
+
+    @Override
+    public void execute(LauncherAppState app, BgDataModel dataModel, AllAppsList apps) {
+        IconCache iconCache = app.getIconCache();
+        iconCache.updateIconsForComponents(mComponents);
+
+        final ArrayList<AppInfo> updatedApps = new ArrayList<>();
+        HashMap<UserHandle, ArrayList<ShortcutInfo>> updatedShortcuts = new HashMap<>();
+        HashMap<PackageUserKey, MultiHashMap<ShortcutKey, ShortcutInfo>> deepShortcuts =
+                new HashMap<>();
+        synchronized (dataModel) {
+            for (ItemInfo info : dataModel.itemsIdMap) {
+                if (!(info instanceof ShortcutInfo)) {
+                    continue;
+                }
+                ShortcutInfo si = (ShortcutInfo) info;
+                ComponentName cn = si.getTargetComponent();
+                if (si.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION
+                        && cn != null && mComponents.contains(new ComponentKey(cn, si.user))) {
+                    iconCache.getTitleAndIcon(si, si.usingLowResIcon);
+                    getShortcutList(updatedShortcuts, si.user).add(si);
+                } else if (mUpdateDeepShortcuts
+                        && si.itemType == LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT) {
+                    PackageUserKey key = new PackageUserKey(si.getIntent().getPackage(), si.user);
+                    MultiHashMap<ShortcutKey, ShortcutInfo> shortcuts = deepShortcuts.get(key);
+                    if (shortcuts == null) {
+                        shortcuts = new MultiHashMap<>();
+                        deepShortcuts.put(key, shortcuts);
+                    }
+                    shortcuts.addToList(ShortcutKey.fromItemInfo(si), si);
+                }
+            }
+            apps.updateIconsAndLabels(mComponents, updatedApps);
+        }
+
+        if (!deepShortcuts.isEmpty()) {
+            updateDeepShortcutIcons(app, deepShortcuts, updatedShortcuts);
+        }
+        for (Map.Entry<UserHandle, ArrayList<ShortcutInfo>> entry : updatedShortcuts.entrySet()) {
+            bindUpdatedShortcuts(entry.getValue(), entry.getKey());
+        }
+
+        if (!updatedApps.isEmpty()) {
+            scheduleCallbackTask(new CallbackTask() {
+                @Override
+                public void execute(Callbacks callbacks) {
+                    callbacks.bindAppsAddedOrUpdated(updatedApps);
+                }
+            });
+        }
+    }
+
+    /**
+     * Recreates the icons of the pinned deep shortcuts, querying each package once. Removing the
+     * shortcuts which are no longer pinned is left to {@link ShortcutsChangedTask}.
+     */
+    private void updateDeepShortcutIcons(LauncherAppState app,
+            HashMap<PackageUserKey, MultiHashMap<ShortcutKey, ShortcutInfo>> deepShortcuts,
+            HashMap<UserHandle, ArrayList<ShortcutInfo>> outUpdates) {
+        DeepShortcutManager deepShortcutManager = DeepShortcutManager.getInstance(app.getContext());
+        for (Map.Entry<PackageUserKey, MultiHashMap<ShortcutKey, ShortcutInfo>> entry
+                : deepShortcuts.entrySet()) {
+            PackageUserKey key = entry.getKey();
+            MultiHashMap<ShortcutKey, ShortcutInfo> keyToShortcutInfo = entry.getValue();
+            List<String> ids = new ArrayList<>();
+            for (ShortcutKey shortcutKey : keyToShortcutInfo.keySet()) {
+                ids.add(shortcutKey.getId());
+            }
+            List<ShortcutInfoCompat> shortcuts = deepShortcutManager.queryForFullDetails(
+                    key.mPackageName, ids, key.mUser);
+            try (LauncherIcons li = LauncherIcons.obtain(app.getContext())) {
+                for (ShortcutInfoCompat fullDetails : shortcuts) {
+                    List<ShortcutInfo> shortcutInfos =
+                            keyToShortcutInfo.get(ShortcutKey.fromInfo(fullDetails));
+                    if (shortcutInfos == null || !fullDetails.isPinned()) {
+                        continue;
+                    }
+                    for (ShortcutInfo si : shortcutInfos) {
+                        li.createShortcutIcon(fullDetails, true, Provider.of(si.iconBitmap))
+                                .applyTo(si);
+                        getShortcutList(outUpdates, si.user).add(si);
+                    }
+                }
+            }
+        }
+    }
+
+    private static ArrayList<ShortcutInfo> getShortcutList(
+            HashMap<UserHandle, ArrayList<ShortcutInfo>> map, UserHandle user) {
+        ArrayList<ShortcutInfo> list = map.get(user);
+        if (list == null) {
+            list = new ArrayList<>();
+            map.put(user, list);
+        }
+        return list;
+    }
+}
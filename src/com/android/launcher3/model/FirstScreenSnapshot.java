@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.model;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.UserHandle;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.ItemInfo;
+import com.android.launcher3.LauncherFiles;
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.ShortcutInfo;
+import com.android.launcher3.compat.UserManagerCompat;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persistent copy of the icons, titles and positions of the items on the first workspace page
+ * and the hotseat, saved after every successful load. On a cold start it is bound before the
+ * launcher DB and the icon cache are opened, and is replaced once the model is loaded.
+ *
+ * The file is read through a memory mapping, so that the icon pixels are copied into the
+ * bitmaps without any intermediate buffer. It is ignored when the icon DB version or the grid
+ * changed since it was written.
+ */
+public class FirstScreenSnapshot {
+
+    private static final String TAG = "FirstScreenSnapshot";
+
+    private static final int MAGIC = 0x46535331; // "FSS1"
+    private static final int FORMAT_VERSION = 1;
+
+    // Sanity limits, a larger value means the file is corrupt.
+    private static final int MAX_SCREENS = 1024;
+    private static final int MAX_ITEMS = 1024;
+    private static final int MAX_STRING_LENGTH = 64 * 1024;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+    private final int[] mSignature;
+    private final int mIconBitmapSize;
+
+    public FirstScreenSnapshot(Context context, InvariantDeviceProfile idp, int iconDbVersion) {
+        mContext = context;
+        mFile = new AtomicFile(
+                new File(context.getFilesDir(), LauncherFiles.FIRST_SCREEN_SNAPSHOT));
+        mSignature = new int[] {FORMAT_VERSION, iconDbVersion,
+                idp.numRows, idp.numColumns, idp.numHotseatIcons, idp.iconBitmapSize};
+        mIconBitmapSize = idp.iconBitmapSize;
+    }
+
+    /**
+     * Contents of a snapshot file.
+     */
+    public static class Data {
+        public final long firstScreenId;
+        public final ArrayList<Long> orderedScreenIds;
+        public final ArrayList<ItemInfo> items;
+
+        Data(long firstScreenId, ArrayList<Long> orderedScreenIds, ArrayList<ItemInfo> items) {
+            this.firstScreenId = firstScreenId;
+            this.orderedScreenIds = orderedScreenIds;
+            this.items = items;
+        }
+    }
+
+    /**
+     * Saves the items of {@param firstScreenId} and the hotseat. Items which can't be drawn
+     * from the snapshot alone (folders, widgets, or items without their final icon) are skipped.
+     */
+    public void write(long firstScreenId, ArrayList<Long> orderedScreenIds,
+            List<ItemInfo> items) {
+        UserManagerCompat userManager = UserManagerCompat.getInstance(mContext);
+        ArrayList<ShortcutInfo> shortcuts = new ArrayList<>();
+        for (ItemInfo item : items) {
+            if (!(item instanceof ShortcutInfo)) {
+                continue;
+            }
+            ShortcutInfo info = (ShortcutInfo) item;
+            boolean onFirstScreen = info.container == Favorites.CONTAINER_HOTSEAT
+                    || (info.container == Favorites.CONTAINER_DESKTOP
+                    && info.screenId == firstScreenId);
+            if (onFirstScreen && info.intent != null && info.iconBitmap != null
+                    && !info.usingLowResIcon) {
+                shortcuts.add(info);
+            }
+        }
+
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            for (int value : mSignature) {
+                out.writeInt(value);
+            }
+            out.writeLong(firstScreenId);
+            out.writeInt(orderedScreenIds.size());
+            for (long screenId : orderedScreenIds) {
+                out.writeLong(screenId);
+            }
+
+            out.writeInt(shortcuts.size());
+            for (ShortcutInfo info : shortcuts) {
+                Bitmap icon = info.iconBitmap;
+                if (icon.getConfig() != Bitmap.Config.ARGB_8888) {
+                    // Hardware bitmaps can't be read directly.
+                    icon = icon.copy(Bitmap.Config.ARGB_8888, false);
+                }
+                out.writeLong(info.id);
+                out.writeInt(info.itemType);
+                out.writeLong(info.container);
+                out.writeLong(info.screenId);
+                out.writeInt(info.cellX);
+                out.writeInt(info.cellY);
+                out.writeInt(info.rank);
+                out.writeLong(userManager.getSerialNumberForUser(info.user));
+                out.writeInt(info.runtimeStatusFlags);
+                writeString(out, info.title);
+                writeString(out, info.contentDescription);
+                writeString(out, info.intent.toUri(0));
+                out.writeInt(info.iconColor);
+                out.writeInt(icon.getWidth());
+                out.writeInt(icon.getHeight());
+                ByteBuffer pixels = ByteBuffer.allocate(icon.getByteCount());
+                icon.copyPixelsToBuffer(pixels);
+                out.write(pixels.array());
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Unable to write the first screen snapshot", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+
+    /**
+     * Returns the saved snapshot, or null if there is none or it is no longer valid.
+     */
+    public Data read() {
+        File file = mFile.getBaseFile();
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Data data = parse(buffer);
+            if (data == null) {
+                Log.d(TAG, "Discarding outdated first screen snapshot");
+                delete();
+            }
+            return data;
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            // RuntimeExceptions are thrown when reading past the end of a truncated file.
+            Log.e(TAG, "Unable to read the first screen snapshot", e);
+            delete();
+            return null;
+        }
+    }
+
+    public void delete() {
+        mFile.delete();
+    }
+
+    private Data parse(ByteBuffer buffer) throws URISyntaxException {
+        if (buffer.getInt() != MAGIC) {
+            return null;
+        }
+        for (int value : mSignature) {
+            if (buffer.getInt() != value) {
+                return null;
+            }
+        }
+
+        long firstScreenId = buffer.getLong();
+        int screenCount = checkCount(buffer.getInt(), MAX_SCREENS);
+        ArrayList<Long> orderedScreenIds = new ArrayList<>(screenCount);
+        for (int i = 0; i < screenCount; i++) {
+            orderedScreenIds.add(buffer.getLong());
+        }
+
+        UserManagerCompat userManager = UserManagerCompat.getInstance(mContext);
+        int itemCount = checkCount(buffer.getInt(), MAX_ITEMS);
+        ArrayList<ItemInfo> items = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            ShortcutInfo info = new ShortcutInfo();
+            info.id = buffer.getLong();
+            info.itemType = buffer.getInt();
+            info.container = buffer.getLong();
+            info.screenId = buffer.getLong();
+            info.cellX = buffer.getInt();
+            info.cellY = buffer.getInt();
+            info.rank = buffer.getInt();
+            UserHandle user = userManager.getUserForSerialNumber(buffer.getLong());
+            info.runtimeStatusFlags = buffer.getInt();
+            info.title = readString(buffer);
+            info.contentDescription = readString(buffer);
+            info.intent = Intent.parseUri(readString(buffer), 0);
+            info.iconColor = buffer.getInt();
+
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            // Checked before allocating, so that a corrupt file can't run out of memory.
+            if (width <= 0 || height <= 0 || width > mIconBitmapSize || height > mIconBitmapSize
+                    || (long) width * height * BYTES_PER_PIXEL > buffer.remaining()) {
+                throw new IllegalStateException("Invalid icon size " + width + "x" + height);
+            }
+            Bitmap icon = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            ByteBuffer pixels = buffer.slice();
+            pixels.limit(icon.getByteCount());
+            icon.copyPixelsFromBuffer(pixels);
+            buffer.position(buffer.position() + icon.getByteCount());
+
+            // Skip the items of profiles removed since the snapshot was written.
+            if (user != null) {
+                info.user = user;
+                info.iconBitmap = icon;
+                items.add(info);
+            }
+        }
+        return new Data(firstScreenId, orderedScreenIds, items);
+    }
+
+    private static int checkCount(int count, int max) {
+        if (count < 0 || count > max) {
+            throw new IllegalStateException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    private static void writeString(DataOutputStream out, CharSequence value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[checkCount(length, MAX_STRING_LENGTH)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
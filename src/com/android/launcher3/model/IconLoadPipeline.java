@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.model;
+
+import android.util.Log;
+
+import com.android.launcher3.ShortcutInfo;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Bounded pool used by {@link LoaderTask} to generate the workspace icons while the workspace
+ * cursor is still being read. Priority tasks (items bound with the first page) always run before
+ * the deferred ones, and are awaited before binding. Deferred tasks are collected afterwards and
+ * delivered in batches.
+ *
+ * The tasks never modify the items, which may already be bound. Each task loads into a copy of
+ * its item, which is applied to the item by the thread awaiting the task.
+ *
+ * Tasks must be submitted and awaited from a single thread, {@link #cancel()} can be called from
+ * any thread.
+ */
+public class IconLoadPipeline {
+
+    private static final String TAG = "IconLoadPipeline";
+
+    private static final int MAX_THREADS = 4;
+
+    /**
+     * Receives the items whose icon was loaded by a deferred task.
+     */
+    public interface BatchCallback {
+        void onBatchLoaded(ArrayList<ShortcutInfo> batch);
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final ArrayList<LoadTask> mPriorityTasks = new ArrayList<>();
+    private final ArrayList<LoadTask> mDeferredTasks = new ArrayList<>();
+
+    private long mSequence;
+    private volatile boolean mCanceled;
+
+    public IconLoadPipeline() {
+        int threads = Math.max(1,
+                Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        mExecutor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Schedules {@param load}, which returns a copy of {@param info} with its icon and title
+     * filled. They are applied to {@param info} once the task is awaited.
+     * @param priority true if the item is bound with the first page.
+     */
+    public void submit(ShortcutInfo info, boolean priority, Callable<ShortcutInfo> load) {
+        LoadTask task = new LoadTask(info, priority, mSequence++, load);
+        (priority ? mPriorityTasks : mDeferredTasks).add(task);
+        mExecutor.execute(task);
+    }
+
+    /**
+     * Waits for all the priority tasks to complete.
+     */
+    public void awaitPriority() {
+        for (LoadTask task : mPriorityTasks) {
+            if (mCanceled) {
+                break;
+            }
+            await(task);
+        }
+        mPriorityTasks.clear();
+    }
+
+    /**
+     * Waits for the deferred tasks in submission order, and delivers the updated items to
+     * {@param callback} in batches of {@param batchSize}. Stops once the pipeline is canceled,
+     * without delivering the pending batch.
+     */
+    public void awaitDeferred(int batchSize, BatchCallback callback) {
+        ArrayList<ShortcutInfo> batch = new ArrayList<>(batchSize);
+        for (LoadTask task : mDeferredTasks) {
+            if (mCanceled) {
+                mDeferredTasks.clear();
+                return;
+            }
+            if (await(task)) {
+                batch.add(task.info);
+            }
+            if (batch.size() >= batchSize) {
+                callback.onBatchLoaded(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty() && !mCanceled) {
+            callback.onBatchLoaded(batch);
+        }
+        mDeferredTasks.clear();
+    }
+
+    /**
+     * Cancels all the pending tasks: the ones which haven't started are skipped, and the awaiting
+     * thread stops waiting.
+     */
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    private boolean await(LoadTask task) {
+        try {
+            ShortcutInfo loaded = task.get();
+            task.info.iconBitmap = loaded.iconBitmap;
+            task.info.iconColor = loaded.iconColor;
+            task.info.usingLowResIcon = loaded.usingLowResIcon;
+            task.info.title = loaded.title;
+            task.info.contentDescription = loaded.contentDescription;
+            return true;
+        } catch (InterruptedException e) {
+            // Abort the wait, the remaining tasks are skipped.
+            Thread.currentThread().interrupt();
+            cancel();
+            return false;
+        } catch (ExecutionException | CancellationException e) {
+            if (!mCanceled) {
+                Log.e(TAG, "Failed to load icon for " + task.info, e);
+            }
+            return false;
+        }
+    }
+
+    private class LoadTask extends FutureTask<ShortcutInfo>
+            implements Comparable<LoadTask> {
+
+        final ShortcutInfo info;
+        private final boolean mPriority;
+        private final long mSequence;
+
+        LoadTask(ShortcutInfo info, boolean priority, long sequence,
+                Callable<ShortcutInfo> load) {
+            super(load);
+            this.info = info;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            if (mCanceled) {
+                // Completes the task, so that it isn't awaited.
+                cancel(false);
+            } else {
+                super.run();
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull LoadTask other) {
+            if (mPriority != other.mPriority) {
+                return mPriority ? -1 : 1;
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+}
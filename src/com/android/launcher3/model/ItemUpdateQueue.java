@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.model;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.LauncherModel;
+import com.android.launcher3.provider.LauncherDao;
+import com.android.launcher3.util.ContentWriter;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Write-behind queue for the item updates of {@link ModelWriter}. Updates of the same item made
+ * within {@link #FLUSH_DELAY_MS} are merged, and all the pending items are written with a single
+ * {@link LauncherDao#updateItems}, which runs in one transaction.
+ *
+ * Any other DB operation which could depend on the pending updates must call {@link #flush()}
+ * before being posted to the worker thread, so that the updates are written first.
+ *
+ * This class is thread safe.
+ */
+public class ItemUpdateQueue {
+
+    private static final String TAG = "ItemUpdateQueue";
+
+    // Long enough to cover the updates of a single drop or page rearrangement.
+    private static final long FLUSH_DELAY_MS = 100;
+
+    private final Context mContext;
+    private final Handler mWorkerHandler;
+    private final Runnable mDelayedFlush = this::flushOnWorker;
+
+    // Pending updates in the order in which the items were first updated.
+    private LinkedHashMap<Long, PendingUpdate> mPending = new LinkedHashMap<>();
+
+    private int mUpdateCount;
+    private int mCoalescedCount;
+    private int mBatchCount;
+    private int mFailedBatchCount;
+
+    public ItemUpdateQueue(Context context) {
+        mContext = context;
+        mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+    }
+
+    /**
+     * Queues the values of {@param writer} for the item. {@param onWritten} is run on the worker
+     * thread once they are in the DB, even if they were merged with later updates.
+     */
+    public synchronized void enqueue(long itemId, ContentWriter writer, Runnable onWritten) {
+        mUpdateCount++;
+        PendingUpdate update = mPending.get(itemId);
+        if (update == null) {
+            update = new PendingUpdate(itemId);
+            mPending.put(itemId, update);
+        } else {
+            mCoalescedCount++;
+        }
+        update.writers.add(writer);
+        update.onWritten.add(onWritten);
+
+        if (mPending.size() == 1 && update.writers.size() == 1) {
+            mWorkerHandler.postDelayed(mDelayedFlush, FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Writes the pending updates ahead of anything posted to the worker thread afterwards. If
+     * called on the worker thread, the updates are written right away.
+     */
+    public void flush() {
+        mWorkerHandler.removeCallbacks(mDelayedFlush);
+        if (Looper.myLooper() == mWorkerHandler.getLooper()) {
+            flushOnWorker();
+            return;
+        }
+        final LinkedHashMap<Long, PendingUpdate> batch = takePending();
+        if (batch != null) {
+            mWorkerHandler.post(() -> write(batch));
+        }
+    }
+
+    private void flushOnWorker() {
+        LinkedHashMap<Long, PendingUpdate> batch = takePending();
+        if (batch != null) {
+            write(batch);
+        }
+    }
+
+    private synchronized LinkedHashMap<Long, PendingUpdate> takePending() {
+        if (mPending.isEmpty()) {
+            return null;
+        }
+        LinkedHashMap<Long, PendingUpdate> batch = mPending;
+        mPending = new LinkedHashMap<>();
+        return batch;
+    }
+
+    private void write(LinkedHashMap<Long, PendingUpdate> batch) {
+        LinkedHashMap<Long, ContentValues> updates = new LinkedHashMap<>(batch.size());
+        for (PendingUpdate update : batch.values()) {
+            ContentValues values = new ContentValues();
+            for (ContentWriter writer : update.writers) {
+                values.putAll(writer.getValues(mContext));
+            }
+            updates.put(update.itemId, values);
+        }
+
+        boolean failed = false;
+        try {
+            LauncherAppState.getInstance(mContext).getLauncherDao().updateItems(updates);
+        } catch (Exception e) {
+            Log.e(TAG, "Error writing " + updates.size() + " item updates", e);
+            failed = true;
+        }
+        synchronized (this) {
+            mBatchCount++;
+            if (failed) {
+                mFailedBatchCount++;
+            }
+        }
+
+        for (PendingUpdate update : batch.values()) {
+            for (Runnable r : update.onWritten) {
+                r.run();
+            }
+        }
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "ItemUpdateQueue: pending=" + mPending.size()
+                + " updates=" + mUpdateCount
+                + " coalesced=" + mCoalescedCount
+                + " batches=" + mBatchCount
+                + " failedBatches=" + mFailedBatchCount);
+    }
+
+    private static class PendingUpdate {
+        final long itemId;
+        final ArrayList<ContentWriter> writers = new ArrayList<>(1);
+        final ArrayList<Runnable> onWritten = new ArrayList<>(1);
+
+        PendingUpdate(long itemId) {
+            this.itemId = itemId;
+        }
+    }
+}
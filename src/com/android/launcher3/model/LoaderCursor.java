@@ -46,9 +46,11 @@ import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.graphics.BitmapInfo;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.logging.FileLog;
+import com.android.launcher3.provider.LauncherDao;
 import com.android.launcher3.util.ContentWriter;
 import com.android.launcher3.util.GridOccupancy;
 import com.android.launcher3.util.LongArrayMap;
+import com.android.launcher3.util.Provider;
 
 import org.zimmob.zimlx.ZimPreferences;
 
@@ -63,12 +65,38 @@ public class LoaderCursor extends CursorWrapper {
 
     private static final String TAG = "LoaderCursor";
 
+    /**
+     * Columns read while loading the workspace. The icon blobs are left out, as most items get
+     * their icon from the icon cache. They are read by id for the items which need them.
+     */
+    public static final String[] WORKSPACE_PROJECTION = new String[] {
+            LauncherSettings.Favorites._ID,
+            LauncherSettings.Favorites.TITLE,
+            LauncherSettings.Favorites.INTENT,
+            LauncherSettings.Favorites.CONTAINER,
+            LauncherSettings.Favorites.SCREEN,
+            LauncherSettings.Favorites.CELLX,
+            LauncherSettings.Favorites.CELLY,
+            LauncherSettings.Favorites.SPANX,
+            LauncherSettings.Favorites.SPANY,
+            LauncherSettings.Favorites.ITEM_TYPE,
+            LauncherSettings.Favorites.APPWIDGET_ID,
+            LauncherSettings.Favorites.APPWIDGET_PROVIDER,
+            LauncherSettings.Favorites.ICON_PACKAGE,
+            LauncherSettings.Favorites.ICON_RESOURCE,
+            LauncherSettings.Favorites.RESTORED,
+            LauncherSettings.Favorites.PROFILE_ID,
+            LauncherSettings.Favorites.RANK,
+            LauncherSettings.Favorites.OPTIONS,
+    };
+
     public final LongSparseArray<UserHandle> allUsers = new LongSparseArray<>();
 
     private final Context mContext;
     private final UserManagerCompat mUserManager;
     private final IconCache mIconCache;
     private final InvariantDeviceProfile mIDP;
+    private final LauncherDao mDao;
 
     private final ArrayList<Long> itemsToRemove = new ArrayList<>();
     private final ArrayList<Long> restoredRows = new ArrayList<>();
@@ -76,6 +104,7 @@ public class LoaderCursor extends CursorWrapper {
 
     private final int iconPackageIndex;
     private final int iconResourceIndex;
+    // -1 if the icon blobs are not part of the projection.
     private final int iconIndex;
     public final int titleIndex;
 
@@ -107,7 +136,8 @@ public class LoaderCursor extends CursorWrapper {
         mUserManager = UserManagerCompat.getInstance(mContext);
 
         // Init column indices
-        iconIndex = getColumnIndexOrThrow(LauncherSettings.Favorites.ICON);
+        iconIndex = getColumnIndex(LauncherSettings.Favorites.ICON);
+        mDao = iconIndex < 0 ? app.getLauncherDao() : null;
         iconPackageIndex = getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_PACKAGE);
         iconResourceIndex = getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_RESOURCE);
         titleIndex = getColumnIndexOrThrow(LauncherSettings.Favorites.TITLE);
@@ -190,7 +220,34 @@ public class LoaderCursor extends CursorWrapper {
         }
 
         // Failed to load from resource, try loading from DB.
-        byte[] data = getBlob(iconIndex);
+        return loadIconFromBlob(info, getIconBlob().get());
+    }
+
+    /**
+     * Returns the icon blob of the current item. If the blob is not part of the projection, it is
+     * only read from the DB when requested, which can be after the cursor has moved on.
+     */
+    private Provider<byte[]> getIconBlob() {
+        if (iconIndex >= 0) {
+            return Provider.of(getBlob(iconIndex));
+        }
+        final long itemId = id;
+        return new Provider<byte[]>() {
+            @Override
+            public byte[] get() {
+                try (Cursor c = mDao.queryFavorites(
+                        new String[]{LauncherSettings.Favorites.ICON},
+                        LauncherSettings.Favorites._ID + " = " + itemId, null, null)) {
+                    return c.moveToNext() ? c.getBlob(0) : null;
+                }
+            }
+        };
+    }
+
+    private boolean loadIconFromBlob(ShortcutInfo info, byte[] data) {
+        if (data == null) {
+            return false;
+        }
         try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
             li.createIconBitmap(BitmapFactory.decodeByteArray(data, 0, data.length)).applyTo(info);
             return true;
@@ -246,6 +303,16 @@ public class LoaderCursor extends CursorWrapper {
      */
     public ShortcutInfo getAppShortcutInfo(
             Intent intent, boolean allowMissingTarget, boolean useLowResIcon) {
+        return getAppShortcutInfo(intent, allowMissingTarget, useLowResIcon, null, false);
+    }
+
+    /**
+     * Same as {@link #getAppShortcutInfo(Intent, boolean, boolean)}, but if {@param pipeline} is
+     * not null, the icon and title are generated on the pipeline and the returned info only has
+     * placeholder values until the pipeline is awaited.
+     */
+    public ShortcutInfo getAppShortcutInfo(Intent intent, boolean allowMissingTarget,
+            boolean useLowResIcon, IconLoadPipeline pipeline, boolean priority) {
         if (user == null) {
             Log.d(TAG, "Null user found in getShortcutInfo");
             return null;
@@ -272,27 +339,50 @@ public class LoaderCursor extends CursorWrapper {
         info.user = user;
         info.intent = newIntent;
 
-        mIconCache.getTitleAndIcon(info, lai, useLowResIcon);
-        if (mIconCache.isDefaultIcon(info.iconBitmap, user)) {
-            loadIcon(info);
-        }
-
         if (lai != null) {
             AppInfo.updateRuntimeFlagsForActivityTarget(info, lai);
         }
 
+        // Read everything needed from the cursor now, as it will have moved on by the time a
+        // pipeline task runs.
+        String dbTitle = getTitle();
+        Provider<byte[]> dbIcon = getIconBlob();
+        if (pipeline == null) {
+            loadTitleAndIcon(info, lai, useLowResIcon, dbTitle, dbIcon);
+        } else {
+            // The task loads into a copy, as the item gets placeholders and may be bound before
+            // the pipeline is awaited.
+            final ShortcutInfo loaded = new ShortcutInfo(info);
+            mIconCache.getDefaultIcon(user).applyTo(info);
+            info.usingLowResIcon = true;
+            info.title = dbTitle;
+            info.contentDescription = mUserManager.getBadgedLabelForUser(info.title, info.user);
+            pipeline.submit(info, priority, () -> {
+                loadTitleAndIcon(loaded, lai, useLowResIcon, dbTitle, dbIcon);
+                return loaded;
+            });
+        }
+        return info;
+    }
+
+    private void loadTitleAndIcon(ShortcutInfo info, LauncherActivityInfo lai,
+            boolean useLowResIcon, String dbTitle, Provider<byte[]> dbIcon) {
+        mIconCache.getTitleAndIcon(info, lai, useLowResIcon);
+        if (mIconCache.isDefaultIcon(info.iconBitmap, info.user)) {
+            loadIconFromBlob(info, dbIcon.get());
+        }
+
         // from the db
         if (TextUtils.isEmpty(info.title)) {
-            info.title = getTitle();
+            info.title = dbTitle;
         }
 
         // fall back to the class name of the activity
         if (info.title == null) {
-            info.title = componentName.getClassName();
+            info.title = info.getTargetComponent().getClassName();
         }
 
         info.contentDescription = mUserManager.getBadgedLabelForUser(info.title, info.user);
-        return info;
     }
 
     /**
@@ -16,7 +16,9 @@
 
 package com.android.launcher3.model;
 
+import android.os.Handler;
 import android.os.Looper;
+import android.os.UserHandle;
 import android.util.Log;
 
 import com.android.launcher3.AllAppsList;
@@ -29,6 +31,7 @@ import com.android.launcher3.LauncherModel.Callbacks;
 import com.android.launcher3.LauncherSettings;
 import com.android.launcher3.MainThreadExecutor;
 import com.android.launcher3.PagedView;
+import com.android.launcher3.ShortcutInfo;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.util.ComponentKey;
@@ -43,6 +46,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
 
@@ -64,6 +68,9 @@ public class LoaderResults {
 
     private final WeakReference<Callbacks> mCallbacks;
 
+    // Set when a first screen snapshot was bound before the workspace, see #bindSnapshot.
+    private boolean mSnapshotBound;
+
     public LoaderResults(LauncherAppState app, BgDataModel dataModel,
                          AllAppsList allAppsList, int pageToBindFirst, WeakReference<Callbacks> callbacks) {
         mUiExecutor = new MainThreadExecutor();
@@ -101,16 +108,7 @@ public class LoaderResults {
             mBgDataModel.lastBindId++;
         }
 
-        final int currentScreen;
-        {
-            int currScreen = mPageToBindFirst != PagedView.INVALID_RESTORE_PAGE
-                    ? mPageToBindFirst : callbacks.getCurrentWorkspaceScreen();
-            if (currScreen >= orderedScreenIds.size()) {
-                // There may be no workspace screens (just hotseat items and an empty page).
-                currScreen = PagedView.INVALID_RESTORE_PAGE;
-            }
-            currentScreen = currScreen;
-        }
+        final int currentScreen = getPageToBindFirst(callbacks, orderedScreenIds);
         final boolean validFirstPage = currentScreen >= 0;
         final long currentScreenId =
                 validFirstPage ? orderedScreenIds.get(currentScreen) : INVALID_SCREEN_ID;
@@ -128,6 +126,11 @@ public class LoaderResults {
         sortWorkspaceItemsSpatially(currentWorkspaceItems);
         sortWorkspaceItemsSpatially(otherWorkspaceItems);
 
+        // When a snapshot is showing, the first page is bound in a single task so that no frame
+        // is drawn between clearing the snapshot and binding the actual items.
+        final ArrayList<Runnable> firstPageTasks = new ArrayList<>();
+        final Executor firstPageExecutor = mSnapshotBound ? firstPageTasks::add : mUiExecutor;
+
         // Tell the workspace that we're about to start binding items
         r = () -> {
             Callbacks callbacks1 = mCallbacks.get();
@@ -136,10 +139,10 @@ public class LoaderResults {
                 callbacks1.startBinding();
             }
         };
-        mUiExecutor.execute(r);
+        firstPageExecutor.execute(r);
 
         // Bind workspace screens
-        mUiExecutor.execute(() -> {
+        firstPageExecutor.execute(() -> {
             Callbacks callbacks12 = mCallbacks.get();
             if (callbacks12 != null) {
                 callbacks12.bindScreens(orderedScreenIds);
@@ -148,7 +151,7 @@ public class LoaderResults {
 
         Executor mainExecutor = mUiExecutor;
         // Load items on the current page.
-        bindWorkspaceItems(currentWorkspaceItems, currentAppWidgets, mainExecutor);
+        bindWorkspaceItems(currentWorkspaceItems, currentAppWidgets, firstPageExecutor);
 
         // In case of validFirstPage, only bind the first screen, and defer binding the
         // remaining screens after first onDraw (and an optional the fade animation whichever
@@ -158,13 +161,20 @@ public class LoaderResults {
         final Executor deferredExecutor =
                 validFirstPage ? new ViewOnDrawExecutor() : mainExecutor;
 
-        mainExecutor.execute(() -> {
+        firstPageExecutor.execute(() -> {
             Callbacks callbacks13 = mCallbacks.get();
             if (callbacks13 != null) {
                 callbacks13.finishFirstPageBind(
                         validFirstPage ? (ViewOnDrawExecutor) deferredExecutor : null);
             }
         });
+        if (mSnapshotBound) {
+            mainExecutor.execute(() -> {
+                for (Runnable task : firstPageTasks) {
+                    task.run();
+                }
+            });
+        }
 
         bindWorkspaceItems(otherWorkspaceItems, otherAppWidgets, deferredExecutor);
 
@@ -195,6 +205,80 @@ public class LoaderResults {
     }
 
 
+    /**
+     * Binds the first page saved by a previous process, see {@link FirstScreenSnapshot}. The
+     * workspace stays in the loading state, and the snapshot is replaced by the first page bound
+     * by {@link #bindWorkspace}.
+     */
+    public void bindSnapshot(FirstScreenSnapshot.Data snapshot) {
+        Callbacks callbacks = mCallbacks.get();
+        if (snapshot == null || callbacks == null) {
+            return;
+        }
+        int page = getPageToBindFirst(callbacks, snapshot.orderedScreenIds);
+        if (page < 0 || snapshot.orderedScreenIds.get(page) != snapshot.firstScreenId) {
+            // The launcher is not going to show the saved page.
+            return;
+        }
+        mSnapshotBound = true;
+
+        // Always posted, so that it runs after the launcher hides the workspace for the load
+        // animation, which is then started by finishFirstPageBind.
+        new Handler(Looper.getMainLooper()).post(() -> {
+            Callbacks callbacks1 = mCallbacks.get();
+            if (callbacks1 != null) {
+                callbacks1.clearPendingBinds();
+                callbacks1.startBinding();
+                callbacks1.bindScreens(new ArrayList<>(snapshot.orderedScreenIds));
+                callbacks1.bindItems(snapshot.items, false);
+                callbacks1.finishFirstPageBind(null);
+            }
+        });
+    }
+
+    private int getPageToBindFirst(Callbacks callbacks, ArrayList<Long> orderedScreenIds) {
+        int currScreen = mPageToBindFirst != PagedView.INVALID_RESTORE_PAGE
+                ? mPageToBindFirst : callbacks.getCurrentWorkspaceScreen();
+        if (currScreen >= orderedScreenIds.size()) {
+            // There may be no workspace screens (just hotseat items and an empty page).
+            currScreen = PagedView.INVALID_RESTORE_PAGE;
+        }
+        return currScreen;
+    }
+
+    /**
+     * Returns the id of the screen which will be bound first by {@link #bindWorkspace}, or
+     * {@link #INVALID_SCREEN_ID} if there is none.
+     */
+    public long getScreenIdToBindFirst(ArrayList<Long> orderedScreenIds) {
+        Callbacks callbacks = mCallbacks.get();
+        if (callbacks == null) {
+            return INVALID_SCREEN_ID;
+        }
+        int screen = getPageToBindFirst(callbacks, orderedScreenIds);
+        return screen >= 0 ? orderedScreenIds.get(screen) : INVALID_SCREEN_ID;
+    }
+
+    /**
+     * Rebinds workspace items whose icon and title were updated after {@link #bindWorkspace}.
+     */
+    public void bindUpdatedShortcuts(ArrayList<ShortcutInfo> updated) {
+        MultiHashMap<UserHandle, ShortcutInfo> updatedByUser = new MultiHashMap<>();
+        for (ShortcutInfo info : updated) {
+            updatedByUser.addToList(info.user, info);
+        }
+        for (Map.Entry<UserHandle, ArrayList<ShortcutInfo>> entry : updatedByUser.entrySet()) {
+            UserHandle user = entry.getKey();
+            ArrayList<ShortcutInfo> shortcuts = entry.getValue();
+            mUiExecutor.execute(() -> {
+                Callbacks callbacks = mCallbacks.get();
+                if (callbacks != null) {
+                    callbacks.bindShortcutsChanged(shortcuts, user);
+                }
+            });
+        }
+    }
+
     /**
      * Filters the set of items who are directly or indirectly (via another container) on the
      * specified screen.
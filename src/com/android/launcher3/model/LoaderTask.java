@@ -25,6 +25,7 @@ import android.content.IntentFilter;
 import android.content.pm.LauncherActivityInfo;
 import android.content.pm.PackageInstaller;
 import android.content.pm.PackageInstaller.SessionInfo;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.os.Handler;
 import android.os.Process;
@@ -56,6 +57,7 @@ import com.android.launcher3.folder.FolderIconPreviewVerifier;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.logging.FileLog;
 import com.android.launcher3.provider.ImportDataTask;
+import com.android.launcher3.provider.LauncherDao;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.shortcuts.ShortcutKey;
@@ -66,6 +68,7 @@ import com.android.launcher3.util.PackageManagerHelper;
 import com.android.launcher3.util.Provider;
 import com.android.launcher3.util.TraceHelper;
 
+import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -90,6 +93,9 @@ import static com.android.launcher3.model.LoaderResults.filterCurrentWorkspaceIt
 public class LoaderTask implements Runnable {
     private static final String TAG = "LoaderTask";
 
+    // Number of deferred workspace items rebound together once their icons are ready.
+    private static final int DEFERRED_ICONS_BATCH_SIZE = 20;
+
     private final LauncherAppState mApp;
     private final AllAppsList mBgAllAppsList;
     private final BgDataModel mBgDataModel;
@@ -104,6 +110,7 @@ public class LoaderTask implements Runnable {
     private final PackageInstallerCompat mPackageInstaller;
     private final AppWidgetManagerCompat mAppWidgetManager;
     private final IconCache mIconCache;
+    private final IconLoadPipeline mIconPipeline = new IconLoadPipeline();
 
     private boolean mStopped;
 
@@ -154,6 +161,25 @@ public class LoaderTask implements Runnable {
         mFirstScreenBroadcast.sendBroadcasts(mApp.getContext(), firstScreenItems);
     }
 
+    /**
+     * Saves the items bound with the first page, so that the next process can show them before
+     * the model is loaded.
+     */
+    private void saveFirstScreenSnapshot() {
+        ArrayList<ItemInfo> allItems = new ArrayList<>();
+        ArrayList<Long> orderedScreenIds = new ArrayList<>();
+        synchronized (mBgDataModel) {
+            allItems.addAll(mBgDataModel.workspaceItems);
+            orderedScreenIds.addAll(mBgDataModel.workspaceScreens);
+        }
+        long firstScreenId = mResults.getScreenIdToBindFirst(orderedScreenIds);
+        ArrayList<ItemInfo> firstScreenItems = new ArrayList<>();
+        filterCurrentWorkspaceItems(firstScreenId, allItems, firstScreenItems,
+                new ArrayList<>() /* otherScreenItems are ignored */);
+        mApp.getModel().getFirstScreenSnapshot()
+                .write(firstScreenId, orderedScreenIds, firstScreenItems);
+    }
+
     public void run() {
         synchronized (this) {
             // Skip fast if we are already stopped.
@@ -175,6 +201,19 @@ public class LoaderTask implements Runnable {
             TraceHelper.partitionSection(TAG, "step 1.3: send first screen broadcast");
             sendFirstScreenActiveInstallsBroadcast();
 
+            // The icons of the other pages were generated in parallel, rebind them as they
+            // become available.
+            TraceHelper.partitionSection(TAG, "step 1.4: bind deferred workspace icons");
+            mIconPipeline.awaitDeferred(DEFERRED_ICONS_BATCH_SIZE, batch -> {
+                // A newer loader may be rebuilding the workspace.
+                verifyNotStopped();
+                mResults.bindUpdatedShortcuts(batch);
+            });
+
+            verifyNotStopped();
+            TraceHelper.partitionSection(TAG, "step 1.5: save first screen snapshot");
+            saveFirstScreenSnapshot();
+
             // Take a break
             TraceHelper.partitionSection(TAG, "step 1 completed, wait for idle");
             waitForIdle();
@@ -221,6 +260,7 @@ public class LoaderTask implements Runnable {
             transaction.commit();
         } catch (CancellationException e) {
             // Loader stopped, ignore
+            mIconPipeline.cancel();
             TraceHelper.partitionSection(TAG, "Cancelled");
         }
         TraceHelper.endSection(TAG);
@@ -228,6 +268,7 @@ public class LoaderTask implements Runnable {
 
     public synchronized void stopLocked() {
         mStopped = true;
+        mIconPipeline.cancel();
         this.notify();
     }
 
@@ -268,11 +309,22 @@ public class LoaderTask implements Runnable {
             final HashMap<String, SessionInfo> installingPkgs =
                     mPackageInstaller.updateAndGetActiveSessionCache();
             mFirstScreenBroadcast = new FirstScreenBroadcast(installingPkgs);
-            mBgDataModel.workspaceScreens.addAll(LauncherModel.loadWorkspaceScreensDb(context));
+            final LauncherDao dao = mApp.getLauncherDao();
+            mBgDataModel.workspaceScreens.addAll(dao.loadWorkspaceScreens());
+
+            // Icons for the items bound with the first page are awaited before binding, the
+            // other ones are generated in the background and rebound afterwards.
+            final long firstScreenId = mResults.getScreenIdToBindFirst(
+                    mBgDataModel.workspaceScreens);
+
+            TraceHelper.partitionSection(TAG, "step 1.1.1: prefetching first screen icons");
+            prefetchFirstScreenIcons(dao, firstScreenId);
+            TraceHelper.partitionSection(TAG, "step 1.1.2: loading workspace items");
 
             Map<ShortcutKey, ShortcutInfoCompat> shortcutKeyToPinnedShortcuts = new HashMap<>();
-            final LoaderCursor c = new LoaderCursor(contentResolver.query(
-                    LauncherSettings.Favorites.CONTENT_URI, null, null, null, null), mApp);
+            final LoaderCursor c = new LoaderCursor(dao.queryFavorites(
+                    LoaderCursor.WORKSPACE_PROJECTION, null, null,
+                    getWorkspaceSortOrder(firstScreenId)), mApp);
 
             HashMap<ComponentKey, AppWidgetProviderInfo> widgetProvidersMap = null;
 
@@ -289,6 +341,8 @@ public class LoaderTask implements Runnable {
                         LauncherSettings.Favorites.RANK);
                 final int optionsIndex = c.getColumnIndexOrThrow(
                         LauncherSettings.Favorites.OPTIONS);
+                final int screenIndex = c.getColumnIndexOrThrow(
+                        LauncherSettings.Favorites.SCREEN);
                 /*final int titleAliasIndex = c.getColumnIndexOrThrow(
                         LauncherSettings.Favorites.TITLE_ALIAS);
                 final int customIconEntryIndex = c.getColumnIndexOrThrow(
@@ -473,8 +527,11 @@ public class LoaderTask implements Runnable {
                                     info = c.getRestoredItemInfo(intent);
                                 } else if (c.itemType ==
                                         LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
-                                    info = c.getAppShortcutInfo(
-                                            intent, allowMissingTarget, useLowResIcon);
+                                    boolean boundFirst =
+                                            c.container != LauncherSettings.Favorites.CONTAINER_DESKTOP
+                                            || c.getLong(screenIndex) == firstScreenId;
+                                    info = c.getAppShortcutInfo(intent, allowMissingTarget,
+                                            useLowResIcon, mIconPipeline, boundFirst);
                                 } else if (c.itemType ==
                                         LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT) {
 
@@ -718,10 +775,15 @@ public class LoaderTask implements Runnable {
 
             // Break early if we've stopped loading
             if (mStopped) {
+                mIconPipeline.cancel();
                 mBgDataModel.clear();
                 return;
             }
 
+            TraceHelper.partitionSection(TAG, "step 1.1.3: waiting for first page icons");
+            mIconPipeline.awaitPriority();
+            TraceHelper.partitionSection(TAG, "step 1.1.4: finishing workspace");
+
             // Remove dead items
             if (c.commitDeleted()) {
                 // Remove any empty folder
@@ -821,6 +883,71 @@ public class LoaderTask implements Runnable {
         mIconCache.updateDbIcons(packagesToIgnore);
     }
 
+    /**
+     * Returns the selection of the items bound with the first page: the items of
+     * {@param firstScreenId} and the hotseat, along with the contents of their folders.
+     */
+    private static String getFirstScreenSelection(long firstScreenId) {
+        String firstScreen = LauncherSettings.Favorites.CONTAINER + " = "
+                + LauncherSettings.Favorites.CONTAINER_HOTSEAT + " OR ("
+                + LauncherSettings.Favorites.CONTAINER + " = "
+                + LauncherSettings.Favorites.CONTAINER_DESKTOP + " AND "
+                + LauncherSettings.Favorites.SCREEN + " = " + firstScreenId + ")";
+        return "(" + firstScreen + " OR " + LauncherSettings.Favorites.CONTAINER
+                + " IN (SELECT " + LauncherSettings.Favorites._ID
+                + " FROM " + LauncherSettings.Favorites.TABLE_NAME
+                + " WHERE " + LauncherSettings.Favorites.ITEM_TYPE + " = "
+                + LauncherSettings.Favorites.ITEM_TYPE_FOLDER + " AND (" + firstScreen + ")))";
+    }
+
+    /**
+     * Returns the order in which the workspace items are read: the items bound with the first
+     * page come first, so that their icons are queued ahead of the other pages. Items of the
+     * same container and screen keep their id order, which decides the winner of an overlap.
+     */
+    private static String getWorkspaceSortOrder(long firstScreenId) {
+        return "CASE WHEN " + getFirstScreenSelection(firstScreenId) + " THEN 0 ELSE 1 END, "
+                + LauncherSettings.Favorites.CONTAINER + ", "
+                + LauncherSettings.Favorites.SCREEN + ", "
+                + LauncherSettings.Favorites._ID;
+    }
+
+    /**
+     * Reads the icons of the apps bound with the first page in bulk, so that the workspace
+     * loading below does not need a DB query per item.
+     */
+    private void prefetchFirstScreenIcons(LauncherDao dao, long firstScreenId) {
+        ArrayList<ComponentKey> keys = new ArrayList<>();
+        try (Cursor c = dao.queryFavorites(
+                new String[]{LauncherSettings.Favorites.INTENT,
+                        LauncherSettings.Favorites.PROFILE_ID},
+                LauncherSettings.Favorites.ITEM_TYPE + " = ? AND "
+                        + getFirstScreenSelection(firstScreenId),
+                new String[]{
+                        Integer.toString(LauncherSettings.Favorites.ITEM_TYPE_APPLICATION)},
+                null)) {
+            if (c == null) {
+                return;
+            }
+            while (c.moveToNext()) {
+                String intentDescription = c.getString(0);
+                UserHandle user = mUserManager.getUserForSerialNumber(c.getLong(1));
+                if (TextUtils.isEmpty(intentDescription) || user == null) {
+                    continue;
+                }
+                try {
+                    ComponentName cn = Intent.parseUri(intentDescription, 0).getComponent();
+                    if (cn != null) {
+                        keys.add(new ComponentKey(cn, user));
+                    }
+                } catch (URISyntaxException e) {
+                    // Invalid items are handled by the main workspace loading.
+                }
+            }
+        }
+        mIconCache.prefetch(keys, false /* lowRes */);
+    }
+
     private void loadAllApps() {
         final List<UserHandle> profiles = mUserManager.getUserProfiles();
 
@@ -835,6 +962,14 @@ public class LoaderTask implements Runnable {
                 return;
             }
             boolean quietMode = mUserManager.isQuietModeEnabled(user);
+
+            // Read all the low-res icons in bulk before creating the infos one by one.
+            ArrayList<ComponentKey> keys = new ArrayList<>(apps.size());
+            for (LauncherActivityInfo app : apps) {
+                keys.add(new ComponentKey(app.getComponentName(), user));
+            }
+            mIconCache.prefetch(keys, true /* lowRes */);
+
             // Create the ApplicationInfos
             for (int i = 0; i < apps.size(); i++) {
                 LauncherActivityInfo app = apps.get(i);
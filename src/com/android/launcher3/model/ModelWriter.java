@@ -16,12 +16,9 @@
 
 package com.android.launcher3.model;
 
-import android.content.ContentProviderOperation;
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
@@ -31,12 +28,11 @@ import com.android.launcher3.ItemInfo;
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherModel;
 import com.android.launcher3.LauncherModel.Callbacks;
-import com.android.launcher3.LauncherProvider;
 import com.android.launcher3.LauncherSettings;
 import com.android.launcher3.LauncherSettings.Favorites;
-import com.android.launcher3.LauncherSettings.Settings;
 import com.android.launcher3.ShortcutInfo;
 import com.android.launcher3.Utilities;
+import com.android.launcher3.provider.LauncherDao;
 import com.android.launcher3.util.ContentWriter;
 import com.android.launcher3.util.ItemInfoMatcher;
 import com.android.launcher3.util.LooperExecutor;
@@ -61,6 +57,7 @@ public class ModelWriter {
     private final Handler mUiHandler;
 
     private final Executor mWorkerExecutor;
+    private final ItemUpdateQueue mUpdateQueue;
     private final boolean mHasVerticalHotseat;
     private final boolean mVerifyChanges;
 
@@ -68,11 +65,13 @@ public class ModelWriter {
     private List<Runnable> mDeleteRunnables = new ArrayList<>();
 
     public ModelWriter(Context context, LauncherModel model, BgDataModel dataModel,
-                       boolean hasVerticalHotseat, boolean verifyChanges) {
+                       ItemUpdateQueue updateQueue, boolean hasVerticalHotseat,
+                       boolean verifyChanges) {
         mContext = context;
         mModel = model;
         mBgDataModel = dataModel;
         mWorkerExecutor = new LooperExecutor(LauncherModel.getWorkerLooper());
+        mUpdateQueue = updateQueue;
         mHasVerticalHotseat = hasVerticalHotseat;
         mVerifyChanges = verifyChanges;
         mUiHandler = new Handler(Looper.getMainLooper());
@@ -164,7 +163,7 @@ public class ModelWriter {
                 .put(Favorites.RANK, item.rank)
                 .put(Favorites.SCREEN, item.screenId);
 
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer);
     }
 
     /**
@@ -172,7 +171,6 @@ public class ModelWriter {
      * cellX, cellY have already been updated on the ItemInfos.
      */
     public void moveItemsInDatabase(final ArrayList<ItemInfo> items, long container, int screen) {
-        ArrayList<ContentValues> contentValues = new ArrayList<>();
         int count = items.size();
 
         for (int i = 0; i < count; i++) {
@@ -186,9 +184,8 @@ public class ModelWriter {
             values.put(Favorites.RANK, item.rank);
             values.put(Favorites.SCREEN, item.screenId);
 
-            contentValues.add(values);
+            enqueueUpdate(item, new ContentWriter(values, mContext));
         }
-        mWorkerExecutor.execute(new UpdateItemsRunnable(items, contentValues));
     }
 
     /**
@@ -209,11 +206,30 @@ public class ModelWriter {
                 .put(Favorites.SPANY, item.spanY)
                 .put(Favorites.SCREEN, item.screenId);
 
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer);
     }
 
-    private void executeUpdateItem(ItemInfo item, ContentWriter writer) {
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+    /**
+     * Queues the update in {@link #mUpdateQueue}, to be written together with the other updates
+     * made shortly after.
+     */
+    private void enqueueUpdate(ItemInfo item, ContentWriter writer) {
+        mUpdateQueue.enqueue(item.id, writer, new UpdateItemRunnable(item));
+    }
+
+    /**
+     * Writes the queued item updates, eg. before the process can be killed.
+     */
+    public void flushPendingUpdates() {
+        mUpdateQueue.flush();
+    }
+
+    /**
+     * Runs {@param r} on the worker thread after the queued item updates are written.
+     */
+    private void executeAfterPendingUpdates(Runnable r) {
+        mUpdateQueue.flush();
+        mWorkerExecutor.execute(r);
     }
 
 
@@ -230,7 +246,7 @@ public class ModelWriter {
         }
 
         if (reload) {
-            LauncherAppState.getInstance(context).getLauncher().getModelWriter().executeUpdateItem(item, writer);
+            LauncherAppState.getInstance(context).getLauncher().getModelWriter().enqueueUpdate(item, writer);
             LauncherAppState.getInstance(context).getModel().forceReload();
         }
     }
@@ -241,7 +257,7 @@ public class ModelWriter {
     public void updateItemInDatabase(ItemInfo item) {
         ContentWriter writer = new ContentWriter(mContext);
         item.onAddToDatabase(writer);
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer);
     }
 
     /**
@@ -253,17 +269,17 @@ public class ModelWriter {
         updateItemInfoProps(item, container, screenId, cellX, cellY);
 
         final ContentWriter writer = new ContentWriter(mContext);
-        final ContentResolver cr = mContext.getContentResolver();
+        final LauncherDao dao = LauncherAppState.getInstance(mContext).getLauncherDao();
         item.onAddToDatabase(writer);
 
-        item.id = Settings.call(cr, Settings.METHOD_NEW_ITEM_ID).getLong(Settings.EXTRA_VALUE);
+        item.id = dao.generateNewItemId();
         writer.put(Favorites._ID, item.id);
 
         ModelVerifier verifier = new ModelVerifier();
 
         final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
-        mWorkerExecutor.execute(() -> {
-            cr.insert(Favorites.CONTENT_URI, writer.getValues(mContext));
+        executeAfterPendingUpdates(() -> {
+            dao.insertItem(writer.getValues(mContext));
 
             synchronized (mBgDataModel) {
                 checkItemInfoLocked(item.id, item, stackTrace);
@@ -292,11 +308,11 @@ public class ModelWriter {
      */
     public void deleteItemsFromDatabase(final Iterable<? extends ItemInfo> items) {
         ModelVerifier verifier = new ModelVerifier();
+        final LauncherDao dao = LauncherAppState.getInstance(mContext).getLauncherDao();
 
-        mWorkerExecutor.execute(() -> {
+        executeAfterPendingUpdates(() -> {
             for (ItemInfo item : items) {
-                final Uri uri = Favorites.getContentUri(item.id);
-                mContext.getContentResolver().delete(uri, null, null);
+                dao.deleteItem(item.id);
 
                 mBgDataModel.removeItem(mContext, item);
                 verifier.verifyModel();
@@ -309,69 +325,37 @@ public class ModelWriter {
      */
     public void deleteFolderAndContentsFromDatabase(final FolderInfo info) {
         ModelVerifier verifier = new ModelVerifier();
+        final LauncherDao dao = LauncherAppState.getInstance(mContext).getLauncherDao();
 
-        mWorkerExecutor.execute(() -> {
-            ContentResolver cr = mContext.getContentResolver();
-            cr.delete(LauncherSettings.Favorites.CONTENT_URI,
-                    LauncherSettings.Favorites.CONTAINER + "=" + info.id, null);
+        executeAfterPendingUpdates(() -> {
+            dao.deleteItems(LauncherSettings.Favorites.CONTAINER + "=" + info.id, null);
             mBgDataModel.removeItem(mContext, info.contents);
             info.contents.clear();
 
-            cr.delete(LauncherSettings.Favorites.getContentUri(info.id), null, null);
+            dao.deleteItem(info.id);
             mBgDataModel.removeItem(mContext, info);
             verifier.verifyModel();
         });
     }
 
+    /**
+     * Updates the model once the item values were written by {@link #mUpdateQueue}.
+     */
     private class UpdateItemRunnable extends UpdateItemBaseRunnable {
         private final ItemInfo mItem;
-        private final ContentWriter mWriter;
         private final long mItemId;
 
-        UpdateItemRunnable(ItemInfo item, ContentWriter writer) {
+        UpdateItemRunnable(ItemInfo item) {
             mItem = item;
-            mWriter = writer;
             mItemId = item.id;
         }
 
         @Override
         public void run() {
-            Uri uri = Favorites.getContentUri(mItemId);
-            mContext.getContentResolver().update(uri, mWriter.getValues(mContext), null, null);
             updateItemArrays(mItem, mItemId);
         }
     }
 
-    private class UpdateItemsRunnable extends UpdateItemBaseRunnable {
-        private final ArrayList<ContentValues> mValues;
-        private final ArrayList<ItemInfo> mItems;
-
-        UpdateItemsRunnable(ArrayList<ItemInfo> items, ArrayList<ContentValues> values) {
-            mValues = values;
-            mItems = items;
-        }
-
-        @Override
-        public void run() {
-            ArrayList<ContentProviderOperation> ops = new ArrayList<>();
-            int count = mItems.size();
-            for (int i = 0; i < count; i++) {
-                ItemInfo item = mItems.get(i);
-                final long itemId = item.id;
-                final Uri uri = Favorites.getContentUri(itemId);
-                ContentValues values = mValues.get(i);
-
-                ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
-                updateItemArrays(item, itemId);
-            }
-            try {
-                mContext.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, ops);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-    }
-
     private abstract class UpdateItemBaseRunnable implements Runnable {
         private final StackTraceElement[] mStackTrace;
         private final ModelVerifier mVerifier = new ModelVerifier();
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.android.launcher3.LauncherProvider;
+import com.android.launcher3.LauncherProvider.DatabaseHelper;
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.LauncherSettings.WorkspaceScreens;
+import com.android.launcher3.provider.LauncherDbUtils.SQLiteTransaction;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Direct access to the launcher DB for the model, which lives in the same process as
+ * {@link LauncherProvider}. This skips the URI parsing and the result wrapping of the
+ * ContentResolver path. The provider remains the entry point for other processes and for
+ * backups.
+ *
+ * Like the provider, writes which change rows notify the
+ * {@link com.android.launcher3.LauncherProviderChangeListener}.
+ */
+public class LauncherDao {
+
+    private final DatabaseHelper mOpenHelper;
+    private final Runnable mChangeNotifier;
+
+    public LauncherDao(DatabaseHelper openHelper, Runnable changeNotifier) {
+        mOpenHelper = openHelper;
+        mChangeNotifier = changeNotifier;
+    }
+
+    /**
+     * @see SQLiteDatabase#query(String, String[], String, String[], String, String, String)
+     */
+    public Cursor queryFavorites(String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+        return mOpenHelper.getWritableDatabase().query(Favorites.TABLE_NAME, projection,
+                selection, selectionArgs, null, null, sortOrder);
+    }
+
+    /**
+     * Loads the workspace screen ids ordered by rank.
+     */
+    public ArrayList<Long> loadWorkspaceScreens() {
+        return LauncherDbUtils.getScreenIdsFromCursor(mOpenHelper.getWritableDatabase().query(
+                WorkspaceScreens.TABLE_NAME, new String[]{WorkspaceScreens._ID},
+                null, null, null, null, WorkspaceScreens.SCREEN_RANK));
+    }
+
+    /**
+     * Inserts an item, whose id must have been generated with {@link #generateNewItemId()}.
+     *
+     * @return the row id, or -1 if the insert failed
+     */
+    public long insertItem(ContentValues values) {
+        addModifiedTime(values);
+        long rowId = mOpenHelper.insertAndCheck(mOpenHelper.getWritableDatabase(), values);
+        if (rowId >= 0) {
+            mChangeNotifier.run();
+        }
+        return rowId;
+    }
+
+    public int updateItem(long itemId, ContentValues values) {
+        addModifiedTime(values);
+        int count = mOpenHelper.getWritableDatabase().update(Favorites.TABLE_NAME, values,
+                Favorites._ID + " = " + itemId, null);
+        if (count > 0) {
+            mChangeNotifier.run();
+        }
+        return count;
+    }
+
+    /**
+     * Updates several items in a single transaction.
+     *
+     * @param updates the values to write, keyed by item id
+     * @return the number of rows updated
+     */
+    public int updateItems(Map<Long, ContentValues> updates) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int count = 0;
+        try (SQLiteTransaction t = new SQLiteTransaction(db)) {
+            for (Map.Entry<Long, ContentValues> entry : updates.entrySet()) {
+                ContentValues values = entry.getValue();
+                addModifiedTime(values);
+                count += db.update(Favorites.TABLE_NAME, values,
+                        Favorites._ID + " = " + entry.getKey(), null);
+            }
+            t.commit();
+        }
+        if (count > 0) {
+            mChangeNotifier.run();
+        }
+        return count;
+    }
+
+    public int deleteItem(long itemId) {
+        return deleteItems(Favorites._ID + " = " + itemId, null);
+    }
+
+    /**
+     * @see SQLiteDatabase#delete(String, String, String[])
+     */
+    public int deleteItems(String selection, String[] selectionArgs) {
+        int count = mOpenHelper.getWritableDatabase().delete(Favorites.TABLE_NAME, selection,
+                selectionArgs);
+        if (count > 0) {
+            mChangeNotifier.run();
+        }
+        return count;
+    }
+
+    public long generateNewItemId() {
+        return mOpenHelper.generateNewItemId();
+    }
+
+    public long generateNewScreenId() {
+        return mOpenHelper.generateNewScreenId();
+    }
+
+    private static void addModifiedTime(ContentValues values) {
+        values.put(Favorites.MODIFIED, System.currentTimeMillis());
+    }
+}
@@ -43,7 +43,7 @@ import com.android.launcher3.widget.PendingAppWidgetHostView;
 import com.android.launcher3.widget.WidgetAddFlowHandler;
 
 import org.zimmob.zimlx.util.Config;
-import org.zimmob.zimlx.util.DbHelper;
+import org.zimmob.zimlx.util.AppCountStore;
 
 import static com.android.launcher3.ItemInfoWithIcon.FLAG_DISABLED_BY_PUBLISHER;
 import static com.android.launcher3.ItemInfoWithIcon.FLAG_DISABLED_LOCKED_USER;
@@ -240,9 +240,8 @@ public class ItemClickHandler {
         }
         if (item instanceof AppInfo) {
             Log.i(TAG, "Clicking App " + item.title);
-            DbHelper db = new DbHelper(mContext);
-            db.updateAppCount(((AppInfo) item).componentName.getPackageName());
-            db.close();
+            AppCountStore.getInstance(mContext)
+                    .incrementCount(((AppInfo) item).componentName.getPackageName());
         }
         launcher.startActivitySafely(v, intent, item);
     }
@@ -15,6 +15,8 @@ import com.android.launcher3.config.FeatureFlags;
 /**
  * An extension of {@link SQLiteOpenHelper} with utility methods for a single table cache DB.
  * Any exception during write operations are ignored, and any version change causes a DB reset.
+ * Helper tables can be added with {@link #onCreateTable} and {@link #onDropExtraTables}, and
+ * accessed through {@link #runInTransaction}.
  */
 public abstract class SQLiteCacheHelper {
     private static final String TAG = "SQLiteCacheHelper";
@@ -70,6 +72,41 @@ public abstract class SQLiteCacheHelper {
         }
     }
 
+    /**
+     * Task run by {@link #runInTransaction}, which can access the other tables of the DB.
+     */
+    public interface TransactionTask {
+        void run(SQLiteDatabase db);
+    }
+
+    /**
+     * Runs {@param task} in a single transaction. Like the other write operations, exceptions
+     * are ignored and roll the transaction back.
+     *
+     * @return true if the transaction was committed
+     */
+    public boolean runInTransaction(TransactionTask task) {
+        if (mIgnoreWrites) {
+            return false;
+        }
+        try {
+            SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                task.run(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return true;
+        } catch (SQLiteFullException e) {
+            onDiskFull(e);
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Ignoring sqlite exception", e);
+        }
+        return false;
+    }
+
     private void onDiskFull(SQLiteFullException e) {
         Log.e(TAG, "Disk full, all write operations will be ignored", e);
         mIgnoreWrites = true;
@@ -89,6 +126,12 @@ public abstract class SQLiteCacheHelper {
 
     protected abstract void onCreateTable(SQLiteDatabase db);
 
+    /**
+     * Called when the DB is reset, to drop the tables created by {@link #onCreateTable} other
+     * than the main one.
+     */
+    protected void onDropExtraTables(SQLiteDatabase db) { }
+
     /**
      * A private inner class to prevent direct DB access.
      */
@@ -119,6 +162,7 @@ public abstract class SQLiteCacheHelper {
 
         private void clearDB(SQLiteDatabase db) {
             db.execSQL("DROP TABLE IF EXISTS " + mTableName);
+            onDropExtraTables(db);
             onCreate(db);
         }
     }
@@ -0,0 +1,117 @@
+package com.android.launcher3;
+
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.launcher3.compat.LauncherAppsCompat;
+import com.android.launcher3.util.Benchmark;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the {@link IconCache} loading throughput with 1, 2 and 4 concurrent callers.
+ * The results are logged under {@link #TAG}.
+ */
+@LargeTest
+@Benchmark
+@RunWith(AndroidJUnit4.class)
+public class IconCacheContentionTest {
+
+    private static final String TAG = "IconCacheContentionTest";
+
+    private Context mContext;
+    private List<LauncherActivityInfo> mActivities;
+
+    @Before
+    public void setup() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mActivities = LauncherAppsCompat.getInstance(mContext)
+                .getActivityList(null, Process.myUserHandle());
+        assertTrue(!mActivities.isEmpty());
+    }
+
+    @Test
+    public void testDistinctKeys() throws Exception {
+        for (int callers : new int[] {1, 2, 4}) {
+            long elapsed = runCallers(callers, true /* partition */);
+            Log.d(TAG, "distinct keys, callers=" + callers + " apps=" + mActivities.size()
+                    + " time=" + elapsed + "ms");
+        }
+    }
+
+    @Test
+    public void testSameKeys() throws Exception {
+        for (int callers : new int[] {1, 2, 4}) {
+            long elapsed = runCallers(callers, false /* partition */);
+            Log.d(TAG, "same keys, callers=" + callers + " apps=" + mActivities.size()
+                    + " time=" + elapsed + "ms");
+        }
+    }
+
+    /**
+     * Loads the high-res icons of all the activities through a new cache instance, so that only
+     * the DB is warm, and returns the elapsed time.
+     *
+     * @param partition if true, each caller loads a distinct slice of the activities, otherwise
+     *                  every caller loads all of them.
+     */
+    private long runCallers(int callers, boolean partition) throws Exception {
+        IconCache cache = new IconCache(mContext, LauncherAppState.getIDP(mContext));
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(callers);
+        List<AppInfo> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < callers; i++) {
+            List<AppInfo> apps = new ArrayList<>();
+            for (int j = 0; j < mActivities.size(); j++) {
+                if (!partition || j % callers == i) {
+                    LauncherActivityInfo info = mActivities.get(j);
+                    apps.add(new AppInfo(mContext, info, info.getUser()));
+                }
+            }
+            results.addAll(apps);
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (AppInfo app : apps) {
+                        cache.getTitleAndIcon(app, false /* useLowResIcon */);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+
+        long startTime = SystemClock.uptimeMillis();
+        start.countDown();
+        done.await();
+        long elapsed = SystemClock.uptimeMillis() - startTime;
+
+        for (AppInfo app : results) {
+            assertNotNull(app.iconBitmap);
+        }
+        return elapsed;
+    }
+}
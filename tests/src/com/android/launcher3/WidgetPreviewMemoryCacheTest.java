@@ -0,0 +1,116 @@
+package com.android.launcher3;
+
+import android.content.ComponentCallbacks2;
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+import android.os.Process;
+
+import com.android.launcher3.util.ComponentKey;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link WidgetPreviewMemoryCache}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class WidgetPreviewMemoryCacheTest {
+
+    private static final int PREVIEW_SIZE = 10;
+    private static final int PREVIEW_BYTES = PREVIEW_SIZE * PREVIEW_SIZE * 4;
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        WidgetPreviewMemoryCache cache = new WidgetPreviewMemoryCache(2 * PREVIEW_BYTES);
+        ComponentKey a = newKey("pkg.a", "A");
+        ComponentKey b = newKey("pkg.b", "B");
+        ComponentKey c = newKey("pkg.c", "C");
+        Bitmap previewA = newPreview();
+        Bitmap previewB = newPreview();
+
+        cache.put(a, previewA);
+        cache.put(b, previewB);
+        // Touching a makes b the least recently used.
+        assertSame(previewA, cache.get(a));
+        cache.put(c, newPreview());
+
+        assertNull(cache.get(b));
+        assertSame(previewA, cache.get(a));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testRemovePackage() {
+        WidgetPreviewMemoryCache cache = new WidgetPreviewMemoryCache(4 * PREVIEW_BYTES);
+        ComponentKey a1 = newKey("pkg.a", "A1");
+        ComponentKey a2 = newKey("pkg.a", "A2");
+        ComponentKey b = newKey("pkg.b", "B");
+        cache.put(a1, newPreview());
+        cache.put(a2, newPreview());
+        cache.put(b, newPreview());
+
+        cache.removePackage("pkg.a", Process.myUserHandle());
+
+        assertNull(cache.get(a1));
+        assertNull(cache.get(a2));
+        assertEquals(PREVIEW_SIZE, cache.get(b).getWidth());
+    }
+
+    @Test
+    public void testPeekDoesNotCount() {
+        WidgetPreviewMemoryCache cache = new WidgetPreviewMemoryCache(4 * PREVIEW_BYTES);
+        ComponentKey a = newKey("pkg.a", "A");
+        Bitmap preview = newPreview();
+
+        assertNull(cache.peek(a));
+        cache.put(a, preview);
+        assertSame(preview, cache.peek(a));
+
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void testPutIfValidAfterRemovePackage() {
+        WidgetPreviewMemoryCache cache = new WidgetPreviewMemoryCache(4 * PREVIEW_BYTES);
+        ComponentKey a = newKey("pkg.a", "A");
+        int generation = cache.getGeneration(a);
+
+        cache.removePackage("pkg.a", Process.myUserHandle());
+
+        assertFalse(cache.putIfValid(a, newPreview(), generation));
+        assertNull(cache.peek(a));
+        assertTrue(cache.putIfValid(a, newPreview(), cache.getGeneration(a)));
+    }
+
+    @Test
+    public void testTrimMemoryWhenHidden() {
+        WidgetPreviewMemoryCache cache = new WidgetPreviewMemoryCache(4 * PREVIEW_BYTES);
+        ComponentKey a = newKey("pkg.a", "A");
+        cache.put(a, newPreview());
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+
+        assertNull(cache.get(a));
+    }
+
+    private static ComponentKey newKey(String packageName, String className) {
+        return new ComponentKey(new ComponentName(packageName, className),
+                Process.myUserHandle());
+    }
+
+    private static Bitmap newPreview() {
+        return Bitmap.createBitmap(PREVIEW_SIZE, PREVIEW_SIZE, Bitmap.Config.ARGB_8888);
+    }
+}
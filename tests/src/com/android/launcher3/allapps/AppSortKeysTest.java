@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Process;
+
+import com.android.launcher3.AppInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.zimmob.zimlx.util.Config.SORT_AZ;
+import static org.zimmob.zimlx.util.Config.SORT_MOST_USED;
+import static org.zimmob.zimlx.util.Config.SORT_ZA;
+
+/**
+ * Unit tests for {@link AppSortKeys}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AppSortKeysTest {
+
+    private static final String[] TITLES = {"Maps", "camera", "Calculator", "2048", "#hashtag",
+            "Äpfel", "apple", "Zoo", "Maps", "", "Éclair", "clock"};
+
+    private Context mContext;
+    private AppSortKeys mSortKeys;
+    private List<AppInfo> mApps;
+
+    @Before
+    public void setup() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mSortKeys = new AppSortKeys(mContext);
+        mApps = new ArrayList<>();
+        for (int i = 0; i < TITLES.length; i++) {
+            mApps.add(getInfo(TITLES[i], "pkg" + i));
+        }
+    }
+
+    @Test
+    public void testAlphabeticalMatchesComparator() {
+        List<AppInfo> expected = new ArrayList<>(mApps);
+        Collections.sort(expected, new AppInfoComparator(mContext));
+
+        mSortKeys.sort(mApps, SORT_AZ);
+        assertEquals(expected, mApps);
+
+        // Only the titles starting with a letter or a digit are reversed, "" and "#hashtag" stay
+        // last.
+        Collections.reverse(expected.subList(0, expected.size() - 2));
+        mSortKeys.sort(mApps, SORT_ZA);
+        assertEquals(expected, mApps);
+    }
+
+    @Test
+    public void testMostUsed() {
+        HashMap<String, Integer> counts = new HashMap<>();
+        counts.put("pkg7", 10);
+        counts.put("pkg1", 3);
+        counts.put("pkg2", 3);
+        mSortKeys.sort(mApps, SORT_MOST_USED, counts);
+
+        assertEquals("Zoo", mApps.get(0).title);
+        // Equal counts are in alphabetical order.
+        assertEquals("Calculator", mApps.get(1).title);
+        assertEquals("camera", mApps.get(2).title);
+    }
+
+    @Test
+    public void testTitleChange() {
+        mSortKeys.sort(mApps, SORT_AZ);
+        AppInfo zoo = mApps.get(mApps.size() - 1);
+        assertEquals("Zoo", zoo.title);
+
+        zoo.title = "0 Zoo";
+        mSortKeys.sort(mApps, SORT_AZ);
+        assertEquals(zoo, mApps.get(0));
+    }
+
+    private static AppInfo getInfo(String title, String packageName) {
+        AppInfo info = new AppInfo();
+        info.title = title;
+        info.componentName = new ComponentName(packageName, title);
+        info.user = Process.myUserHandle();
+        return info;
+    }
+}
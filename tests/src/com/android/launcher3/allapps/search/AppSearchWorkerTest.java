@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import android.os.SystemClock;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.config.FeatureFlags;
+import com.android.launcher3.util.ComponentKey;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests for {@link AppSearchWorker}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AppSearchWorkerTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private final List<String> mSearchedQueries = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> mDeliveredQueries = new ArrayList<>();
+    private final CountDownLatch mFirstSearchStarted = new CountDownLatch(1);
+    private final CountDownLatch mResultDelivered = new CountDownLatch(1);
+
+    private AppSearchWorker mWorker;
+
+    @Before
+    public void setup() {
+        assumeTrue(FeatureFlags.APP_SEARCH_IN_BACKGROUND);
+        List<AppInfo> apps = new ArrayList<>();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() ->
+                mWorker = new AppSearchWorker(apps, (query, list, signal) -> {
+                    mSearchedQueries.add(query);
+                    if (mFirstSearchStarted.getCount() > 0) {
+                        // Keep the first search running until it is aborted.
+                        mFirstSearchStarted.countDown();
+                        long end = SystemClock.uptimeMillis() + TIMEOUT_MS;
+                        while (!signal.isCanceled() && SystemClock.uptimeMillis() < end) {
+                            SystemClock.sleep(1);
+                        }
+                        return signal.isCanceled() ? null : new ArrayList<ComponentKey>();
+                    }
+                    return new ArrayList<ComponentKey>();
+                }));
+    }
+
+    @Test
+    public void testOnlyLatestQueryDelivered() throws Exception {
+        AllAppsSearchBarController.Callbacks callbacks =
+                new AllAppsSearchBarController.Callbacks() {
+                    @Override
+                    public void onSearchResult(String query, ArrayList<ComponentKey> apps) {
+                        mDeliveredQueries.add(query);
+                        mResultDelivered.countDown();
+                    }
+
+                    @Override
+                    public void clearSearchResult() { }
+                };
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() ->
+                mWorker.doSearch("a", callbacks));
+        assertTrue(mFirstSearchStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            mWorker.doSearch("ab", callbacks);
+            mWorker.doSearch("abc", callbacks);
+        });
+        assertTrue(mResultDelivered.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        // "a" was aborted, and "ab" was replaced before it started.
+        assertEquals(Arrays.asList("a", "abc"), mSearchedQueries);
+        assertEquals(Collections.singletonList("abc"), mDeliveredQueries);
+    }
+}
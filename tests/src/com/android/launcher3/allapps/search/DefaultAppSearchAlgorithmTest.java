@@ -23,8 +23,15 @@ import com.android.launcher3.Utilities;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
 import androidx.test.runner.AndroidJUnit4;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -91,6 +98,88 @@ public class DefaultAppSearchAlgorithmTest {
         assertFalse(DefaultAppSearchAlgorithm.matches(getInfo("abc"), "åç", MATCHER));
     }
 
+    @Test
+    public void testIndexMatchesLinearScan() {
+        List<AppInfo> apps = new ArrayList<>();
+        for (String title : new String[] {"white cow", "whiteCow", "whitecow", "cats&Dogs",
+                "2+43", "  Q", "elephant", "电子邮件", "다운로드 드라이브", "Alpha", "Bot",
+                "Google Maps", "Gmail", "Magisk Manager", "Messages"}) {
+            apps.add(getInfo(title));
+        }
+        AppSearchIndex index = new AppSearchIndex();
+        index.update(apps);
+
+        for (String query : new String[] {"cow", "c", "dog", "&", "43", "3", "q", "e", "电",
+                "子", "ㄷ", "ål", "ma", "map", "mag", "m", "g", "messagesx"}) {
+            Set<AppInfo> expected = new HashSet<>();
+            for (AppInfo info : apps) {
+                if (DefaultAppSearchAlgorithm.matches(info, query, MATCHER)) {
+                    expected.add(info);
+                }
+            }
+            Set<AppInfo> actual = new HashSet<>();
+            for (AppSearchIndex.IndexedApp app : index.search(query)) {
+                actual.add(app.info);
+            }
+            assertEquals(query, expected, actual);
+        }
+    }
+
+    @Test
+    public void testIndexWithContractions() {
+        if (!Utilities.ATLEAST_NOUGAT) {
+            return;
+        }
+        // "ch" is a single letter sorted after "h" in Czech.
+        DefaultAppSearchAlgorithm.StringMatcher matcher =
+                new DefaultAppSearchAlgorithm.StringMatcher(new Locale("cs"));
+        assertTrue(matcher.hasContractions());
+
+        List<AppInfo> apps = new ArrayList<>();
+        for (String title : new String[] {"Chrome", "Calendar", "Hry", "Fotky"}) {
+            apps.add(getInfo(title));
+        }
+        AppSearchIndex index = new AppSearchIndex(matcher);
+        index.update(apps);
+
+        for (String query : new String[] {"c", "ch", "h", "f"}) {
+            Set<AppInfo> expected = new HashSet<>();
+            for (AppInfo info : apps) {
+                if (DefaultAppSearchAlgorithm.matches(info, query, matcher)) {
+                    expected.add(info);
+                }
+            }
+            Set<AppInfo> actual = new HashSet<>();
+            for (AppSearchIndex.IndexedApp app : index.search(query)) {
+                actual.add(app.info);
+            }
+            assertEquals(query, expected, actual);
+        }
+    }
+
+    @Test
+    public void testIndexUpdate() {
+        AppInfo maps = getInfo("Maps");
+        AppInfo mail = getInfo("Mail");
+        List<AppInfo> apps = new ArrayList<>();
+        apps.add(maps);
+        apps.add(mail);
+
+        AppSearchIndex index = new AppSearchIndex();
+        index.update(apps);
+        assertEquals(2, index.search("ma").size());
+
+        int generation = index.getGeneration();
+        index.update(apps);
+        assertEquals(generation, index.getGeneration());
+
+        apps.remove(mail);
+        maps.title = "Navigation";
+        index.update(apps);
+        assertEquals(0, index.search("ma").size());
+        assertEquals(1, index.search("nav").size());
+    }
+
     private AppInfo getInfo(String title) {
         AppInfo info = new AppInfo();
         info.title = title;
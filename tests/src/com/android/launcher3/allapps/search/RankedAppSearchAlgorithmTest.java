@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import android.content.ComponentName;
+
+import com.android.launcher3.AppInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link RankedAppSearchAlgorithm} and {@link AppSearchScorer}, run against a
+ * corpus of common app titles.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RankedAppSearchAlgorithmTest {
+
+    private static final String[] TITLES = {
+            "Calculator", "Calendar", "Camera", "Café Finder", "Chrome", "Clock", "Contacts",
+            "Drive", "Files", "Gmail", "Google", "Google Maps", "Google Play Store",
+            "Magisk Manager", "Mail", "Maps", "Messages", "Phone", "Photos", "Play Store",
+            "Settings", "WhatsApp", "YouTube", "YouTube Music", "다운로드 드라이브"};
+
+    /**
+     * Each case is a query followed by the titles expected first in the results, in order.
+     */
+    private static final String[][] RANKING_CORPUS = {
+            {"maps", "Maps", "Google Maps"},
+            {"ma", "Magisk Manager", "Mail", "Maps"},
+            {"gmial", "Gmail"},
+            {"yutube", "YouTube", "YouTube Music"},
+            {"calcualtor", "Calculator"},
+            {"whatsap", "WhatsApp"},
+            {"gm", "Gmail", "Google Maps"},
+            {"gps", "Google Play Store"},
+            {"p s", "Play Store", "Google Play Store"},
+            {"play st", "Play Store", "Google Play Store"},
+            {"cafe", "Café Finder"},
+            {"finder", "Café Finder"},
+            {"ㄷ", "다운로드 드라이브"},
+    };
+
+    /**
+     * Each case is a query followed by titles which must not be in the results.
+     */
+    private static final String[][] EXCLUSION_CORPUS = {
+            {"xyz", "Calculator", "Chrome", "Maps"},
+            // Two letter queries don't tolerate typos.
+            {"cx", "Calculator", "Calendar", "Camera"},
+            {"gmial", "Google", "Messages"},
+            {"settings", "Messages"},
+    };
+
+    private List<AppInfo> mApps;
+    private HashMap<String, Integer> mLaunchCounts;
+    private RankedAppSearchAlgorithm mAlgorithm;
+
+    @Before
+    public void setup() {
+        mApps = new ArrayList<>();
+        for (String title : TITLES) {
+            mApps.add(getInfo(title));
+        }
+        mLaunchCounts = new HashMap<>();
+        mLaunchCounts.put("Magisk Manager", 50);
+        mLaunchCounts.put("Mail", 3);
+
+        // The result handler must be created on a looper thread.
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() ->
+                mAlgorithm = new RankedAppSearchAlgorithm(mApps, app -> {
+                    Integer count = mLaunchCounts.get(app.title.toString());
+                    return count == null ? 0 : count;
+                }));
+    }
+
+    @Test
+    public void testRankingCorpus() {
+        for (String[] testCase : RANKING_CORPUS) {
+            List<String> results = getTitles(mAlgorithm.rank(testCase[0]));
+            assertTrue(testCase[0] + " -> " + results, results.size() >= testCase.length - 1);
+            for (int i = 1; i < testCase.length; i++) {
+                assertEquals(testCase[0] + " -> " + results, testCase[i], results.get(i - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testExclusionCorpus() {
+        for (String[] testCase : EXCLUSION_CORPUS) {
+            List<String> results = getTitles(mAlgorithm.rank(testCase[0]));
+            for (int i = 1; i < testCase.length; i++) {
+                assertFalse(testCase[0] + " -> " + results, results.contains(testCase[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testTitleChange() {
+        assertTrue(getTitles(mAlgorithm.rank("chrome")).contains("Chrome"));
+        mApps.get(4).title = "Browser";
+        assertTrue(getTitles(mAlgorithm.rank("chrome")).isEmpty());
+        assertEquals("Browser", getTitles(mAlgorithm.rank("brow")).get(0));
+    }
+
+    @Test
+    public void testPrefixDistance() {
+        AppSearchScorer scorer = new AppSearchScorer();
+        assertEquals(0, scorer.prefixDistance("gma", "gmail", 1));
+        assertEquals(1, scorer.prefixDistance("gmial", "gmail", 1));
+        assertEquals(1, scorer.prefixDistance("gmal", "gmail", 1));
+        assertEquals(1, scorer.prefixDistance("gmaiil", "gmail", 1));
+        assertEquals(2, scorer.prefixDistance("gnial", "gmail", 1));
+        assertEquals(2, scorer.prefixDistance("gnial", "gmail", 2));
+        assertEquals(2, scorer.prefixDistance("abc", "x", 1));
+    }
+
+    @Test
+    public void testLaunchBonus() {
+        assertEquals(0, RankedAppSearchAlgorithm.getLaunchBonus(0));
+        assertTrue(RankedAppSearchAlgorithm.getLaunchBonus(1)
+                < RankedAppSearchAlgorithm.getLaunchBonus(10));
+        assertTrue(RankedAppSearchAlgorithm.getLaunchBonus(Integer.MAX_VALUE)
+                < AppSearchScorer.SCORE_EXACT - AppSearchScorer.SCORE_TITLE_PREFIX);
+    }
+
+    @Test
+    public void testLaunchBonusStaysWithinTier() {
+        // The lowest score of a tier, without launches, must beat the highest score of the next
+        // tier with the largest launch bonus.
+        int[] tiers = {AppSearchScorer.SCORE_EXACT, AppSearchScorer.SCORE_TITLE_PREFIX,
+                AppSearchScorer.SCORE_WORD_PREFIX, AppSearchScorer.SCORE_ALL_WORDS,
+                AppSearchScorer.SCORE_ACRONYM,
+                AppSearchScorer.SCORE_TYPO - AppSearchScorer.TYPO_PENALTY,
+                AppSearchScorer.SCORE_TYPO - 2 * AppSearchScorer.TYPO_PENALTY};
+        int maxBonus = RankedAppSearchAlgorithm.getLaunchBonus(Integer.MAX_VALUE);
+        assertEquals(RankedAppSearchAlgorithm.MAX_LAUNCH_BONUS, maxBonus);
+        for (int i = 0; i < tiers.length - 1; i++) {
+            assertTrue(tiers[i] - AppSearchScorer.MAX_WORD_INDEX_PENALTY
+                    > tiers[i + 1] + maxBonus);
+        }
+
+        // A heavily launched app matching the second word must still be ranked after an app
+        // matching the start of its title.
+        mLaunchCounts.put("Google Maps", 1000);
+        List<String> results = getTitles(mAlgorithm.rank("ma"));
+        assertTrue(results.indexOf("Maps") < results.indexOf("Google Maps"));
+    }
+
+    private static List<String> getTitles(List<AppInfo> apps) {
+        List<String> titles = new ArrayList<>();
+        for (AppInfo info : apps) {
+            titles.add(info.title.toString());
+        }
+        return titles;
+    }
+
+    static AppInfo getInfo(String title) {
+        AppInfo info = new AppInfo();
+        info.title = title;
+        info.componentName = new ComponentName("Test", title);
+        return info;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.util.Benchmark;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the time taken by {@link RankedAppSearchAlgorithm} to rank 1,000 apps, compared to
+ * the matching done by {@link DefaultAppSearchAlgorithm}. The results are logged under
+ * {@link #TAG}.
+ */
+@LargeTest
+@Benchmark
+@RunWith(AndroidJUnit4.class)
+public class RankedAppSearchBenchmarkTest {
+
+    private static final String TAG = "RankedAppSearchBenchmark";
+
+    private static final int APP_COUNT = 1000;
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 50;
+    private static final long FRAME_TIME_US = 16_000;
+
+    private static final String[] WORDS = {"google", "play", "store", "maps", "mail", "music",
+            "photo", "camera", "video", "player", "fast", "cleaner", "calculator", "weather",
+            "news", "bank", "chat", "messenger", "file", "manager", "browser", "keyboard",
+            "launcher", "clock", "fitness", "notes", "scanner", "translate", "radio", "games"};
+
+    // Successive keystrokes, followed by typos and abbreviations.
+    private static final String[] QUERIES = {"g", "go", "goo", "goog", "googl", "google",
+            "gogle", "mes", "messanger", "calcualtor", "fm", "p s"};
+
+    private List<AppInfo> mApps;
+    private RankedAppSearchAlgorithm mAlgorithm;
+
+    @Before
+    public void setup() {
+        Random random = new Random(42);
+        mApps = new ArrayList<>();
+        for (int i = 0; i < APP_COUNT; i++) {
+            StringBuilder title = new StringBuilder();
+            int wordCount = 1 + random.nextInt(3);
+            for (int j = 0; j < wordCount; j++) {
+                String word = WORDS[random.nextInt(WORDS.length)];
+                if (j > 0) {
+                    title.append(' ');
+                }
+                title.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+            }
+            mApps.add(RankedAppSearchAlgorithmTest.getInfo(title.toString() + " " + i));
+        }
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() ->
+                mAlgorithm = new RankedAppSearchAlgorithm(mApps, app -> app.title.length()));
+    }
+
+    @Test
+    public void testRankingTime() {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runRanked();
+            runDefault();
+        }
+
+        long rankedTime = 0;
+        long defaultTime = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            runRanked();
+            rankedTime += SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            runDefault();
+            defaultTime += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        long queries = (long) ITERATIONS * QUERIES.length;
+        long rankedPerQuery = rankedTime / queries / 1000;
+        long defaultPerQuery = defaultTime / queries / 1000;
+        Log.d(TAG, "apps=" + APP_COUNT + " queries=" + queries);
+        Log.d(TAG, "ranked: " + rankedPerQuery + "us/query");
+        Log.d(TAG, "default: " + defaultPerQuery + "us/query");
+        assertTrue("Ranking takes longer than a frame", rankedPerQuery < FRAME_TIME_US);
+    }
+
+    private void runRanked() {
+        for (String query : QUERIES) {
+            mAlgorithm.rank(query);
+        }
+    }
+
+    private void runDefault() {
+        DefaultAppSearchAlgorithm.StringMatcher matcher =
+                DefaultAppSearchAlgorithm.StringMatcher.getInstance();
+        for (String query : QUERIES) {
+            for (AppInfo info : mApps) {
+                DefaultAppSearchAlgorithm.matches(info, query, matcher);
+            }
+        }
+    }
+}
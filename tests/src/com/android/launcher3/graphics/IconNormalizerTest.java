@@ -0,0 +1,129 @@
+package com.android.launcher3.graphics;
+
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.graphics.RectF;
+import android.graphics.drawable.AdaptiveIconDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.launcher3.Utilities;
+import com.android.launcher3.compat.LauncherAppsCompat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the scales of the fast scan of {@link IconNormalizer} with the full scan on the icons
+ * of the installed apps, and their time with and without the scale cache. Adaptive icons are
+ * normalized once per normalizer, so their foreground layer is used instead. The results are
+ * logged under {@link #TAG}.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class IconNormalizerTest {
+
+    private static final String TAG = "IconNormalizerTest";
+    private static final float SCALE_TOLERANCE = 0.01f;
+    private static final int ITERATIONS = 5;
+
+    private Context mContext;
+    private List<Drawable> mIcons;
+
+    @Before
+    public void setup() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mIcons = new ArrayList<>();
+        for (LauncherActivityInfo info : LauncherAppsCompat.getInstance(mContext)
+                .getActivityList(null, Process.myUserHandle())) {
+            Drawable icon = info.getIcon(0);
+            if (Utilities.ATLEAST_OREO && icon instanceof AdaptiveIconDrawable) {
+                icon = ((AdaptiveIconDrawable) icon).getForeground();
+            }
+            if (icon != null) {
+                mIcons.add(icon);
+            }
+        }
+        assertTrue(!mIcons.isEmpty());
+    }
+
+    @Test
+    public void testFastScanSameScale() {
+        IconNormalizer full = new IconNormalizer(mContext, false, false);
+        IconNormalizer fast = new IconNormalizer(mContext, true, false);
+        RectF fullBounds = new RectF();
+        RectF fastBounds = new RectF();
+        int identical = 0;
+        for (Drawable icon : mIcons) {
+            float fullScale = full.getScale(icon, fullBounds, null, null);
+            float fastScale = fast.getScale(icon, fastBounds, null, null);
+            assertEquals(fullScale, fastScale, SCALE_TOLERANCE);
+            if (fullScale == fastScale && fullBounds.equals(fastBounds)) {
+                identical++;
+            }
+        }
+        Log.d(TAG, "icons=" + mIcons.size() + " identical=" + identical);
+    }
+
+    @Test
+    public void testCachedScale() {
+        IconNormalizer normalizer = new IconNormalizer(mContext, true, true);
+        IconNormalizer other = new IconNormalizer(mContext, true, true);
+        RectF bounds = new RectF();
+        RectF cachedBounds = new RectF();
+        for (Drawable icon : mIcons) {
+            float scale = normalizer.getScale(icon, bounds, null, null);
+            // Another drawable of the same resource, normalized by another normalizer.
+            Drawable copy = icon.getConstantState() != null
+                    ? icon.getConstantState().newDrawable() : icon;
+            assertEquals(scale, other.getScale(copy, cachedBounds, null, null), 0);
+            assertEquals(bounds, cachedBounds);
+        }
+    }
+
+    @Test
+    public void testScanTime() {
+        IconNormalizer full = new IconNormalizer(mContext, false, false);
+        IconNormalizer fast = new IconNormalizer(mContext, true, false);
+        IconNormalizer cached = new IconNormalizer(mContext, true, true);
+        // Warm up, and fill the cache.
+        runScale(full);
+        runScale(fast);
+        runScale(cached);
+
+        long fullTime = 0;
+        long fastTime = 0;
+        long cachedTime = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            fullTime += runScale(full);
+            fastTime += runScale(fast);
+            cachedTime += runScale(cached);
+        }
+        long icons = (long) ITERATIONS * mIcons.size();
+        Log.d(TAG, "icons=" + mIcons.size());
+        Log.d(TAG, "full scan: " + fullTime / icons / 1000 + "us/icon");
+        Log.d(TAG, "fast scan: " + fastTime / icons / 1000 + "us/icon");
+        Log.d(TAG, "cached: " + cachedTime / icons / 1000 + "us/icon");
+    }
+
+    private long runScale(IconNormalizer normalizer) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (Drawable icon : mIcons) {
+            normalizer.getScale(icon, null, null, null);
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+}
@@ -0,0 +1,116 @@
+package com.android.launcher3.graphics;
+
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.graphics.drawable.Drawable;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.launcher3.compat.LauncherAppsCompat;
+import com.android.launcher3.util.Benchmark;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the throughput of {@link LauncherIcons#createBadgedIconBitmap} with 1, 2 and 4
+ * threads, each using its own {@link LauncherIcons}. The results are logged under {@link #TAG}.
+ */
+@LargeTest
+@Benchmark
+@RunWith(AndroidJUnit4.class)
+public class LauncherIconsBenchmarkTest {
+
+    private static final String TAG = "LauncherIconsBenchmark";
+
+    // Every thread creates the icons of all the apps this many times.
+    private static final int ROUNDS = 3;
+
+    private Context mContext;
+    private List<LauncherActivityInfo> mActivities;
+
+    @Before
+    public void setup() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mActivities = LauncherAppsCompat.getInstance(mContext)
+                .getActivityList(null, Process.myUserHandle());
+        assertTrue(!mActivities.isEmpty());
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        // Warm up the class loading and the drawable caches.
+        runThreads(1);
+
+        for (int threads : new int[] {1, 2, 4}) {
+            long elapsed = runThreads(threads);
+            int icons = threads * ROUNDS * mActivities.size();
+            Log.d(TAG, "threads=" + threads + " icons=" + icons + " time=" + elapsed + "ms"
+                    + " throughput=" + icons * 1000L / Math.max(1, elapsed) + " icons/s");
+        }
+    }
+
+    /**
+     * Creates the icons of all the apps {@link #ROUNDS} times on each of {@param threadCount}
+     * threads, and returns the elapsed time.
+     */
+    private long runThreads(int threadCount) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threadCount);
+        AtomicInteger created = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < threadCount; i++) {
+            // Drawables can't be drawn on several threads at once, each thread gets copies.
+            List<Drawable> icons = new ArrayList<>();
+            List<Integer> targetSdks = new ArrayList<>();
+            for (LauncherActivityInfo info : mActivities) {
+                Drawable icon = info.getIcon(0);
+                icons.add(icon.getConstantState() != null
+                        ? icon.getConstantState().newDrawable().mutate() : icon);
+                targetSdks.add(info.getApplicationInfo().targetSdkVersion);
+            }
+            threads.add(new Thread(() -> {
+                try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
+                    start.await();
+                    for (int round = 0; round < ROUNDS; round++) {
+                        for (int j = 0; j < icons.size(); j++) {
+                            li.createBadgedIconBitmap(icons.get(j), Process.myUserHandle(),
+                                    targetSdks.get(j));
+                            created.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+
+        long startTime = SystemClock.uptimeMillis();
+        start.countDown();
+        done.await();
+        long elapsed = SystemClock.uptimeMillis() - startTime;
+
+        assertEquals(threadCount * ROUNDS * mActivities.size(), created.get());
+        return elapsed;
+    }
+}
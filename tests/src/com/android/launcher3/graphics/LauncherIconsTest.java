@@ -0,0 +1,122 @@
+package com.android.launcher3.graphics;
+
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.os.Process;
+
+import com.android.launcher3.compat.LauncherAppsCompat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.MediumTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LauncherIcons}
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class LauncherIconsTest {
+
+    private static final int THREAD_COUNT = 2;
+
+    private Context mContext;
+    private List<LauncherActivityInfo> mActivities;
+
+    @Before
+    public void setup() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mActivities = LauncherAppsCompat.getInstance(mContext)
+                .getActivityList(null, Process.myUserHandle());
+        assertTrue(!mActivities.isEmpty());
+    }
+
+    @Test
+    public void testInstancesDontShareHelpers() {
+        LauncherIcons li1 = LauncherIcons.obtain(mContext);
+        LauncherIcons li2 = LauncherIcons.obtain(mContext);
+        try {
+            assertNotSame(li1.getNormalizer(), li2.getNormalizer());
+            assertNotSame(li1.getShadowGenerator(), li2.getShadowGenerator());
+        } finally {
+            li1.recycle();
+            li2.recycle();
+        }
+    }
+
+    @Test
+    public void testConcurrentIconsMatchSequential() throws Exception {
+        List<Bitmap> expected;
+        try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
+            expected = createIcons(li, copyIcons());
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<List<Bitmap>> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            // Drawables can't be drawn on several threads at once, each thread gets copies.
+            List<Drawable> icons = copyIcons();
+            List<Bitmap> result = new ArrayList<>();
+            results.add(result);
+            threads.add(new Thread(() -> {
+                try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
+                    start.await();
+                    result.addAll(createIcons(li, icons));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        for (List<Bitmap> result : results) {
+            assertEquals(expected.size(), result.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertTrue("Icon of " + mActivities.get(i).getComponentName() + " differs",
+                        expected.get(i).sameAs(result.get(i)));
+            }
+        }
+    }
+
+    private List<Drawable> copyIcons() {
+        List<Drawable> icons = new ArrayList<>();
+        for (LauncherActivityInfo info : mActivities) {
+            Drawable icon = info.getIcon(0);
+            icons.add(icon.getConstantState() != null
+                    ? icon.getConstantState().newDrawable().mutate() : icon);
+        }
+        return icons;
+    }
+
+    private List<Bitmap> createIcons(LauncherIcons li, List<Drawable> icons) {
+        List<Bitmap> bitmaps = new ArrayList<>();
+        for (int i = 0; i < icons.size(); i++) {
+            Bitmap icon = li.createBadgedIconBitmap(icons.get(i), Process.myUserHandle(),
+                    mActivities.get(i).getApplicationInfo().targetSdkVersion).icon;
+            // Hardware bitmaps can't be compared directly.
+            bitmaps.add(icon.getConfig() == Bitmap.Config.ARGB_8888
+                    ? icon : icon.copy(Bitmap.Config.ARGB_8888, false));
+        }
+        return bitmaps;
+    }
+}
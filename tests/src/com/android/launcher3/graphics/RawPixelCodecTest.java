@@ -0,0 +1,113 @@
+package com.android.launcher3.graphics;
+
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.launcher3.Utilities;
+import com.android.launcher3.compat.LauncherAppsCompat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link RawPixelCodec}, and a comparison of its decode time and size with the PNG
+ * format on the icons of the installed apps. The results are logged under {@link #TAG}.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class RawPixelCodecTest {
+
+    private static final String TAG = "RawPixelCodecTest";
+    private static final int ITERATIONS = 5;
+
+    private List<Bitmap> mIcons;
+
+    @Before
+    public void setup() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mIcons = new ArrayList<>();
+        for (LauncherActivityInfo info : LauncherAppsCompat.getInstance(context)
+                .getActivityList(null, Process.myUserHandle())) {
+            try (LauncherIcons li = LauncherIcons.obtain(context)) {
+                mIcons.add(li.createBadgedIconBitmap(info.getIcon(0), info.getUser(),
+                        info.getApplicationInfo().targetSdkVersion).icon);
+            }
+        }
+        assertTrue(!mIcons.isEmpty());
+    }
+
+    @Test
+    public void testRoundTrip() {
+        for (Bitmap icon : mIcons) {
+            Bitmap software = icon.getConfig() == Bitmap.Config.ARGB_8888
+                    ? icon : icon.copy(Bitmap.Config.ARGB_8888, false);
+            Bitmap decoded = RawPixelCodec.decode(RawPixelCodec.encode(icon), null);
+            assertNotNull(decoded);
+            assertTrue(software.sameAs(decoded));
+        }
+    }
+
+    @Test
+    public void testInvalidData() {
+        assertNull(RawPixelCodec.decode(null, null));
+        assertNull(RawPixelCodec.decode(new byte[4], null));
+        byte[] data = RawPixelCodec.encode(mIcons.get(0));
+        assertNull(RawPixelCodec.decode(Arrays.copyOf(data, data.length - 1), null));
+    }
+
+    @Test
+    public void testCompareWithPng() {
+        List<byte[]> png = new ArrayList<>();
+        List<byte[]> raw = new ArrayList<>();
+        long pngSize = 0;
+        long rawSize = 0;
+        for (Bitmap icon : mIcons) {
+            byte[] pngData = Utilities.flattenBitmap(icon);
+            byte[] rawData = RawPixelCodec.encode(icon);
+            png.add(pngData);
+            raw.add(rawData);
+            pngSize += pngData.length;
+            rawSize += rawData.length;
+        }
+
+        long pngTime = 0;
+        long rawTime = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (byte[] data : png) {
+                assertNotNull(BitmapFactory.decodeByteArray(data, 0, data.length));
+            }
+            pngTime += SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (byte[] data : raw) {
+                assertNotNull(RawPixelCodec.decode(data, null));
+            }
+            rawTime += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        Log.d(TAG, "icons=" + mIcons.size());
+        Log.d(TAG, "png: size=" + pngSize + " decode=" + pngTime / ITERATIONS / 1000 + "us");
+        Log.d(TAG, "raw: size=" + rawSize + " decode=" + rawTime / ITERATIONS / 1000 + "us");
+        assertEquals(png.size(), raw.size());
+    }
+}
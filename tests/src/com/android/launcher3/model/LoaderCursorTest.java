@@ -14,6 +14,8 @@ import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.ShortcutInfo;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.compat.LauncherAppsCompat;
+import com.android.launcher3.graphics.BitmapInfo;
+import com.android.launcher3.provider.LauncherDao;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -48,8 +50,12 @@ import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -139,13 +145,43 @@ public class LoaderCursorTest {
         assertTrue(mLoaderCursor.moveToNext());
 
         Bitmap icon = Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8);
-        when(mMockIconCache.getDefaultIcon(eq(mLoaderCursor.user))).thenReturn(icon);
+        when(mMockIconCache.getDefaultIcon(eq(mLoaderCursor.user)))
+                .thenReturn(BitmapInfo.fromBitmap(icon));
         ShortcutInfo info = mLoaderCursor.loadSimpleShortcut();
         assertEquals(icon, info.iconBitmap);
         assertEquals("my-shortcut", info.title);
         assertEquals(ITEM_TYPE_SHORTCUT, info.itemType);
     }
 
+    @Test
+    public void loadSimpleShortcut_iconNotInProjection() {
+        LauncherDao dao = mock(LauncherDao.class);
+        when(mMockApp.getLauncherDao()).thenReturn(dao);
+        MatrixCursor cursor = new MatrixCursor(LoaderCursor.WORKSPACE_PROJECTION);
+        cursor.newRow()
+                .add(_ID, 1)
+                .add(PROFILE_ID, 0)
+                .add(ITEM_TYPE, ITEM_TYPE_SHORTCUT)
+                .add(TITLE, "my-shortcut")
+                .add(CONTAINER, CONTAINER_DESKTOP);
+        MatrixCursor iconCursor = new MatrixCursor(new String[]{ICON});
+        iconCursor.addRow(new Object[]{null});
+        when(dao.queryFavorites(any(String[].class), anyString(), isNull(), isNull()))
+                .thenReturn(iconCursor);
+
+        LoaderCursor loaderCursor = new LoaderCursor(cursor, mMockApp);
+        loaderCursor.allUsers.put(0, Process.myUserHandle());
+        assertTrue(loaderCursor.moveToNext());
+
+        Bitmap icon = Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8);
+        when(mMockIconCache.getDefaultIcon(eq(loaderCursor.user)))
+                .thenReturn(BitmapInfo.fromBitmap(icon));
+        ShortcutInfo info = loaderCursor.loadSimpleShortcut();
+        // The blob is read by id, and the default icon is used as it is empty.
+        verify(dao).queryFavorites(any(String[].class), eq(_ID + " = 1"), isNull(), isNull());
+        assertEquals(icon, info.iconBitmap);
+    }
+
     @Test
     public void checkItemPlacement_wrongWorkspaceScreen() {
         ArrayList<Long> workspaceScreens = new ArrayList<>(Arrays.asList(1L, 3L));
@@ -0,0 +1,151 @@
+package com.android.launcher3.provider;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.launcher3.LauncherProvider;
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.util.Benchmark;
+import com.android.launcher3.util.TestLauncherProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares loading and bulk updating the workspace through the {@link LauncherProvider} URI
+ * API and through {@link LauncherDao}, on an in-memory DB. The results are logged under
+ * {@link #TAG}.
+ */
+@LargeTest
+@Benchmark
+@RunWith(AndroidJUnit4.class)
+public class LauncherDaoBenchmarkTest {
+
+    private static final String TAG = "LauncherDaoBenchmark";
+
+    private static final int ITEM_COUNT = 200;
+    private static final int ROUNDS = 20;
+
+    private TestLauncherProvider mProvider;
+    private LauncherDao mDao;
+    private ArrayList<Long> mItemIds = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        ProviderInfo info = new ProviderInfo();
+        info.authority = LauncherProvider.AUTHORITY;
+        mProvider = new TestLauncherProvider();
+        mProvider.attachInfo(context, info);
+        mDao = mProvider.getDao();
+
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            long id = mDao.generateNewItemId();
+            ContentValues values = new ContentValues();
+            values.put(Favorites._ID, id);
+            values.put(Favorites.ITEM_TYPE, Favorites.ITEM_TYPE_APPLICATION);
+            values.put(Favorites.CONTAINER, Favorites.CONTAINER_DESKTOP);
+            values.put(Favorites.SCREEN, i / 20);
+            values.put(Favorites.CELLX, i % 4);
+            values.put(Favorites.CELLY, (i / 4) % 5);
+            values.put(Favorites.INTENT, "#Intent;component=com.test/.Activity" + i + ";end");
+            mDao.insertItem(values);
+            mItemIds.add(id);
+        }
+    }
+
+    @Test
+    public void testLoadLatency() {
+        // Warm up the statement caches of both paths.
+        loadThroughProvider();
+        loadThroughDao();
+
+        long startTime = SystemClock.uptimeMillis();
+        for (int i = 0; i < ROUNDS; i++) {
+            assertEquals(ITEM_COUNT, loadThroughProvider());
+        }
+        long providerTime = SystemClock.uptimeMillis() - startTime;
+
+        startTime = SystemClock.uptimeMillis();
+        for (int i = 0; i < ROUNDS; i++) {
+            assertEquals(ITEM_COUNT, loadThroughDao());
+        }
+        long daoTime = SystemClock.uptimeMillis() - startTime;
+
+        Log.d(TAG, "load items=" + ITEM_COUNT + " rounds=" + ROUNDS
+                + " provider=" + providerTime + "ms dao=" + daoTime + "ms");
+    }
+
+    @Test
+    public void testBulkUpdateLatency() throws Exception {
+        long startTime = SystemClock.uptimeMillis();
+        for (int round = 0; round < ROUNDS; round++) {
+            ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+            for (long id : mItemIds) {
+                ops.add(ContentProviderOperation.newUpdate(Favorites.getContentUri(id))
+                        .withValues(newPosition(round)).build());
+            }
+            assertEquals(ITEM_COUNT, mProvider.applyBatch(ops).length);
+        }
+        long providerTime = SystemClock.uptimeMillis() - startTime;
+
+        startTime = SystemClock.uptimeMillis();
+        for (int round = 0; round < ROUNDS; round++) {
+            LinkedHashMap<Long, ContentValues> updates = new LinkedHashMap<>();
+            for (long id : mItemIds) {
+                updates.put(id, newPosition(round));
+            }
+            assertEquals(ITEM_COUNT, mDao.updateItems(updates));
+        }
+        long daoTime = SystemClock.uptimeMillis() - startTime;
+
+        Log.d(TAG, "bulkUpdate items=" + ITEM_COUNT + " rounds=" + ROUNDS
+                + " provider=" + providerTime + "ms dao=" + daoTime + "ms");
+    }
+
+    private int loadThroughProvider() {
+        try (Cursor c = mProvider.query(Favorites.CONTENT_URI, null, null, null, null)) {
+            return readAll(c);
+        }
+    }
+
+    private int loadThroughDao() {
+        try (Cursor c = mDao.queryFavorites(null, null, null, null)) {
+            return readAll(c);
+        }
+    }
+
+    private static int readAll(Cursor c) {
+        int cellXIndex = c.getColumnIndexOrThrow(Favorites.CELLX);
+        int intentIndex = c.getColumnIndexOrThrow(Favorites.INTENT);
+        int count = 0;
+        while (c.moveToNext()) {
+            c.getInt(cellXIndex);
+            c.getString(intentIndex);
+            count++;
+        }
+        return count;
+    }
+
+    private static ContentValues newPosition(int round) {
+        ContentValues values = new ContentValues();
+        values.put(Favorites.CELLX, round % 4);
+        values.put(Favorites.RANK, round);
+        return values;
+    }
+}
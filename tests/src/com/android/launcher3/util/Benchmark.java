@@ -0,0 +1,16 @@
+package com.android.launcher3.util;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the tests which only measure and log performance. They are excluded from the default
+ * test run, and can be run with
+ * {@code adb shell am instrument -w -e annotation com.android.launcher3.util.Benchmark <runner>}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Benchmark {
+}
@@ -0,0 +1,118 @@
+package org.zimmob.zimlx.blur;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.launcher3.util.Benchmark;
+import com.hoko.blur.HokoBlur;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+/**
+ * Measures the time taken by {@link StackBlur} to blur a downsampled wallpaper with 1 thread and
+ * with all the cores, compared to the HokoBlur path of {@link BlurWallpaperFilter}. The results
+ * are logged under {@link #TAG}.
+ */
+@LargeTest
+@Benchmark
+@RunWith(AndroidJUnit4.class)
+public class StackBlurBenchmarkTest {
+
+    private static final String TAG = "StackBlurBenchmark";
+
+    // A 1440x3200 display, downsampled by BlurWallpaperProvider.DOWNSAMPLE_FACTOR.
+    private static final int WIDTH = 180;
+    private static final int HEIGHT = 400;
+    private static final int RADIUS = 25;
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 20;
+
+    private Context mContext;
+    private int[] mPixels;
+
+    @Before
+    public void setup() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        Random random = new Random(42);
+        mPixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < mPixels.length; i++) {
+            mPixels[i] = 0xff000000 | random.nextInt();
+        }
+    }
+
+    @Test
+    public void testBlurTime() {
+        StackBlur singleThread = new StackBlur(new ForkJoinPool(1));
+        int cores = Runtime.getRuntime().availableProcessors();
+        StackBlur allCores = new StackBlur(new ForkJoinPool(cores));
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runStackBlur(singleThread);
+            runStackBlur(allCores);
+            runHokoBlur();
+        }
+
+        long singleThreadTime = 0;
+        long allCoresTime = 0;
+        long hokoBlurTime = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            singleThreadTime += runStackBlur(singleThread);
+            allCoresTime += runStackBlur(allCores);
+            hokoBlurTime += runHokoBlur();
+        }
+
+        Log.d(TAG, "size=" + WIDTH + "x" + HEIGHT + " radius=" + RADIUS);
+        Log.d(TAG, "stack blur, 1 thread: " + singleThreadTime / ITERATIONS / 1000 + "us");
+        Log.d(TAG, "stack blur, " + cores + " threads: "
+                + allCoresTime / ITERATIONS / 1000 + "us");
+        Log.d(TAG, "HokoBlur: " + hokoBlurTime / ITERATIONS / 1000 + "us");
+    }
+
+    private long runStackBlur(StackBlur stackBlur) {
+        Bitmap bitmap = createBitmap();
+        long start = SystemClock.elapsedRealtimeNanos();
+        int[] pixels = new int[WIDTH * HEIGHT];
+        bitmap.getPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        stackBlur.blur(pixels, WIDTH, HEIGHT, RADIUS);
+        bitmap.setPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        long time = SystemClock.elapsedRealtimeNanos() - start;
+        bitmap.recycle();
+        return time;
+    }
+
+    private long runHokoBlur() {
+        Bitmap bitmap = createBitmap();
+        long start = SystemClock.elapsedRealtimeNanos();
+        Bitmap result = HokoBlur.with(mContext)
+                .scheme(HokoBlur.SCHEME_OPENGL)
+                .mode(HokoBlur.MODE_STACK)
+                .radius(RADIUS)
+                .sampleFactor(1f)
+                .forceCopy(false)
+                .needUpscale(false)
+                .processor()
+                .blur(bitmap);
+        long time = SystemClock.elapsedRealtimeNanos() - start;
+        if (result != bitmap) {
+            result.recycle();
+        }
+        bitmap.recycle();
+        return time;
+    }
+
+    private Bitmap createBitmap() {
+        return Bitmap.createBitmap(mPixels, WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+                .copy(Bitmap.Config.ARGB_8888, true);
+    }
+}
@@ -0,0 +1,84 @@
+package org.zimmob.zimlx.blur;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests for {@link StackBlur}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StackBlurTest {
+
+    private final StackBlur mStackBlur = new StackBlur(new ForkJoinPool(4));
+
+    @Test
+    public void testUniformImageUnchanged() {
+        int[] pixels = new int[37 * 23];
+        Arrays.fill(pixels, 0xff336699);
+        int[] expected = pixels.clone();
+        mStackBlur.blur(pixels, 37, 23, 5);
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void testSameAsReference() {
+        Random random = new Random(42);
+        int[][] sizes = {{1, 1}, {1, 40}, {40, 1}, {7, 300}, {300, 7}, {180, 400}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            int[] pixels = new int[width * height];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = random.nextInt();
+            }
+            for (int radius : new int[] {1, 3, 25}) {
+                int[] expected = referenceBlur(pixels, width, height, radius);
+                int[] actual = pixels.clone();
+                mStackBlur.blur(actual, width, height, radius);
+                assertArrayEquals(width + "x" + height + " radius " + radius, expected, actual);
+            }
+        }
+    }
+
+    /**
+     * Weights every pixel within the radius by its distance, rows then columns.
+     */
+    private static int[] referenceBlur(int[] pixels, int width, int height, int radius) {
+        int[] rows = new int[pixels.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                rows[y * width + x] = referencePixel(pixels, y * width, 1, width, x, radius);
+            }
+        }
+        int[] result = new int[pixels.length];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                result[y * width + x] = referencePixel(rows, x, width, height, y, radius);
+            }
+        }
+        return result;
+    }
+
+    private static int referencePixel(int[] line, int offset, int stride, int length, int pos,
+            int radius) {
+        int divisor = (radius + 1) * (radius + 1);
+        int result = 0;
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            int sum = 0;
+            for (int d = -radius; d <= radius; d++) {
+                int i = Math.min(Math.max(pos + d, 0), length - 1);
+                sum += (radius + 1 - Math.abs(d)) * ((line[offset + i * stride] >>> shift) & 0xff);
+            }
+            result |= ((sum + divisor / 2) / divisor) << shift;
+        }
+        return result;
+    }
+}